@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * AdaptiveConcurrencyLimiter limits the number of requests in flight
+ * and adapts the limit to the server (AIMD, additive increase /
+ * multiplicative decrease).
+ *
+ * The limit is increased by 1 per limit successful requests while the
+ * latency is flat. It is decreased by {@link #LATENCY_DECREASE_FACTOR}
+ * if the short term latency rises above {@link #LATENCY_TOLERANCE} times
+ * the long term latency and by {@link #THROTTLE_DECREASE_FACTOR} if
+ * the server throttles requests (HTTP 429 or 503). The limit is
+ * decreased at most once per latency interval, a burst of errors
+ * of one window counts as one signal.
+ *
+ * After a throttled request no request is started until
+ * the delay of the Retry-After header is over.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Logger LOG = Logger.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    public static final int MIN_LIMIT = 1;
+    public static final double LATENCY_TOLERANCE = 2.0;
+    public static final double LATENCY_DECREASE_FACTOR = 0.9;
+    public static final double THROTTLE_DECREASE_FACTOR = 0.5;
+    public static final long DEFAULT_RETRY_AFTER_IN_MS = 1000;
+
+    private static final double SHORT_LATENCY_WEIGHT = 0.2;
+    private static final double LONG_LATENCY_WEIGHT = 0.01;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int maxLimit;
+    private int inFlight = 0;
+    private long pausedUntil = 0;
+    private long lastDecreaseTimestamp = 0;
+
+    private double shortLatency = -1;
+    private double longLatency = -1;
+
+    private int minObservedLimit;
+    private int maxObservedLimit;
+    private long numberOfThrottledRequests = 0;
+
+    /**
+     * @param initialLimit The limit at start
+     * @param maxLimit The max. limit
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int maxLimit) {
+        super();
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.limit = Math.max(MIN_LIMIT, Math.min(initialLimit, this.maxLimit));
+        this.minObservedLimit = (int) limit;
+        this.maxObservedLimit = (int) limit;
+    }
+
+    /**
+     * Blocks until the number of requests in flight is below the limit
+     * and the Retry-After delay of a throttled request is over.
+     *
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(true) {
+                long delay = pausedUntil - System.currentTimeMillis();
+                if(delay > 0) {
+                    permitAvailable.await(delay, TimeUnit.MILLISECONDS);
+                } else if(inFlight >= (int) limit) {
+                    permitAvailable.await();
+                } else {
+                    break;
+                }
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit of a request which got a response.
+     *
+     * @param latencyInMs The latency of the request
+     */
+    public void onResponse(long latencyInMs) {
+        lock.lock();
+        try {
+            boolean limitUsed = inFlight >= (int) limit;
+            inFlight--;
+            updateLatency(latencyInMs);
+            if(shortLatency > longLatency * LATENCY_TOLERANCE) {
+                decrease(LATENCY_DECREASE_FACTOR);
+            } else if(limitUsed && limit < maxLimit) {
+                // increase only if the limit is reached,
+                // otherwise the latency says nothing about the limit
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                maxObservedLimit = Math.max(maxObservedLimit, (int) limit);
+            }
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit of a request which was throttled by the server.
+     *
+     * @param retryAfterInMs The delay of the Retry-After header or -1
+     */
+    public void onThrottled(long retryAfterInMs) {
+        lock.lock();
+        try {
+            inFlight--;
+            numberOfThrottledRequests++;
+            decrease(THROTTLE_DECREASE_FACTOR);
+            long delay = (retryAfterInMs >= 0) ? retryAfterInMs : DEFAULT_RETRY_AFTER_IN_MS;
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit of a request which failed without a response.
+     * The limit is not changed.
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateLatency(long latencyInMs) {
+        if(longLatency < 0) {
+            shortLatency = latencyInMs;
+            longLatency = latencyInMs;
+            return;
+        }
+        shortLatency += SHORT_LATENCY_WEIGHT * (latencyInMs - shortLatency);
+        longLatency += LONG_LATENCY_WEIGHT * (latencyInMs - longLatency);
+    }
+
+    private void decrease(double factor) {
+        long now = System.currentTimeMillis();
+        if(now - lastDecreaseTimestamp < Math.max(longLatency, 1)) {
+            return;
+        }
+        lastDecreaseTimestamp = now;
+        limit = Math.max(MIN_LIMIT, limit * factor);
+        minObservedLimit = Math.min(minObservedLimit, (int) limit);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Concurrency limit decreased to: " + (int) limit);
+        }
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getNumberOfRequestsInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getNumberOfThrottledRequests() {
+        lock.lock();
+        try {
+            return numberOfThrottledRequests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void logStatistics() {
+        lock.lock();
+        try {
+            LOG.info("Concurrency limit: " + (int) limit + " (min: " + minObservedLimit + ", max: " + maxObservedLimit
+                    + "), throttled requests: " + numberOfThrottledRequests + ", latency: " + Math.round(longLatency) + " ms");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Fetch engine which limits the requests of another fetch engine
+ * by an {@link AdaptiveConcurrencyLimiter}.
+ *
+ * Requests which are throttled by the server (HTTP 429 or 503) are
+ * repeated after the Retry-After delay, up to {@link #MAX_ATTEMPTS} times.
+ * Requests of a blocking engine are repeated in the calling thread,
+ * requests of an asynchronous engine by a retry thread.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class AdaptiveFetchEngine implements IFetchEngine {
+
+    private static final Logger LOG = Logger.getLogger(AdaptiveFetchEngine.class);
+
+    public static final int MAX_ATTEMPTS = 5;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private IFetchEngine fetchEngine;
+    private AdaptiveConcurrencyLimiter limiter;
+    private ExecutorService retryExecutor;
+
+    // requests which are accepted and not passed to the callback
+    private int numberOfPendingRequests = 0;
+    private final Object pendingLock = new Object();
+
+    /**
+     * @param fetchEngine The engine which loads the documents
+     * @param limiter The limiter of the requests
+     */
+    public AdaptiveFetchEngine(IFetchEngine fetchEngine, AdaptiveConcurrencyLimiter limiter) {
+        super();
+        this.fetchEngine = fetchEngine;
+        this.limiter = limiter;
+        if(fetchEngine.isAsync()) {
+            retryExecutor = Executors.newSingleThreadExecutor();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#fetch(java.lang.String, org.wikidata.couchbase.IFetchCallback)
+     */
+    @Override
+    public void fetch(String url, IFetchCallback callback) throws InterruptedException {
+        changePendingRequests(1);
+        try {
+            new Request(url, callback).start();
+        } catch (InterruptedException e) {
+            changePendingRequests(-1);
+            throw e;
+        } catch (RuntimeException e) {
+            changePendingRequests(-1);
+            throw e;
+        }
+    }
+
+    private void changePendingRequests(int delta) {
+        synchronized (pendingLock) {
+            numberOfPendingRequests += delta;
+            if(numberOfPendingRequests==0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A request and its callback. Passes the response to the callback
+     * of the caller unless the request is throttled.
+     */
+    class Request implements IFetchCallback {
+
+        private String url;
+        private IFetchCallback callback;
+        private int attempt = 0;
+        private long startTimestamp;
+
+        Request(String url, IFetchCallback callback) {
+            super();
+            this.url = url;
+            this.callback = callback;
+        }
+
+        void start() throws InterruptedException {
+            attempt++;
+            limiter.acquire();
+            startTimestamp = System.currentTimeMillis();
+            try {
+                fetchEngine.fetch(url, this);
+            } catch (InterruptedException e) {
+                limiter.onDropped();
+                throw e;
+            } catch (RuntimeException e) {
+                limiter.onDropped();
+                throw e;
+            }
+        }
+
+        @Override
+        public void completed(String json) {
+            limiter.onResponse(System.currentTimeMillis() - startTimestamp);
+            try {
+                callback.completed(json);
+            } finally {
+                changePendingRequests(-1);
+            }
+        }
+
+        @Override
+        public void failed(int status, Exception e) {
+            if(status==HTTP_TOO_MANY_REQUESTS || status==HTTP_SERVICE_UNAVAILABLE) {
+                long retryAfter = (e instanceof HttpStatusException) ? ((HttpStatusException) e).getRetryAfterInMs() : -1;
+                limiter.onThrottled(retryAfter);
+                if(attempt < MAX_ATTEMPTS && retry()) {
+                    return;
+                }
+            } else if(status>=0) {
+                limiter.onResponse(System.currentTimeMillis() - startTimestamp);
+            } else {
+                limiter.onDropped();
+            }
+            try {
+                callback.failed(status, e);
+            } finally {
+                changePendingRequests(-1);
+            }
+        }
+
+        private boolean retry() {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Request throttled, attempt: " + attempt + ", URL: " + url);
+            }
+            if(retryExecutor==null) {
+                return restart();
+            }
+            try {
+                retryExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!restart()) {
+                            try {
+                                callback.failed(-1, new InterruptedException("Retry was interrupted: " + url));
+                            } finally {
+                                changePendingRequests(-1);
+                            }
+                        }
+                    }
+                });
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        private boolean restart() {
+            try {
+                start();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#isAsync()
+     */
+    @Override
+    public boolean isAsync() {
+        return fetchEngine.isAsync();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#awaitCompletion()
+     */
+    @Override
+    public void awaitCompletion() throws InterruptedException {
+        // throttled requests are pending until they are passed to the callback
+        synchronized (pendingLock) {
+            while(numberOfPendingRequests > 0) {
+                pendingLock.wait();
+            }
+        }
+        fetchEngine.awaitCompletion();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        try {
+            awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for pending requests.");
+        }
+        if(retryExecutor!=null) {
+            retryExecutor.shutdown();
+        }
+        fetchEngine.shutdown();
+        limiter.logStatistics();
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Fetch engine which loads documents with non-blocking I/O.
+ * 
+ * A few I/O dispatcher threads handle all connections. Connections
+ * are kept alive and reused. The number of requests in flight is limited
+ * by {@link Configuration#getMaxNumberOfRequests()},
+ * {@link #fetch(String, IFetchCallback)} blocks if this limit is reached.
+ * 
+ * Callbacks are executed by the worker executor, not by the I/O threads.
+ * A request is counted as in flight until its callback is finished,
+ * so the work queue of the executor never holds more responses
+ * than the request limit.
+ * 
+ * HttpAsyncClient - http://hc.apache.org/httpcomponents-asyncclient-4.0.x/
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class AsyncFetchEngine implements IFetchEngine {
+
+    private static final Logger LOG = Logger.getLogger(AsyncFetchEngine.class);
+    
+    private static final int TIMEOUT_IN_MS = 60000;
+    private static final String CHARSET = "UTF-8";
+    private static final String RETRY_AFTER = "Retry-After";
+    
+    private CloseableHttpAsyncClient httpClient;
+    private Executor workers;
+    private Semaphore requestsInFlight;
+    private int maxNumberOfRequests;
+    
+    /**
+     * @param conf Importer configuration
+     * @param workers Executor which executes the callbacks
+     */
+    public AsyncFetchEngine(Configuration conf, Executor workers) {
+        super();
+        this.workers = workers;
+        // the adaptive limiter keeps the number of requests below its limit
+        this.maxNumberOfRequests = Math.max(conf.getMaxNumberOfRequests(), conf.getMaxConcurrency());
+        this.requestsInFlight = new Semaphore(maxNumberOfRequests);
+        createHttpClient();
+    }
+
+    private void createHttpClient() {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(TIMEOUT_IN_MS)
+                .setSocketTimeout(TIMEOUT_IN_MS)
+                .build();
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .setTcpNoDelay(true)
+                .build();
+        httpClient = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setMaxConnTotal(maxNumberOfRequests)
+                .setMaxConnPerRoute(maxNumberOfRequests)
+                .build();
+        httpClient.start();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#fetch(java.lang.String, org.wikidata.couchbase.IFetchCallback)
+     */
+    @Override
+    public void fetch(final String url, final IFetchCallback callback) throws InterruptedException {
+        requestsInFlight.acquire();
+        try {
+            httpClient.execute(new HttpGet(url), new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(final HttpResponse response) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            handleResponse(response, callback);
+                        }
+                    });
+                }
+                
+                @Override
+                public void failed(final Exception e) {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.failed(-1, e);
+                        }
+                    });
+                }
+
+                @Override
+                public void cancelled() {
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.failed(-1, new IOException("Request cancelled: " + url));
+                        }
+                    });
+                }
+            });
+        } catch (RuntimeException e) {
+            requestsInFlight.release();
+            throw e;
+        }
+    }
+    
+    private void handleResponse(HttpResponse response, IFetchCallback callback) {
+        int status = response.getStatusLine().getStatusCode();
+        String json;
+        try {
+            json = EntityUtils.toString(response.getEntity(), CHARSET);
+        } catch (Exception e) {
+            callback.failed(status, e);
+            return;
+        }
+        if(status >= 200 && status < 300) {
+            callback.completed(json);
+        } else {
+            Header retryAfter = response.getFirstHeader(RETRY_AFTER);
+            callback.failed(status, new HttpStatusException("HTTP error: " + response.getStatusLine(), status, (retryAfter!=null) ? retryAfter.getValue() : null, null));
+        }
+    }
+
+    private void dispatch(final Runnable task) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        requestsInFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            requestsInFlight.release();
+            LOG.error("Response callback rejected.", e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#isAsync()
+     */
+    @Override
+    public boolean isAsync() {
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#awaitCompletion()
+     */
+    @Override
+    public void awaitCompletion() throws InterruptedException {
+        // a request holds its permit until the callback is finished
+        requestsInFlight.acquire(maxNumberOfRequests);
+        requestsInFlight.release(maxNumberOfRequests);
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        try {
+            awaitCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for requests in flight.");
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOG.error("Error while closing HTTP client.", e);
+        }
+    }
+    
+    /**
+     * Returns the number of requests which are not finished.
+     */
+    public int getNumberOfRequestsInFlight() {
+        return maxNumberOfRequests - requestsInFlight.availablePermits();
+    }
+
+}
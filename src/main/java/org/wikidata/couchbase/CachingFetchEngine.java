@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Fetch engine which answers requests from a {@link ResponseCache}.
+ * Requests which are not in the cache are passed to another engine,
+ * successful responses and 404 responses are saved in the cache.
+ *
+ * A re-import of cached items runs without network. If the other
+ * engine is asynchronous cached responses are handled by the threads
+ * of the scheduler.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class CachingFetchEngine implements IFetchEngine {
+
+    private static final Logger LOG = Logger.getLogger(CachingFetchEngine.class);
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_FOUND = 404;
+
+    private IFetchEngine fetchEngine;
+    private ResponseCache cache;
+    private ImportScheduler scheduler;
+
+    /**
+     * @param fetchEngine The engine which loads responses which are not cached
+     * @param cache The response cache
+     * @param scheduler The scheduler which handles cached responses of an asynchronous engine
+     */
+    public CachingFetchEngine(IFetchEngine fetchEngine, ResponseCache cache, ImportScheduler scheduler) {
+        super();
+        this.fetchEngine = fetchEngine;
+        this.cache = cache;
+        this.scheduler = scheduler;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#fetch(java.lang.String, org.wikidata.couchbase.IFetchCallback)
+     */
+    @Override
+    public void fetch(final String url, final IFetchCallback callback) throws InterruptedException {
+        final ResponseCache.Response response = getCachedResponse(url);
+        if(response==null) {
+            fetchEngine.fetch(url, new IFetchCallback() {
+                @Override
+                public void completed(String json) {
+                    putCachedResponse(url, HTTP_OK, json);
+                    callback.completed(json);
+                }
+
+                @Override
+                public void failed(int status, Exception e) {
+                    if(status==HTTP_NOT_FOUND) {
+                        putCachedResponse(url, status, "");
+                    }
+                    callback.failed(status, e);
+                }
+            });
+            return;
+        }
+        if(fetchEngine.isAsync()) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    handleCachedResponse(response, callback);
+                }
+            });
+        } else {
+            handleCachedResponse(response, callback);
+        }
+    }
+
+    private void handleCachedResponse(ResponseCache.Response response, IFetchCallback callback) {
+        if(response.getStatus()==HTTP_OK) {
+            callback.completed(response.getBody());
+        } else {
+            callback.failed(response.getStatus(), new HttpStatusException("HTTP error: " + response.getStatus() + " (cached)", response.getStatus(), null, null));
+        }
+    }
+
+    private ResponseCache.Response getCachedResponse(String url) {
+        try {
+            return cache.get(url);
+        } catch (IOException e) {
+            LOG.warn("Error while reading response cache, URL: " + url, e);
+            return null;
+        }
+    }
+
+    private void putCachedResponse(String url, int status, String body) {
+        try {
+            cache.put(url, status, body);
+        } catch (IOException e) {
+            LOG.warn("Error while writing response cache, URL: " + url, e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#isAsync()
+     */
+    @Override
+    public boolean isAsync() {
+        return fetchEngine.isAsync();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#awaitCompletion()
+     */
+    @Override
+    public void awaitCompletion() throws InterruptedException {
+        fetchEngine.awaitCompletion();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        fetchEngine.shutdown();
+        cache.close();
+    }
+
+}
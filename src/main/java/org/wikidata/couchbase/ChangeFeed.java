@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.jersey.api.client.Client;
+
+/**
+ * ChangeFeed reads the items which are changed since a point in time
+ * from the recent changes of wikidata. Changes are read from the API
+ * or from a file with a response of the API.
+ *
+ * For every changed item the highest revision id is returned.
+ * The incremental import compares these ids with the revision ids
+ * in the database and imports changed items only.
+ *
+ * wikidata API - https://www.wikidata.org/w/api.php?action=help&modules=query+recentchanges
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ChangeFeed {
+
+    private static final Logger LOG = Logger.getLogger(ChangeFeed.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final int PAGE_SIZE = 500;
+    private static final String ITEM_PREFIX = "Q";
+    private static final String CHARSET = "UTF-8";
+
+    private Map<Integer, Long> changes = new HashMap<Integer, Long>();
+    private String lastTimestamp = null;
+    private int numberOfRevisions = 0;
+
+    /**
+     * Reads the changes of a file with a response of
+     * the recent changes API.
+     *
+     * @param fileName A JSON file
+     * @throws IOException
+     */
+    public void load(String fileName) throws IOException {
+        add(MAPPER.readTree(new File(fileName)));
+    }
+
+    /**
+     * Reads all changes since a point in time from the
+     * recent changes API.
+     *
+     * @param wikidataUrl Wikidata base URL
+     * @param since ISO 8601 timestamp, e.g. "2014-02-22T10:00:00Z"
+     * @throws IOException
+     */
+    public void load(String wikidataUrl, String since) throws IOException {
+        Client client = Client.create();
+        try {
+            String continueParameter = null;
+            do {
+                String url = buildWebserviceUrl(wikidataUrl, since, continueParameter);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Recent changes URL: " + url);
+                }
+                JsonNode response = MAPPER.readTree(client.resource(url).get(String.class));
+                if(response.has("error")) {
+                    throw new IOException(response.path("error").path("info").asText());
+                }
+                add(response);
+                continueParameter = response.path("continue").path("rccontinue").textValue();
+            } while(continueParameter!=null);
+        } finally {
+            client.destroy();
+        }
+    }
+
+    private void add(JsonNode response) {
+        Iterator<JsonNode> recentChanges = response.path("query").path("recentchanges").elements();
+        while(recentChanges.hasNext()) {
+            JsonNode change = recentChanges.next();
+            String title = change.path("title").asText();
+            if(!title.startsWith(ITEM_PREFIX)) {
+                continue;
+            }
+            Integer id;
+            try {
+                id = Integer.valueOf(title.substring(ITEM_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            long revisionId = change.path("revid").asLong();
+            Long knownRevisionId = changes.get(id);
+            if(knownRevisionId==null || knownRevisionId < revisionId) {
+                changes.put(id, revisionId);
+            }
+            numberOfRevisions++;
+            String timestamp = change.path("timestamp").textValue();
+            if(timestamp!=null && (lastTimestamp==null || timestamp.compareTo(lastTimestamp) > 0)) {
+                lastTimestamp = timestamp;
+            }
+        }
+    }
+
+    private static String buildWebserviceUrl(String wikidataUrl, String since, String continueParameter) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(wikidataUrl);
+        sb.append("/w/api.php?action=query&list=recentchanges&format=json&rcnamespace=0&rcdir=newer");
+        sb.append("&rctype=edit%7Cnew&rcprop=title%7Cids%7Ctimestamp&rclimit=").append(PAGE_SIZE);
+        sb.append("&rcstart=").append(URLEncoder.encode(since, CHARSET));
+        if(continueParameter!=null) {
+            sb.append("&continue=-%7C%7C&rccontinue=").append(URLEncoder.encode(continueParameter, CHARSET));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the changed items and their highest revision id.
+     */
+    public Map<Integer, Long> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns the time of the last change or null if there are no changes.
+     */
+    public String getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public int getNumberOfRevisions() {
+        return numberOfRevisions;
+    }
+
+}
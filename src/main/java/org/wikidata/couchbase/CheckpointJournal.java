@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * CheckpointJournal records which items are imported to resume
+ * an import after a crash.
+ *
+ * Completed ids are kept in a bitmap. Ids are appended to a journal file
+ * once per second. An id must be marked as completed only after its write
+ * is confirmed by the database (see {@link IWriteCallback}), an id in the
+ * journal is always saved in the database. Periodically the
+ * bitmap above the low-watermark is written to a snapshot file
+ * (<journal>.bitmap) and the journal file is truncated.
+ *
+ * Marking an id as completed only sets a bit and adds the id to a buffer,
+ * file operations are done by a timer thread.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class CheckpointJournal {
+
+    private static final Logger LOG = Logger.getLogger(CheckpointJournal.class);
+
+    public static final long FLUSH_INTERVAL_IN_MS = 1000;
+    public static final int FLUSHES_PER_SNAPSHOT = 60;
+
+    private static final String SNAPSHOT_SUFFIX = ".bitmap";
+    private static final int SNAPSHOT_MAGIC = 0x57434931;
+    private static final int RECORD_SIZE = 4;
+
+    private File journalFile;
+    private File snapshotFile;
+
+    private BitSet completed = new BitSet();
+    // ids in the journal file, used by the timer thread only
+    private BitSet journaled = new BitSet();
+    private int[] buffer = new int[1024];
+    private int bufferSize = 0;
+    private final Object lock = new Object();
+
+    private DataOutputStream out;
+    private FileOutputStream fileOut;
+    private int numberOfFlushes = 0;
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * Creates a journal and loads the ids which are completed
+     * by a previous import.
+     *
+     * @param fileName The journal file
+     * @throws IOException
+     */
+    public CheckpointJournal(String fileName) throws IOException {
+        super();
+        this.journalFile = new File(fileName);
+        this.snapshotFile = new File(fileName + SNAPSHOT_SUFFIX);
+        load();
+        truncateIncompleteRecord();
+        openJournal(true);
+        startTimer();
+    }
+
+    /**
+     * Marks an item as completed. Call this after the item
+     * is written or if there is nothing to write.
+     *
+     * @param id The id of an item
+     */
+    public void markCompleted(int id) {
+        synchronized (lock) {
+            completed.set(id);
+            if(bufferSize==buffer.length) {
+                int[] newBuffer = new int[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, bufferSize);
+                buffer = newBuffer;
+            }
+            buffer[bufferSize++] = id;
+        }
+    }
+
+    public boolean isCompleted(int id) {
+        synchronized (lock) {
+            return completed.get(id);
+        }
+    }
+
+    /**
+     * @param firstId The first id of the import
+     * @return The first id which is not completed, all ids before are completed
+     */
+    public int getLowWatermark(int firstId) {
+        synchronized (lock) {
+            return completed.nextClearBit(firstId);
+        }
+    }
+
+    public int getNumberOfCompletedIds() {
+        synchronized (lock) {
+            return completed.cardinality();
+        }
+    }
+
+    private void startTimer() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    LOG.error("Error while writing journal file: " + journalFile, e);
+                }
+            }
+        }, FLUSH_INTERVAL_IN_MS, FLUSH_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes all completed ids to the journal file.
+     * Called by the timer thread only.
+     */
+    private void flush() throws IOException {
+        int[] ids;
+        int n;
+        synchronized (lock) {
+            if(bufferSize==0) {
+                return;
+            }
+            ids = buffer;
+            n = bufferSize;
+            buffer = new int[Math.max(1024, n)];
+            bufferSize = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            out.writeInt(ids[i]);
+            journaled.set(ids[i]);
+        }
+        out.flush();
+        fileOut.getFD().sync();
+        numberOfFlushes++;
+        if(numberOfFlushes % FLUSHES_PER_SNAPSHOT == 0) {
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        // item ids start at 1
+        int lowWatermark = journaled.nextClearBit(1);
+        long[] words = journaled.get(lowWatermark, Math.max(lowWatermark, journaled.length())).toLongArray();
+        File tmpFile = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream snapshotOut = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(snapshotOut));
+            dataOut.writeInt(SNAPSHOT_MAGIC);
+            dataOut.writeInt(lowWatermark);
+            dataOut.writeInt(words.length);
+            for (long word : words) {
+                dataOut.writeLong(word);
+            }
+            dataOut.flush();
+            snapshotOut.getFD().sync();
+        } finally {
+            snapshotOut.close();
+        }
+        Files.move(tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // all ids in the journal are in the snapshot now
+        out.close();
+        openJournal(false);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Journal snapshot written, low-watermark: " + lowWatermark);
+        }
+    }
+
+    /**
+     * Removes the incomplete last id of a journal which was written by
+     * a crashed import, otherwise all appended ids are misaligned.
+     */
+    private void truncateIncompleteRecord() throws IOException {
+        long length = journalFile.length();
+        if(length % RECORD_SIZE == 0) {
+            return;
+        }
+        LOG.warn("Journal ends with an incomplete id, truncating: " + journalFile);
+        RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        try {
+            file.setLength(length - length % RECORD_SIZE);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void openJournal(boolean append) throws IOException {
+        fileOut = new FileOutputStream(journalFile, append);
+        out = new DataOutputStream(new BufferedOutputStream(fileOut));
+    }
+
+    private void load() throws IOException {
+        if(snapshotFile.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            try {
+                if(in.readInt()!=SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a journal snapshot: " + snapshotFile);
+                }
+                int lowWatermark = in.readInt();
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                journaled.set(1, lowWatermark);
+                BitSet bits = BitSet.valueOf(words);
+                for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                    journaled.set(lowWatermark + i);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        if(journalFile.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            try {
+                while(true) {
+                    journaled.set(in.readInt());
+                }
+            } catch (EOFException e) {
+                // end of journal, the last id may be incomplete
+            } finally {
+                in.close();
+            }
+        }
+        completed.or(journaled);
+        if(!completed.isEmpty()) {
+            LOG.info("Journal loaded, completed items: " + completed.cardinality() + ", low-watermark: " + completed.nextClearBit(1));
+        }
+    }
+
+    /**
+     * Writes all completed ids, writes a snapshot and
+     * closes the journal file.
+     */
+    public void close() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(1, TimeUnit.MINUTES);
+            flush();
+            writeSnapshot();
+            out.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error("Error while closing journal file: " + journalFile, e);
+        }
+    }
+
+}
@@ -20,8 +20,14 @@
 package org.wikidata.couchbase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
@@ -31,7 +37,16 @@ import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 
 /**
- *
+ * Saves all claims of a set of properties with the labels of the target item.
+ * The claims of an item are walked once for all properties. The claims
+ * of every property are saved in a collection of their own, 
+ * see {@link #getCollectionName(String)}. Writes are batched by
+ * the bulk writer of the collection.
+ * 
+ * Claims are collected in {@link #run(JsonNode)}. The labels of all
+ * target items of a batch are loaded in {@link #flush()} with one query,
+ * labels which were loaded before are taken from a {@link LabelCache}.
+ * Target items which are not found are cached too.
  *
  * @author Daniel Murygin <dm[at]sernet[dot]de>
  */
@@ -41,16 +56,24 @@ public class ClaimProcessor implements IITemProcessor {
     
     PersistService persistService = null;
     
-    String propertyName;
+    Set<String> propertyNames;
     
     String[] languages = {"en","es","de","fr","ru","zh","it","pt"};
     
+    static final String[] REQUIRED_FIELDS = {"item.claims", "item.title"};
+    
+    LabelCache labelCache;
+    
+    List<BasicDBObject> claimList = new ArrayList<BasicDBObject>();
+    
     /**
-     * @param propertyName
+     * @param propertyNames
+     * @param labelCache
      */
-    public ClaimProcessor(String propertyName) {
+    public ClaimProcessor(String[] propertyNames, LabelCache labelCache) {
         super();
-        this.propertyName = propertyName;
+        this.propertyNames = new HashSet<String>(Arrays.asList(propertyNames));
+        this.labelCache = labelCache;
     }
 
     /* (non-Javadoc)
@@ -61,16 +84,17 @@ public class ClaimProcessor implements IITemProcessor {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Processing item: " + item.path("item").path("title").textValue());
         }
-        Iterator<JsonNode> nodeIterator = item.get("item").path("claims").iterator();
-        while(nodeIterator.hasNext()) {
-            Iterator<JsonNode> claimIterator = nodeIterator.next().iterator();
+        // claims are grouped by property
+        Iterator<Entry<String, JsonNode>> propertyIterator = item.get("item").path("claims").fields();
+        while(propertyIterator.hasNext()) {
+            Entry<String, JsonNode> property = propertyIterator.next();
+            if(!propertyNames.contains(property.getKey())) {
+                continue;
+            }
+            Iterator<JsonNode> claimIterator = property.getValue().iterator();
             while(claimIterator.hasNext()) {
                 JsonNode claim = claimIterator.next();
-                String name = claim.path("mainsnak").path("property").textValue();
-                if(propertyName.equals(name)) {
-                    insertClaim(claim.path("mainsnak").path("datavalue"));
-                }
-                
+                addClaim(property.getKey(), claim.path("mainsnak").path("datavalue"));
             }
         }
     }
@@ -78,42 +102,127 @@ public class ClaimProcessor implements IITemProcessor {
     /**
      * @param path
      */
-    private void insertClaim(JsonNode claim) {
-        long itemId = -1;
-        if(claim!=null && claim.path("value")!=null && claim.path("value").path("numeric-id")!=null) {
-            itemId = claim.path("value").path("numeric-id").asLong();
+    private void addClaim(String propertyName, JsonNode claim) {
+        if(!claim.path("value").has("numeric-id")) {
+            // value is not an item, e.g. coordinates or a string
+            return;
         }
+        long itemId = claim.path("value").path("numeric-id").asLong();
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Inserting claim: " + itemId);
+            LOG.debug("Adding claim: " + itemId);
         }
         BasicDBObject doc = new BasicDBObject("property", propertyName)
         .append("itemid", itemId);
-        doc.put("_id", createId(itemId));
-        BasicDBObject query = new BasicDBObject("_id", MongoPersistHandler.buildDocumentKey((int) itemId));
-        
-        DBCursor cursor = getPersistService().find(query);
-        if(cursor.hasNext()) {
-            DBObject labels = (DBObject)((DBObject)cursor.next().get("item")).get("labels");
-            List<Object> labelList = new ArrayList<Object>();
-            for (String lan : languages) {
-                if(labels.get(lan)!=null) {
-                    labelList.add(labels.get(lan));
+        doc.put("_id", createId(propertyName, itemId));
+        claimList.add(doc);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IITemProcessor#flush()
+     */
+    @Override
+    public void flush() {
+        if(claimList.isEmpty()) {
+            return;
+        }
+        Map<String, List<Object>> labelMap = new HashMap<String, List<Object>>();
+        Set<String> missingKeys = new HashSet<String>();
+        for (BasicDBObject doc : claimList) {
+            String key = getItemKey(doc);
+            if(labelMap.containsKey(key) || missingKeys.contains(key)) {
+                continue;
+            }
+            List<Object> labelList = labelCache.get(key);
+            if(labelList!=null) {
+                labelMap.put(key, labelList);
+            } else {
+                missingKeys.add(key);
+            }
+        }
+        if(!missingKeys.isEmpty()) {
+            loadLabels(missingKeys, labelMap);
+        }
+        for (BasicDBObject doc : claimList) {
+            insertClaim(doc, labelMap.get(getItemKey(doc)));
+        }
+        claimList.clear();
+    }
+
+    private void loadLabels(Set<String> keys, Map<String, List<Object>> labelMap) {
+        BasicDBObject query = new BasicDBObject("_id", new BasicDBObject("$in", keys));
+        DBCursor cursor = getPersistService().find(query, getLabelFields());
+        try {
+            while(cursor.hasNext()) {
+                DBObject item = cursor.next();
+                DBObject labels = (DBObject)((DBObject)item.get("item")).get("labels");
+                List<Object> labelList = new ArrayList<Object>();
+                for (String lan : languages) {
+                    if(labels!=null && labels.get(lan)!=null) {
+                        labelList.add(labels.get(lan));
+                    }
                 }
+                labelCache.put((String) item.get("_id"), labelList);
+                labelMap.put((String) item.get("_id"), labelList);
             }
+        } finally {
+            cursor.close();
+        }
+        for (String key : keys) {
+            if(!labelMap.containsKey(key)) {
+                // not in the database, the item is not queried again
+                labelCache.put(key, LabelCache.MISSING_ITEM);
+                labelMap.put(key, LabelCache.MISSING_ITEM);
+            }
+        }
+    }
+    
+    private void insertClaim(BasicDBObject doc, List<Object> labelList) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Inserting claim: " + doc.get("itemid"));
+        }
+        if(labelList!=null && labelList!=LabelCache.MISSING_ITEM) {
             doc.put("labels", labelList);
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Labels added to claim: " + doc.get("labels"));
             }
         }
-        
-        getPersistService().save(doc);
+        getPersistService().save(getCollectionName(doc.getString("property")), doc);
+    }
+    
+    private String[] getLabelFields() {
+        String[] fields = new String[languages.length];
+        for (int i = 0; i < languages.length; i++) {
+            fields[i] = "item.labels." + languages[i];
+        }
+        return fields;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IITemProcessor#getRequiredFields()
+     */
+    @Override
+    public String[] getRequiredFields() {
+        return REQUIRED_FIELDS;
+    }
+    
+    /**
+     * @param propertyName The name of a property, e.g. P31
+     * @return The name of the collection of the claims of the property, e.g. claim_P31
+     */
+    public static String getCollectionName(String propertyName) {
+        return new StringBuilder().append(MongoPersistHandler.CLAIM_COLLECTION_NAME).append("_").append(propertyName).toString();
+    }
+    
+    private static String getItemKey(BasicDBObject claim) {
+        return MongoPersistHandler.buildDocumentKey((int) claim.getLong("itemid"));
     }
 
     /**
+     * @param propertyName
      * @param itemId
      * @return
      */
-    private String createId(long itemId) {
+    private static String createId(String propertyName, long itemId) {
         return new StringBuilder().append(propertyName).append("-").append(itemId).toString();
     }
 
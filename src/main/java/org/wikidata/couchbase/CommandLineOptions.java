@@ -48,6 +48,75 @@ public class CommandLineOptions {
     public static final String NUMBER_OF_THREADS = "n";
     public static final String NUMBER_OF_THREADS_LONG = "threads";
     
+    public static final String BATCH_SIZE = "bs";
+    public static final String BATCH_SIZE_LONG = "batch-size";
+    
+    public static final String WIKIDATA_URL = "w";
+    public static final String WIKIDATA_URL_LONG = "wikidata";
+    
+    public static final String FETCH_ENGINE = "e";
+    public static final String FETCH_ENGINE_LONG = "engine";
+    
+    public static final String NUMBER_OF_REQUESTS = "r";
+    public static final String NUMBER_OF_REQUESTS_LONG = "requests";
+    
+    public static final String SOURCE = "s";
+    public static final String SOURCE_LONG = "source";
+    
+    public static final String PARALLELISM = "p";
+    public static final String PARALLELISM_LONG = "parallelism";
+    
+    public static final String WRITE_BATCH_SIZE = "wb";
+    public static final String WRITE_BATCH_SIZE_LONG = "write-batch";
+    
+    public static final String WRITE_WINDOW = "ww";
+    public static final String WRITE_WINDOW_LONG = "write-window";
+    
+    public static final String PROPERTIES = "pr";
+    public static final String PROPERTIES_LONG = "properties";
+    
+    public static final String JOURNAL = "j";
+    public static final String JOURNAL_LONG = "journal";
+    
+    public static final String TOMBSTONES = "ts";
+    public static final String TOMBSTONES_LONG = "tombstones";
+    
+    public static final String TOMBSTONE_TTL = "tt";
+    public static final String TOMBSTONE_TTL_LONG = "tombstone-ttl";
+    
+    public static final String ADAPTIVE_CONCURRENCY = "ac";
+    public static final String ADAPTIVE_CONCURRENCY_LONG = "adaptive";
+    
+    public static final String DEAD_LETTER = "dl";
+    public static final String DEAD_LETTER_LONG = "dead-letter";
+    
+    public static final String IDS_FROM = "if";
+    public static final String IDS_FROM_LONG = "ids-from";
+    
+    public static final String CACHE = "c";
+    public static final String CACHE_LONG = "cache";
+    
+    public static final String CACHE_SIZE = "cs";
+    public static final String CACHE_SIZE_LONG = "cache-size";
+    
+    public static final String CACHE_MAX_AGE = "ca";
+    public static final String CACHE_MAX_AGE_LONG = "cache-max-age";
+    
+    public static final String SINCE = "si";
+    public static final String SINCE_LONG = "since";
+    
+    public static final String HASH_INDEX = "hi";
+    public static final String HASH_INDEX_LONG = "hash-index";
+    
+    public static final String MEMORY_BUDGET = "mb";
+    public static final String MEMORY_BUDGET_LONG = "memory-budget";
+    
+    public static final String PERSIST_THREADS = "pt";
+    public static final String PERSIST_THREADS_LONG = "persist-threads";
+    
+    public static final String VIRTUAL_THREADS = "vt";
+    public static final String VIRTUAL_THREADS_LONG = "virtual-threads";
+    
     public static final String HELP = "h";
     public static final String HELP_LONG = "help";
     
@@ -79,6 +148,86 @@ public class CommandLineOptions {
         Option numberOfThreads = OptionBuilder.hasArg().withLongOpt(NUMBER_OF_THREADS_LONG).withDescription("Number of parallel threads (default 5)").create(NUMBER_OF_THREADS);
         options.addOption(numberOfThreads);
         
+        Option batchSize = OptionBuilder.hasArg().withLongOpt(BATCH_SIZE_LONG).withDescription("Number of items loaded with one request, max. 50 (default 1)").create(BATCH_SIZE);
+        options.addOption(batchSize);
+        
+        Option wikidataUrl = OptionBuilder.hasArg().withLongOpt(WIKIDATA_URL_LONG).withDescription("Wikidata base URL (default: https://www.wikidata.org)").create(WIKIDATA_URL);
+        options.addOption(wikidataUrl);
+        
+        Option fetchEngine = OptionBuilder.hasArg().withLongOpt(FETCH_ENGINE_LONG).withDescription("Fetch engine: 'blocking' or 'async' (default: blocking)").create(FETCH_ENGINE);
+        options.addOption(fetchEngine);
+        
+        Option numberOfRequests = OptionBuilder.hasArg().withLongOpt(NUMBER_OF_REQUESTS_LONG).withDescription("Max. number of parallel requests of the async fetch engine or with virtual threads (default 256)").create(NUMBER_OF_REQUESTS);
+        options.addOption(numberOfRequests);
+        
+        Option source = OptionBuilder
+                .hasOptionalArgs(2)
+                .withArgName("source> <file")
+                .withLongOpt(SOURCE_LONG)
+                .withDescription("Source of the items: 'web', 'dump <file>' or 'changes [<file>]', dump files may be compressed with gzip or bzip2, "
+                        + "'changes' imports items which are changed since the last import from the recent changes API or a file with an API response (default: web)")
+                .create(SOURCE);
+        options.addOption(source);
+        
+        Option parallelism = OptionBuilder.hasArg().withLongOpt(PARALLELISM_LONG).withDescription("Number of threads which decompress and parse a dump file or parse and transform loaded items (default: number of cores). A .gz or .bz2 dump is decompressed by multiple threads only if it consists of multiple streams (multi-member gzip, multi-stream bzip2)").create(PARALLELISM);
+        options.addOption(parallelism);
+        
+        Option writeBatchSize = OptionBuilder.hasArg().withLongOpt(WRITE_BATCH_SIZE_LONG).withDescription("Number of documents written to MongoDB with one bulk request, 1 disables bulk writes (default 1000)").create(WRITE_BATCH_SIZE);
+        options.addOption(writeBatchSize);
+        
+        Option writeWindow = OptionBuilder.hasArg().withLongOpt(WRITE_WINDOW_LONG).withDescription("Max. number of outstanding write operations to Couchbase (default 1000)").create(WRITE_WINDOW);
+        options.addOption(writeWindow);
+        
+        Option properties = OptionBuilder
+                .hasArgs()
+                .withValueSeparator(',')
+                .withLongOpt(PROPERTIES_LONG)
+                .withDescription("Properties of the claims which are extracted by the iterator to the collections claim_<property>, separated by ',' (default: P31)")
+                .create(PROPERTIES);
+        options.addOption(properties);
+        
+        Option journal = OptionBuilder.hasArg().withArgName("file").withLongOpt(JOURNAL_LONG).withDescription("Journal file of imported items, an interrupted import is resumed with the same journal file (default: no journal)").create(JOURNAL);
+        options.addOption(journal);
+        
+        Option tombstones = OptionBuilder.hasArg().withArgName("file").withLongOpt(TOMBSTONES_LONG).withDescription("File of missing, redirected and non-item ids, these ids are not requested again (default: no file)").create(TOMBSTONES);
+        options.addOption(tombstones);
+        
+        Option tombstoneTtl = OptionBuilder.hasArg().withArgName("days").withLongOpt(TOMBSTONE_TTL_LONG).withDescription("Days after which missing ids are requested again (default: " + Configuration.TOMBSTONE_TTL_IN_DAYS_DEFAULT + ")").create(TOMBSTONE_TTL);
+        options.addOption(tombstoneTtl);
+        
+        Option adaptiveConcurrency = OptionBuilder.hasArg().withArgName("max").withLongOpt(ADAPTIVE_CONCURRENCY_LONG).withDescription("Adapts the number of parallel requests to latency and throttling of the server between 1 and max, starts with -n or -r (default: fixed number of requests)").create(ADAPTIVE_CONCURRENCY);
+        options.addOption(adaptiveConcurrency);
+        
+        Option deadLetter = OptionBuilder.hasArg().withArgName("file").withLongOpt(DEAD_LETTER_LONG).withDescription("File of items which failed after all retries (default: " + Configuration.DEAD_LETTER_FILE_DEFAULT + ")").create(DEAD_LETTER);
+        options.addOption(deadLetter);
+        
+        Option idsFrom = OptionBuilder.hasArg().withArgName("file").withLongOpt(IDS_FROM_LONG).withDescription("Imports the items of a file with one id per line, e.g. a dead-letter file, instead of -f to -l").create(IDS_FROM);
+        options.addOption(idsFrom);
+        
+        Option cache = OptionBuilder.hasArg().withArgName("dir").withLongOpt(CACHE_LONG).withDescription("Directory of a response cache, cached items are imported without network (default: no cache)").create(CACHE);
+        options.addOption(cache);
+        
+        Option cacheSize = OptionBuilder.hasArg().withArgName("MB").withLongOpt(CACHE_SIZE_LONG).withDescription("Max. size of the response cache in MB (default: " + Configuration.CACHE_SIZE_IN_MB_DEFAULT + ")").create(CACHE_SIZE);
+        options.addOption(cacheSize);
+        
+        Option cacheMaxAge = OptionBuilder.hasArg().withArgName("days").withLongOpt(CACHE_MAX_AGE_LONG).withDescription("Max. age of cached responses in days, 0: no max. age (default: " + Configuration.CACHE_MAX_AGE_IN_DAYS_DEFAULT + ")").create(CACHE_MAX_AGE);
+        options.addOption(cacheMaxAge);
+        
+        Option since = OptionBuilder.hasArg().withArgName("timestamp").withLongOpt(SINCE_LONG).withDescription("Start time of the changes for source 'changes', e.g. 2014-02-22T10:00:00Z (default: last modification time in the database)").create(SINCE);
+        options.addOption(since);
+        
+        Option hashIndex = OptionBuilder.hasArg().withArgName("file").withLongOpt(HASH_INDEX_LONG).withDescription("File of the content hashes of saved items, unchanged items are not written again (default: no file)").create(HASH_INDEX);
+        options.addOption(hashIndex);
+        
+        Option memoryBudget = OptionBuilder.hasArg().withArgName("MB").withLongOpt(MEMORY_BUDGET_LONG).withDescription("Max. memory of the items in flight in MB, producers are blocked if it is used up (default: no limit)").create(MEMORY_BUDGET);
+        options.addOption(memoryBudget);
+        
+        Option persistThreads = OptionBuilder.hasArg().withArgName("threads").withLongOpt(PERSIST_THREADS_LONG).withDescription("Number of threads which save items in the database (default: " + Configuration.PERSIST_THREADS_DEFAULT + ")").create(PERSIST_THREADS);
+        options.addOption(persistThreads);
+        
+        Option virtualThreads = OptionBuilder.withLongOpt(VIRTUAL_THREADS_LONG).withDescription("Loads and saves every item of a web import in a virtual thread, max. items in flight: --requests, max. writes in flight: --persist-threads. The iterator processes every range in a virtual thread, max. ranges in flight: --threads").create(VIRTUAL_THREADS);
+        options.addOption(virtualThreads);
+        
         Option help = OptionBuilder.withLongOpt(HELP_LONG).withDescription("Show help").create(HELP);
         options.addOption(help);
         
@@ -31,6 +31,13 @@ public class Configuration {
     public static final String DB_TYPE_COUCHBASE = "couchbase";
     public static final String DB_TYPE_MONGO = "mongo";
     
+    public static final String SOURCE_WEB = "web";
+    public static final String SOURCE_DUMP = "dump";
+    public static final String SOURCE_CHANGES = "changes";
+    
+    public static final String FETCH_ENGINE_BLOCKING = "blocking";
+    public static final String FETCH_ENGINE_ASYNC = "async";
+    
     // Default parameter values
     public static final String[] DB_URLS_DEFAULT_COUCHBASE = {"http://127.0.0.1:8091/pools"};
     public static final String[] DB_URLS_DEFAULT_MONGO = {"localhost"};
@@ -38,6 +45,23 @@ public class Configuration {
     public static final Integer FIRST_ID_DEFAULT = 1;
     public static final Integer MAX_NUMBER_Of_THREADS_DEFAULT = 5;
     public static final String DB_TYPE_DEFAULT = DB_TYPE_MONGO;  
+    public static final int BATCH_SIZE_DEFAULT = 1;
+    public static final int BATCH_SIZE_MAX = 50;
+    public static final String WIKIDATA_URL_DEFAULT = "https://www.wikidata.org";
+    public static final String FETCH_ENGINE_DEFAULT = FETCH_ENGINE_BLOCKING;
+    public static final String SOURCE_DEFAULT = SOURCE_WEB;
+    public static final int WRITE_BATCH_SIZE_DEFAULT = 1000;
+    public static final int WRITE_WINDOW_DEFAULT = 1000;
+    public static final String[] PROPERTIES_DEFAULT = {"P31"};
+    public static final int TOMBSTONE_TTL_IN_DAYS_DEFAULT = 30;
+    public static final int MAX_CONCURRENCY_DEFAULT = 0;
+    public static final String DEAD_LETTER_FILE_DEFAULT = "dead-letter.txt";
+    public static final int CACHE_SIZE_IN_MB_DEFAULT = 10240;
+    public static final int CACHE_MAX_AGE_IN_DAYS_DEFAULT = 30;
+    public static final int MEMORY_BUDGET_IN_MB_DEFAULT = 0;
+    public static final int PARALLELISM_DEFAULT = Runtime.getRuntime().availableProcessors();
+    public static final int MAX_NUMBER_OF_REQUESTS_DEFAULT = 256;
+    public static final int PERSIST_THREADS_DEFAULT = 4;
     
     private String[] dbUrls = DB_URLS_DEFAULT_COUCHBASE;
     private String db = DB_DEFAULT;
@@ -47,6 +71,32 @@ public class Configuration {
     
     private String dbType = DB_TYPE_DEFAULT;
     
+    private int batchSize = BATCH_SIZE_DEFAULT;
+    private String wikidataUrl = WIKIDATA_URL_DEFAULT;
+    private String fetchEngine = FETCH_ENGINE_DEFAULT;
+    private int maxNumberOfRequests = MAX_NUMBER_OF_REQUESTS_DEFAULT;
+    private String source = SOURCE_DEFAULT;
+    private String dumpFile;
+    private int parallelism = PARALLELISM_DEFAULT;
+    private int writeBatchSize = WRITE_BATCH_SIZE_DEFAULT;
+    private int writeWindow = WRITE_WINDOW_DEFAULT;
+    private String[] properties = PROPERTIES_DEFAULT;
+    private String journalFile;
+    private String tombstoneFile;
+    private int tombstoneTtlInDays = TOMBSTONE_TTL_IN_DAYS_DEFAULT;
+    private int maxConcurrency = MAX_CONCURRENCY_DEFAULT;
+    private String deadLetterFile = DEAD_LETTER_FILE_DEFAULT;
+    private String idsFile;
+    private String cacheDirectory;
+    private String changesFile;
+    private String since;
+    private String contentHashFile;
+    private int memoryBudgetInMb = MEMORY_BUDGET_IN_MB_DEFAULT;
+    private int persistThreads = PERSIST_THREADS_DEFAULT;
+    private boolean virtualThreads = false;
+    private int cacheSizeInMb = CACHE_SIZE_IN_MB_DEFAULT;
+    private int cacheMaxAgeInDays = CACHE_MAX_AGE_IN_DAYS_DEFAULT;
+    
     public static Configuration createDefault() {  
         Configuration conf = new Configuration();
         conf.setDb(DB_DEFAULT);
@@ -55,16 +105,47 @@ public class Configuration {
         conf.setLastId(FIRST_ID_DEFAULT);
         conf.setMaxNumberOfThreads(MAX_NUMBER_Of_THREADS_DEFAULT);
         conf.setDbType(DB_TYPE_DEFAULT);
+        conf.setBatchSize(BATCH_SIZE_DEFAULT);
+        conf.setWikidataUrl(WIKIDATA_URL_DEFAULT);
+        conf.setFetchEngine(FETCH_ENGINE_DEFAULT);
+        conf.setMaxNumberOfRequests(MAX_NUMBER_OF_REQUESTS_DEFAULT);
+        conf.setSource(SOURCE_DEFAULT);
+        conf.setParallelism(PARALLELISM_DEFAULT);
+        conf.setWriteBatchSize(WRITE_BATCH_SIZE_DEFAULT);
+        conf.setWriteWindow(WRITE_WINDOW_DEFAULT);
+        conf.setProperties(PROPERTIES_DEFAULT);
         return conf;
     }
     
     public static Configuration createFromCommandLine(CommandLine cmd) {
         String dbType = cmd.getOptionValue(CommandLineOptions.DB_TYPE, DB_TYPE_MONGO);
         Integer firstIdParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.FIRST_ID, String.valueOf(FIRST_ID_DEFAULT)));
-        Integer lastIdParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.LAST_ID, String.valueOf(firstIdParam)));
+        String[] sourceParam = cmd.getOptionValues(CommandLineOptions.SOURCE);
+        String source = (sourceParam!=null && sourceParam.length>0) ? sourceParam[0] : SOURCE_DEFAULT;
+        String dumpFile = (sourceParam!=null && sourceParam.length>1) ? sourceParam[1] : null;
+        if(SOURCE_DUMP.equals(source) && dumpFile==null) {
+            throw new IllegalArgumentException("No dump file, use: --source dump <file>");
+        }
+        String changesFile = null;
+        if(SOURCE_CHANGES.equals(source)) {
+            // optional file with recent changes
+            changesFile = dumpFile;
+            dumpFile = null;
+        }
+        if(!SOURCE_DUMP.equals(source) && !SOURCE_CHANGES.equals(source)) {
+            source = SOURCE_WEB;
+        }
+        // All items of a dump are imported if no last id is given
+        String lastIdDefault = SOURCE_DUMP.equals(source) ? String.valueOf(Integer.MAX_VALUE) : String.valueOf(firstIdParam);
+        Integer lastIdParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.LAST_ID, lastIdDefault));
         int maxNumberOfThreadsParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.NUMBER_OF_THREADS, String.valueOf(MAX_NUMBER_Of_THREADS_DEFAULT)));
         String[] urlsFromCmd = cmd.getOptionValues(CommandLineOptions.DB_URLS); 
         String db = cmd.getOptionValue(CommandLineOptions.DB, DB_DEFAULT); 
+        int batchSizeParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.BATCH_SIZE, String.valueOf(BATCH_SIZE_DEFAULT)));
+        String wikidataUrl = cmd.getOptionValue(CommandLineOptions.WIKIDATA_URL, WIKIDATA_URL_DEFAULT);
+        String fetchEngine = cmd.getOptionValue(CommandLineOptions.FETCH_ENGINE, FETCH_ENGINE_DEFAULT);
+        int parallelismParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.PARALLELISM, String.valueOf(PARALLELISM_DEFAULT)));
+        int maxNumberOfRequestsParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.NUMBER_OF_REQUESTS, String.valueOf(MAX_NUMBER_OF_REQUESTS_DEFAULT)));
         
         if(!DB_TYPE_COUCHBASE.equals(dbType) && !DB_TYPE_MONGO.equals(dbType)) {
             dbType = DB_TYPE_MONGO;
@@ -82,6 +163,21 @@ public class Configuration {
         if(lastIdParam==null) {
             lastIdParam = firstIdParam;
         }
+        if(!FETCH_ENGINE_BLOCKING.equals(fetchEngine) && !FETCH_ENGINE_ASYNC.equals(fetchEngine)) {
+            fetchEngine = FETCH_ENGINE_DEFAULT;
+        }
+        if(parallelismParam<1) {
+            parallelismParam = PARALLELISM_DEFAULT;
+        }
+        if(maxNumberOfRequestsParam<1) {
+            maxNumberOfRequestsParam = MAX_NUMBER_OF_REQUESTS_DEFAULT;
+        }
+        if(batchSizeParam<1) {
+            batchSizeParam = BATCH_SIZE_DEFAULT;
+        }
+        if(batchSizeParam>BATCH_SIZE_MAX) {
+            batchSizeParam = BATCH_SIZE_MAX;
+        }
         
         
         Configuration conf = new Configuration();
@@ -91,6 +187,30 @@ public class Configuration {
         conf.setFirstId(firstIdParam);
         conf.setLastId(lastIdParam);
         conf.setMaxNumberOfThreads(maxNumberOfThreadsParam);
+        conf.setBatchSize(batchSizeParam);
+        conf.setWikidataUrl(wikidataUrl);
+        conf.setFetchEngine(fetchEngine);
+        conf.setMaxNumberOfRequests(maxNumberOfRequestsParam);
+        conf.setSource(source);
+        conf.setDumpFile(dumpFile);
+        conf.setParallelism(parallelismParam);
+        conf.setWriteBatchSize(getWriteBatchSize(cmd));
+        conf.setWriteWindow(getWriteWindow(cmd));
+        conf.setJournalFile(cmd.getOptionValue(CommandLineOptions.JOURNAL));
+        conf.setTombstoneFile(cmd.getOptionValue(CommandLineOptions.TOMBSTONES));
+        conf.setTombstoneTtlInDays(getTombstoneTtlInDays(cmd));
+        conf.setMaxConcurrency(getMaxConcurrency(cmd));
+        conf.setDeadLetterFile(cmd.getOptionValue(CommandLineOptions.DEAD_LETTER, DEAD_LETTER_FILE_DEFAULT));
+        conf.setIdsFile(cmd.getOptionValue(CommandLineOptions.IDS_FROM));
+        conf.setCacheDirectory(cmd.getOptionValue(CommandLineOptions.CACHE));
+        conf.setChangesFile(changesFile);
+        conf.setSince(cmd.getOptionValue(CommandLineOptions.SINCE));
+        conf.setContentHashFile(cmd.getOptionValue(CommandLineOptions.HASH_INDEX));
+        conf.setMemoryBudgetInMb(getMemoryBudgetInMb(cmd));
+        conf.setPersistThreads(getPersistThreads(cmd));
+        conf.setVirtualThreads(cmd.hasOption(CommandLineOptions.VIRTUAL_THREADS));
+        conf.setCacheSizeInMb(getCacheSizeInMb(cmd));
+        conf.setCacheMaxAgeInDays(getCacheMaxAgeInDays(cmd));
         return conf;
     }
     
@@ -104,6 +224,7 @@ public class Configuration {
         int maxNumberOfThreadsParam = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.NUMBER_OF_THREADS, String.valueOf(MAX_NUMBER_Of_THREADS_DEFAULT)));
         String[] urlsFromCmd = cmd.getOptionValues(CommandLineOptions.DB_URLS); 
         String db = cmd.getOptionValue(CommandLineOptions.DB, DB_DEFAULT); 
+        String[] properties = cmd.getOptionValues(CommandLineOptions.PROPERTIES);
         
         if(!DB_TYPE_COUCHBASE.equals(dbType) && !DB_TYPE_MONGO.equals(dbType)) {
             dbType = DB_TYPE_MONGO;
@@ -118,6 +239,9 @@ public class Configuration {
         if(firstIdParam==null) {
             firstIdParam = FIRST_ID_DEFAULT;
         }
+        if(properties==null || properties.length<1) {
+            properties = PROPERTIES_DEFAULT;
+        }
     
         Configuration conf = new Configuration();
         conf.setDbType(dbType);
@@ -126,9 +250,77 @@ public class Configuration {
         conf.setFirstId(firstIdParam);
         conf.setLastId(lastIdParam);
         conf.setMaxNumberOfThreads(maxNumberOfThreadsParam);
+        conf.setWriteBatchSize(getWriteBatchSize(cmd));
+        conf.setWriteWindow(getWriteWindow(cmd));
+        conf.setProperties(properties);
+        conf.setVirtualThreads(cmd.hasOption(CommandLineOptions.VIRTUAL_THREADS));
         return conf;
     }
     
+    private static int getWriteBatchSize(CommandLine cmd) {
+        int writeBatchSize = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.WRITE_BATCH_SIZE, String.valueOf(WRITE_BATCH_SIZE_DEFAULT)));
+        if(writeBatchSize<1) {
+            writeBatchSize = WRITE_BATCH_SIZE_DEFAULT;
+        }
+        return writeBatchSize;
+    }
+    
+    private static int getWriteWindow(CommandLine cmd) {
+        int writeWindow = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.WRITE_WINDOW, String.valueOf(WRITE_WINDOW_DEFAULT)));
+        if(writeWindow<1) {
+            writeWindow = WRITE_WINDOW_DEFAULT;
+        }
+        return writeWindow;
+    }
+    
+    private static int getTombstoneTtlInDays(CommandLine cmd) {
+        int tombstoneTtl = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.TOMBSTONE_TTL, String.valueOf(TOMBSTONE_TTL_IN_DAYS_DEFAULT)));
+        if(tombstoneTtl<0) {
+            tombstoneTtl = TOMBSTONE_TTL_IN_DAYS_DEFAULT;
+        }
+        return tombstoneTtl;
+    }
+    
+    private static int getMaxConcurrency(CommandLine cmd) {
+        int maxConcurrency = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.ADAPTIVE_CONCURRENCY, String.valueOf(MAX_CONCURRENCY_DEFAULT)));
+        if(maxConcurrency<0) {
+            maxConcurrency = MAX_CONCURRENCY_DEFAULT;
+        }
+        return maxConcurrency;
+    }
+    
+    private static int getCacheSizeInMb(CommandLine cmd) {
+        int cacheSize = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.CACHE_SIZE, String.valueOf(CACHE_SIZE_IN_MB_DEFAULT)));
+        if(cacheSize<1) {
+            cacheSize = CACHE_SIZE_IN_MB_DEFAULT;
+        }
+        return cacheSize;
+    }
+    
+    private static int getMemoryBudgetInMb(CommandLine cmd) {
+        int memoryBudget = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.MEMORY_BUDGET, String.valueOf(MEMORY_BUDGET_IN_MB_DEFAULT)));
+        if(memoryBudget<0) {
+            memoryBudget = MEMORY_BUDGET_IN_MB_DEFAULT;
+        }
+        return memoryBudget;
+    }
+    
+    private static int getPersistThreads(CommandLine cmd) {
+        int persistThreads = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.PERSIST_THREADS, String.valueOf(PERSIST_THREADS_DEFAULT)));
+        if(persistThreads<1) {
+            persistThreads = PERSIST_THREADS_DEFAULT;
+        }
+        return persistThreads;
+    }
+    
+    private static int getCacheMaxAgeInDays(CommandLine cmd) {
+        int maxAge = Integer.valueOf(cmd.getOptionValue(CommandLineOptions.CACHE_MAX_AGE, String.valueOf(CACHE_MAX_AGE_IN_DAYS_DEFAULT)));
+        if(maxAge<0) {
+            maxAge = CACHE_MAX_AGE_IN_DAYS_DEFAULT;
+        }
+        return maxAge;
+    }
+    
     public Configuration() {
         super();
     }
@@ -171,6 +363,235 @@ public class Configuration {
     public void setDbType(String persistType) {
         this.dbType = persistType;
     }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public String getWikidataUrl() {
+        return wikidataUrl;
+    }
+
+    public void setWikidataUrl(String wikidataUrl) {
+        this.wikidataUrl = wikidataUrl;
+    }
+
+    public String getFetchEngine() {
+        return fetchEngine;
+    }
+
+    public void setFetchEngine(String fetchEngine) {
+        this.fetchEngine = fetchEngine;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getDumpFile() {
+        return dumpFile;
+    }
+
+    public void setDumpFile(String dumpFile) {
+        this.dumpFile = dumpFile;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public String getJournalFile() {
+        return journalFile;
+    }
+
+    public void setJournalFile(String journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Returns a file with recent changes for source "changes"
+     * or null if the changes are read from the API.
+     */
+    public String getChangesFile() {
+        return changesFile;
+    }
+
+    public void setChangesFile(String changesFile) {
+        this.changesFile = changesFile;
+    }
+
+    /**
+     * Returns the start time of the changes of an incremental import,
+     * e.g. "2014-02-22T10:00:00Z" or null.
+     */
+    public String getSince() {
+        return since;
+    }
+
+    public void setSince(String since) {
+        this.since = since;
+    }
+
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public int getCacheSizeInMb() {
+        return cacheSizeInMb;
+    }
+
+    public void setCacheSizeInMb(int cacheSizeInMb) {
+        this.cacheSizeInMb = cacheSizeInMb;
+    }
+
+    /**
+     * Returns the max. age of cached responses in days,
+     * 0 if cached responses never expire.
+     */
+    public int getCacheMaxAgeInDays() {
+        return cacheMaxAgeInDays;
+    }
+
+    public void setCacheMaxAgeInDays(int cacheMaxAgeInDays) {
+        this.cacheMaxAgeInDays = cacheMaxAgeInDays;
+    }
+
+    public String getDeadLetterFile() {
+        return deadLetterFile;
+    }
+
+    public void setDeadLetterFile(String deadLetterFile) {
+        this.deadLetterFile = deadLetterFile;
+    }
+
+    public String getIdsFile() {
+        return idsFile;
+    }
+
+    public void setIdsFile(String idsFile) {
+        this.idsFile = idsFile;
+    }
+
+    /**
+     * Returns the max. number of concurrent requests of the
+     * adaptive concurrency limiter or 0 if the limiter is disabled.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public boolean isAdaptiveConcurrency() {
+        return maxConcurrency > 0;
+    }
+
+    public int getMemoryBudgetInMb() {
+        return memoryBudgetInMb;
+    }
+
+    public void setMemoryBudgetInMb(int memoryBudgetInMb) {
+        this.memoryBudgetInMb = memoryBudgetInMb;
+    }
+
+    public boolean isMemoryBudget() {
+        return memoryBudgetInMb > 0;
+    }
+
+    public int getPersistThreads() {
+        return persistThreads;
+    }
+
+    public void setPersistThreads(int persistThreads) {
+        this.persistThreads = persistThreads;
+    }
+
+    /**
+     * Returns true if items are loaded and saved in virtual threads.
+     * The number of items in flight is limited by 
+     * {@link #getMaxNumberOfRequests()}.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public String getContentHashFile() {
+        return contentHashFile;
+    }
+
+    public void setContentHashFile(String contentHashFile) {
+        this.contentHashFile = contentHashFile;
+    }
+
+    public String getTombstoneFile() {
+        return tombstoneFile;
+    }
+
+    public void setTombstoneFile(String tombstoneFile) {
+        this.tombstoneFile = tombstoneFile;
+    }
+
+    public int getTombstoneTtlInDays() {
+        return tombstoneTtlInDays;
+    }
+
+    public void setTombstoneTtlInDays(int tombstoneTtlInDays) {
+        this.tombstoneTtlInDays = tombstoneTtlInDays;
+    }
+
+    public String[] getProperties() {
+        return properties;
+    }
+
+    public void setProperties(String[] properties) {
+        this.properties = properties;
+    }
+
+    public int getWriteWindow() {
+        return writeWindow;
+    }
+
+    public void setWriteWindow(int writeWindow) {
+        this.writeWindow = writeWindow;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxNumberOfRequests() {
+        return maxNumberOfRequests;
+    }
+
+    public void setMaxNumberOfRequests(int maxNumberOfRequests) {
+        this.maxNumberOfRequests = maxNumberOfRequests;
+    }
     
     
 }
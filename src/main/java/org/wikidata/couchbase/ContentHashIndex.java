@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * ContentHashIndex saves a 64 bit hash (xxHash64) of the last document
+ * which was written for every item id. Documents with the same hash
+ * as the last written document are not written again.
+ *
+ * Hashes are saved in pages of {@link #PAGE_SIZE} ids, pages are created
+ * if an id of the page is added. The index is saved in a file and
+ * loaded by the next import.
+ *
+ * A persist handler must call {@link #put(int, long)} after a document
+ * is written and confirmed by the database. The hash of a document which
+ * is buffered or not written is never saved, it is written again
+ * by the next import.
+ *
+ * xxHash - https://github.com/Cyan4973/xxHash
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ContentHashIndex {
+
+    private static final Logger LOG = Logger.getLogger(ContentHashIndex.class);
+
+    public static final int PAGE_SIZE = 65536;
+    public static final long SAVE_INTERVAL_IN_MINUTES = 5;
+
+    private static final int FILE_MAGIC = 0x57434948;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // 0 is not a hash, it marks ids without a document
+    private static final long NO_HASH = 0;
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private File file;
+
+    private long[][] pages = new long[0][];
+    private final Object lock = new Object();
+
+    private ScheduledExecutorService timer;
+
+    private int numberOfLoadedHashes = 0;
+    private AtomicLong numberOfSkippedWrites = new AtomicLong();
+    private AtomicLong numberOfSkippedBytes = new AtomicLong();
+    private AtomicLong numberOfWrites = new AtomicLong();
+
+    /**
+     * @param fileName The file of the index
+     * @throws IOException
+     */
+    public ContentHashIndex(String fileName) throws IOException {
+        super();
+        this.file = new File(fileName);
+        load();
+        startTimer();
+    }
+
+    /**
+     * Returns true if the hash of a document is the hash of the last
+     * written document of the item and counts the write as skipped.
+     * Otherwise false is returned, the hash is saved by
+     * {@link #put(int, long)} after the document is written.
+     *
+     * @param id The id of an item
+     * @param hash The hash of the document, see {@link #hash(String)}
+     * @param size The size of the UTF-8 encoded document in bytes, see {@link #encode(String)}
+     * @return true if the document must not be written
+     */
+    public boolean isUnchanged(int id, long hash, long size) {
+        long lastHash;
+        synchronized (lock) {
+            lastHash = get(id);
+        }
+        if(lastHash==hash) {
+            numberOfSkippedWrites.incrementAndGet();
+            numberOfSkippedBytes.addAndGet(size);
+            return true;
+        }
+        numberOfWrites.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Saves the hash of a document which is written.
+     *
+     * @param id The id of an item
+     * @param hash The hash of the written document, see {@link #hash(String)}
+     */
+    public void put(int id, long hash) {
+        if(id < 0 || hash==NO_HASH) {
+            return;
+        }
+        synchronized (lock) {
+            set(id, hash);
+        }
+    }
+
+    private long get(int id) {
+        int page = id / PAGE_SIZE;
+        if(id < 0 || page >= pages.length || pages[page]==null) {
+            return NO_HASH;
+        }
+        return pages[page][id % PAGE_SIZE];
+    }
+
+    private void set(int id, long hash) {
+        int page = id / PAGE_SIZE;
+        if(page >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(page + 1, pages.length * 2));
+        }
+        if(pages[page]==null) {
+            pages[page] = new long[PAGE_SIZE];
+        }
+        pages[page][id % PAGE_SIZE] = hash;
+    }
+
+    /**
+     * Returns the hash of a document, never 0.
+     */
+    public static long hash(String json) {
+        return hashEncoded(encode(json));
+    }
+
+    /**
+     * Returns the hash of the UTF-8 bytes of a document, never 0.
+     */
+    public static long hashEncoded(byte[] utf8) {
+        long hash = hash(utf8);
+        return (hash==NO_HASH) ? 1 : hash;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a document, the bytes which are hashed.
+     */
+    public static byte[] encode(String json) {
+        return json.getBytes(UTF8);
+    }
+
+    /**
+     * Returns the xxHash64 of a byte array, seed is 0.
+     */
+    public static long hash(byte[] bytes) {
+        int length = bytes.length;
+        int offset = 0;
+        long hash;
+        if(length >= 32) {
+            long v1 = PRIME64_1 + PRIME64_2;
+            long v2 = PRIME64_2;
+            long v3 = 0;
+            long v4 = -PRIME64_1;
+            int limit = length - 32;
+            do {
+                v1 = round(v1, readLong(bytes, offset));
+                v2 = round(v2, readLong(bytes, offset + 8));
+                v3 = round(v3, readLong(bytes, offset + 16));
+                v4 = round(v4, readLong(bytes, offset + 24));
+                offset += 32;
+            } while(offset <= limit);
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            hash = mergeRound(hash, v4);
+        } else {
+            hash = PRIME64_5;
+        }
+        hash += length;
+        while(offset + 8 <= length) {
+            hash ^= round(0, readLong(bytes, offset));
+            hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+            offset += 8;
+        }
+        if(offset + 4 <= length) {
+            hash ^= (readInt(bytes, offset) & 0xFFFFFFFFL) * PRIME64_1;
+            hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+            offset += 4;
+        }
+        while(offset < length) {
+            hash ^= (bytes[offset] & 0xFF) * PRIME64_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+            offset++;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (readInt(bytes, offset) & 0xFFFFFFFFL) | ((long) readInt(bytes, offset + 4) << 32);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private void load() throws IOException {
+        if(!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt()!=FILE_MAGIC || in.readInt()!=PAGE_SIZE) {
+                throw new IOException("Not a content hash file: " + file);
+            }
+            pages = new long[in.readInt()][];
+            int numberOfPages = in.readInt();
+            for (int i = 0; i < numberOfPages; i++) {
+                long[] page = new long[PAGE_SIZE];
+                int pageIndex = in.readInt();
+                for (int j = 0; j < PAGE_SIZE; j++) {
+                    page[j] = in.readLong();
+                    if(page[j]!=NO_HASH) {
+                        numberOfLoadedHashes++;
+                    }
+                }
+                pages[pageIndex] = page;
+            }
+        } finally {
+            in.close();
+        }
+        LOG.info("Content hashes loaded: " + numberOfLoadedHashes);
+    }
+
+    private void startTimer() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (Exception e) {
+                    LOG.error("Error while saving content hashes: " + file, e);
+                }
+            }
+        }, SAVE_INTERVAL_IN_MINUTES, SAVE_INTERVAL_IN_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Writes the index to a temporary file which replaces the file.
+     * Every page is copied while it is locked, the other pages
+     * can be changed while the index is saved.
+     */
+    public void save() throws IOException {
+        long[][] pageReferences;
+        int numberOfPages = 0;
+        synchronized (lock) {
+            pageReferences = pages.clone();
+        }
+        for (long[] page : pageReferences) {
+            if(page!=null) {
+                numberOfPages++;
+            }
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(PAGE_SIZE);
+            out.writeInt(pageReferences.length);
+            out.writeInt(numberOfPages);
+            for (int i = 0; i < pageReferences.length; i++) {
+                if(pageReferences[i]==null) {
+                    continue;
+                }
+                long[] page;
+                synchronized (lock) {
+                    page = pageReferences[i].clone();
+                }
+                out.writeInt(i);
+                for (long hash : page) {
+                    out.writeLong(hash);
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves the index and stops the timer. Call this after
+     * all documents are written.
+     */
+    public void close() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(1, TimeUnit.MINUTES);
+            save();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error("Error while saving content hashes: " + file, e);
+        }
+        LOG.info("Unchanged documents skipped: " + getNumberOfSkippedWrites() + ", bytes saved: " + getNumberOfSkippedBytes()
+                + ", changed documents: " + getNumberOfWrites());
+    }
+
+    public int getNumberOfLoadedHashes() {
+        return numberOfLoadedHashes;
+    }
+
+    public long getNumberOfSkippedWrites() {
+        return numberOfSkippedWrites.get();
+    }
+
+    public long getNumberOfSkippedBytes() {
+        return numberOfSkippedBytes.get();
+    }
+
+    public long getNumberOfWrites() {
+        return numberOfWrites.get();
+    }
+
+}
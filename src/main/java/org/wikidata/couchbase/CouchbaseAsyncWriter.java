@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.internal.OperationCompletionListener;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationStatus;
+
+import org.apache.log4j.Logger;
+
+import com.couchbase.client.CouchbaseClient;
+
+/**
+ * CouchbaseAsyncWriter pipelines set operations to Couchbase without
+ * waiting for the result of every single operation.
+ *
+ * The number of outstanding operations is limited by {@link #getWindowSize()}.
+ * If the window is full, the calling thread is blocked until an operation
+ * completes. Results are handled by a completion listener of the
+ * operation future: Transient failures like temporary failures of
+ * the server, timeouts or a rebalance are retried up to {@link #MAX_ATTEMPTS}
+ * times, all other failures are logged. The content hash of a document
+ * is saved in the index after the document is written. The result of every
+ * operation is reported to the callback of the document,
+ * see {@link ItemDocument#written()}.
+ * 
+ * If a {@link MemoryBudget} is set the memory of every document
+ * is reserved until the operation is completed.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class CouchbaseAsyncWriter {
+
+    private static final Logger LOG = Logger.getLogger(CouchbaseAsyncWriter.class);
+
+    public static final int MAX_ATTEMPTS = 3;
+    public static final long RETRY_DELAY_IN_MS = 100;
+
+    private static final String[] TRANSIENT_ERRORS = new String[] {"temporary", "tmpfail", "busy", "vbucket", "timed out", "cancelled", "out of memory"};
+
+    private CouchbaseClient couchbaseClient;
+    private int windowSize;
+    private Semaphore window;
+
+    private ScheduledExecutorService retryTimer;
+    
+    private ContentHashIndex contentHashes = null;
+    private MemoryBudget memoryBudget = null;
+
+    private AtomicLong numberOfSuccesses = new AtomicLong();
+    private AtomicLong numberOfFailures = new AtomicLong();
+    private AtomicLong numberOfRetries = new AtomicLong();
+    private AtomicLong totalLatency = new AtomicLong();
+    private AtomicLong maxLatency = new AtomicLong();
+
+    public CouchbaseAsyncWriter(CouchbaseClient couchbaseClient, int windowSize) {
+        super();
+        this.couchbaseClient = couchbaseClient;
+        this.windowSize = windowSize;
+        this.window = new Semaphore(windowSize);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Starts a set operation for a document. Blocks if the
+     * number of outstanding operations is {@link #getWindowSize()}.
+     *
+     * @param key The key of the document
+     * @param document The document of an item
+     * @throws InterruptedException
+     */
+    public void set(String key, ItemDocument document) throws InterruptedException {
+        window.acquire();
+        Operation operation = new Operation(key, document);
+        if(memoryBudget!=null) {
+            memoryBudget.reserve(operation.getSize());
+        }
+        send(operation);
+    }
+
+    private void send(Operation operation) {
+        operation.attempt++;
+        operation.startTimestamp = System.nanoTime();
+        try {
+            couchbaseClient.set(operation.key, 0, operation.document.getJson()).addListener(operation);
+        } catch (RuntimeException e) {
+            // the client throws an IllegalStateException if its queue is full
+            if(operation.attempt < MAX_ATTEMPTS) {
+                retry(operation);
+            } else {
+                fail(operation, e.getMessage());
+            }
+        }
+    }
+
+    private void complete(Operation operation, OperationStatus status) {
+        if(status!=null && status.isSuccess()) {
+            recordLatency(System.nanoTime() - operation.startTimestamp);
+            numberOfSuccesses.incrementAndGet();
+            release(operation);
+            if(contentHashes!=null) {
+                contentHashes.put(operation.document.getId(), operation.document.getHash());
+            }
+            operation.document.written();
+            return;
+        }
+        String message = (status!=null) ? status.getMessage() : null;
+        if(operation.attempt < MAX_ATTEMPTS && isTransient(message)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Document " + operation.key + " was not saved, attempt: " + operation.attempt + ", retrying. Error: " + message);
+            }
+            retry(operation);
+        } else {
+            fail(operation, message);
+        }
+    }
+
+    private void retry(final Operation operation) {
+        numberOfRetries.incrementAndGet();
+        try {
+            retryTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    send(operation);
+                }
+            }, RETRY_DELAY_IN_MS * operation.attempt, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            fail(operation, "Retry rejected: " + e.getMessage());
+        }
+    }
+
+    private void fail(Operation operation, String message) {
+        numberOfFailures.incrementAndGet();
+        release(operation);
+        LOG.error("Document " + operation.key + " was not saved after " + operation.attempt + " attempt(s): " + message);
+        operation.document.writeFailed(new IOException("Document " + operation.key + " was not saved: " + message));
+    }
+
+    private void release(Operation operation) {
+        if(memoryBudget!=null) {
+            memoryBudget.reserve(-operation.getSize());
+        }
+        window.release();
+    }
+
+    private static boolean isTransient(String message) {
+        if(message==null) {
+            return true;
+        }
+        String lowerCaseMessage = message.toLowerCase();
+        for (String error : TRANSIENT_ERRORS) {
+            if(lowerCaseMessage.contains(error)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordLatency(long latency) {
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while(latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * Waits until all outstanding operations are completed.
+     * New operations are blocked while waiting.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The time unit of the timeout argument
+     * @return true if all operations are completed, false if the timeout elapsed
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) {
+        boolean completed = false;
+        try {
+            completed = window.tryAcquire(windowSize, timeout, unit);
+            if(completed) {
+                window.release(windowSize);
+            } else {
+                LOG.warn("Timeout while waiting for outstanding operations: " + getNumberOfOutstandingOperations());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return completed;
+    }
+
+    /**
+     * Waits until all outstanding operations are completed
+     * and stops the retry timer.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The time unit of the timeout argument
+     * @return true if all operations are completed, false if the timeout elapsed
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        boolean completed = awaitCompletion(timeout, unit);
+        retryTimer.shutdownNow();
+        LOG.info("Documents saved: " + getNumberOfSuccesses() + ", failures: " + getNumberOfFailures() + ", retries: " + getNumberOfRetries()
+                + ", avg. latency: " + getAverageLatencyInMs() + " ms, max. latency: " + getMaxLatencyInMs() + " ms");
+        return completed;
+    }
+
+    public void setContentHashes(ContentHashIndex contentHashes) {
+        this.contentHashes = contentHashes;
+    }
+
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getNumberOfOutstandingOperations() {
+        return windowSize - window.availablePermits();
+    }
+
+    public long getNumberOfSuccesses() {
+        return numberOfSuccesses.get();
+    }
+
+    public long getNumberOfFailures() {
+        return numberOfFailures.get();
+    }
+
+    public long getNumberOfRetries() {
+        return numberOfRetries.get();
+    }
+
+    public double getAverageLatencyInMs() {
+        long successes = getNumberOfSuccesses();
+        return (successes>0) ? TimeUnit.NANOSECONDS.toMicros(totalLatency.get() / successes) / 1000.0 : 0;
+    }
+
+    public double getMaxLatencyInMs() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatency.get()) / 1000.0;
+    }
+
+    /**
+     * A set operation which is started again on transient failures.
+     */
+    class Operation implements OperationCompletionListener {
+
+        String key;
+        ItemDocument document;
+        int attempt = 0;
+        long startTimestamp;
+
+        Operation(String key, ItemDocument document) {
+            super();
+            this.key = key;
+            this.document = document;
+        }
+
+        long getSize() {
+            return (long) document.getJson().length() * MemoryBudget.STRING_BYTES_PER_CHAR;
+        }
+
+        /* (non-Javadoc)
+         * @see net.spy.memcached.internal.GenericCompletionListener#onComplete(java.util.concurrent.Future)
+         */
+        @Override
+        public void onComplete(OperationFuture<?> future) throws Exception {
+            complete(this, future.getStatus());
+        }
+    }
+
+}
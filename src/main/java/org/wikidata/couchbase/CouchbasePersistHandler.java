@@ -20,9 +20,12 @@
 package org.wikidata.couchbase;
 
 import java.net.URI;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -40,10 +43,16 @@ public class CouchbasePersistHandler implements IPersistHandler {
 
     private static final Logger LOG = Logger.getLogger(CouchbasePersistHandler.class);
     
+    private static final long SHUTDOWN_TIMEOUT_IN_MINUTES = 5;
+    
     private Configuration conf;
     
     private CouchbaseClient couchbaseClient = null;
     
+    private CouchbaseAsyncWriter asyncWriter = null;
+    
+    private ContentHashIndex contentHashes = null;
+    
     
     public CouchbasePersistHandler(Configuration conf) {
         super();
@@ -59,6 +68,11 @@ public class CouchbasePersistHandler implements IPersistHandler {
         }
         try {
             couchbaseClient = new CouchbaseClient(uris, conf.getDb(), "");
+            asyncWriter = new CouchbaseAsyncWriter(couchbaseClient, conf.getWriteWindow());
+            if(conf.getContentHashFile()!=null) {
+                contentHashes = new ContentHashIndex(conf.getContentHashFile());
+                asyncWriter.setContentHashes(contentHashes);
+            }
         } catch (Exception e) {
             LOG.error("Error while connecting to couchbase", e);
         }
@@ -69,8 +83,65 @@ public class CouchbasePersistHandler implements IPersistHandler {
      */
     @Override
     public void save(Integer id, String json) {
+        ItemDocument document = createDocument(id, json);
+        if(document!=null) {
+            save(document);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#createDocument(java.lang.Integer, java.lang.String)
+     */
+    @Override
+    public ItemDocument createDocument(Integer id, String json) {
+        if(contentHashes==null) {
+            return new ItemDocument(id, json, null);
+        }
+        // documents are saved unchanged, the hash is saved in the index only
+        byte[] utf8 = ContentHashIndex.encode(json);
+        long hash = ContentHashIndex.hashEncoded(utf8);
+        if(contentHashes.isUnchanged(id, hash, utf8.length)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Item " + id + " is unchanged and not saved");
+            }
+            return null;
+        }
+        return new ItemDocument(id, json, null, hash);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(org.wikidata.couchbase.ItemDocument)
+     */
+    @Override
+    public void save(ItemDocument document) {
+        Integer id = document.getId();
         String key = buildDocumentKey(id);            
-        couchbaseClient.set(key, 0, json);
+        try {
+            // the writer reports the result to the callback of the document
+            asyncWriter.set(key, document);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Item " + id + " was not saved. Import was interrupted.");
+            document.writeFailed(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#setMemoryBudget(org.wikidata.couchbase.MemoryBudget)
+     */
+    @Override
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        if(asyncWriter!=null) {
+            asyncWriter.setMemoryBudget(memoryBudget);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#flush()
+     */
+    @Override
+    public void flush() {
+        asyncWriter.awaitCompletion(SHUTDOWN_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
     }
     
     /* (non-Javadoc)
@@ -78,6 +149,11 @@ public class CouchbasePersistHandler implements IPersistHandler {
      */
     @Override
     public void shutdown() {
+        asyncWriter.shutdown(SHUTDOWN_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+        if(contentHashes!=null) {
+            // after the writer, the hashes of the last written documents are saved
+            contentHashes.close();
+        }
         couchbaseClient.shutdown();     
     }
     
@@ -97,11 +173,37 @@ public class CouchbasePersistHandler implements IPersistHandler {
     }
 
     /* (non-Javadoc)
-     * @see org.wikidata.couchbase.IPersistHandler#load(int, int)
+     * @see org.wikidata.couchbase.IPersistHandler#scan(int, int, java.lang.String[])
      */
     @Override
-    public List<DBObject> load(int start, int limit) {  
-        return Collections.emptyList();
+    public ItemCursor scan(int firstId, int stopId, String[] fields) {  
+        return new ItemCursor(null);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getMaxItemId()
+     */
+    @Override
+    public Integer getMaxItemId() {
+        // items are saved by key only, there is no view to query the ids
+        throw new UnsupportedOperationException("Couchbase has no index of the item ids, the iterator supports MongoDB only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getLastRevisionIds(java.util.Collection)
+     */
+    @Override
+    public Map<Integer, Long> getLastRevisionIds(Collection<Integer> ids) {
+        // revisions are not indexed, all changed items are imported
+        return Collections.emptyMap();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getLastModified()
+     */
+    @Override
+    public String getLastModified() {
+        return null;
     }
 
     /* (non-Javadoc)
@@ -122,6 +224,23 @@ public class CouchbasePersistHandler implements IPersistHandler {
         
     }
 
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(java.lang.String, com.mongodb.DBObject)
+     */
+    @Override
+    public void save(String collectionName, DBObject object) {
+        // claims are extracted by the iterator, see WikidataIterator
+        throw new UnsupportedOperationException("Couchbase has no collections, the iterator supports MongoDB only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#count(java.lang.String)
+     */
+    @Override
+    public long count(String collectionName) {
+        throw new UnsupportedOperationException("Couchbase has no collections, the iterator supports MongoDB only.");
+    }
+
     /* (non-Javadoc)
      * @see org.wikidata.couchbase.IPersistHandler#find(com.mongodb.BasicDBObject)
      */
@@ -131,4 +250,13 @@ public class CouchbasePersistHandler implements IPersistHandler {
         return null;
     }
 
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#find(com.mongodb.BasicDBObject, java.lang.String[])
+     */
+    @Override
+    public DBCursor find(BasicDBObject doc, String[] fields) {
+        // items are saved by key only, there is no view to query the fields
+        throw new UnsupportedOperationException("Couchbase can not be queried by fields, the iterator supports MongoDB only.");
+    }
+
 }
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * DBObjectParser converts JSON text to MongoDB objects in one pass
+ * with the streaming parser of Jackson. No intermediate tree 
+ * or String is created.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public abstract class DBObjectParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    /**
+     * Parses a document in the format of a Special:EntityData response
+     * {"entities":{"Q<id>":{...}}} and returns the entity. 
+     * The wrapper is skipped while parsing.
+     * 
+     * @param json The JSON text of a Special:EntityData response
+     * @return The entity
+     * @throws IOException
+     */
+    public static DBObject parseEntity(String json) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(json);
+        try {
+            // {"entities":
+            expect(parser, JsonToken.START_OBJECT);
+            expect(parser, JsonToken.FIELD_NAME);
+            // {"Q<id>":
+            expect(parser, JsonToken.START_OBJECT);
+            expect(parser, JsonToken.FIELD_NAME);
+            JsonToken token = expect(parser, JsonToken.START_OBJECT);
+            return (DBObject) readValue(parser, token);
+        } finally {
+            parser.close();
+        }
+    }
+    
+    /**
+     * Parses a JSON object.
+     * 
+     * @param json The JSON text of an object
+     * @return The object
+     * @throws IOException
+     */
+    public static DBObject parse(String json) throws IOException {
+        JsonParser parser = JSON_FACTORY.createParser(json);
+        try {
+            JsonToken token = expect(parser, JsonToken.START_OBJECT);
+            return (DBObject) readValue(parser, token);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static JsonToken expect(JsonParser parser, JsonToken expected) throws IOException {
+        JsonToken token = parser.nextToken();
+        if(token!=expected) {
+            throw new JsonParseException("Expected " + expected + " but found " + token, parser.getCurrentLocation());
+        }
+        return token;
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+        case START_OBJECT:
+            return readObject(parser);
+        case START_ARRAY:
+            return readArray(parser);
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return readInt(parser);
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return null;
+        default:
+            throw new JsonParseException("Unexpected token: " + token, parser.getCurrentLocation());
+        }
+    }
+
+    private static DBObject readObject(JsonParser parser) throws IOException {
+        BasicDBObject object = new BasicDBObject();
+        while(parser.nextToken()==JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            object.put(name, readValue(parser, parser.nextToken()));
+        }
+        return object;
+    }
+
+    private static DBObject readArray(JsonParser parser) throws IOException {
+        BasicDBList list = new BasicDBList();
+        JsonToken token;
+        while((token = parser.nextToken())!=JsonToken.END_ARRAY) {
+            list.add(readValue(parser, token));
+        }
+        return list;
+    }
+
+    private static Object readInt(JsonParser parser) throws IOException {
+        switch (parser.getNumberType()) {
+        case INT:
+            return parser.getIntValue();
+        case LONG:
+            return parser.getLongValue();
+        default:
+            // BSON has no type for big integers
+            return parser.getDoubleValue();
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * DumpLineHandler handles the lines of a Wikidata JSON dump. 
+ * Every line of a dump contains one entity.
+ * 
+ * Only the id of an entity is parsed, the entity itself is passed 
+ * as JSON text to the database. Items are collected in batches, 
+ * every batch is saved by a worker thread of an {@link ImportScheduler}.
+ * 
+ * Lines are read from a byte array or a {@link ByteBuffer}, e.g. a mapped
+ * file. The id is parsed from the bytes of the line. The line of an item
+ * is copied once to the UTF-8 bytes of the document and decoded once to
+ * the String which is passed to {@link PersistService#save(Integer, String)},
+ * see {@link EntityData#toJson(Integer, ByteBuffer, int, int)}. Lines of 
+ * other entities and items out of range are not copied.
+ * 
+ * If the scheduler has a {@link MemoryBudget} the memory of a batch
+ * is acquired before it is passed to the scheduler. Batches are kept
+ * below the oversized size of the budget, oversized items are passed
+ * alone to the oversized lane of the budget.
+ * 
+ * A DumpLineHandler is not thread-safe, use one handler per thread.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class DumpLineHandler {
+
+    private static final Logger LOG = Logger.getLogger(DumpLineHandler.class);
+    
+    public static final int BATCH_SIZE = 100;
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final int LOG_INTERVAL = 100000;
+    
+    private Configuration conf;
+    private PersistService persistService;
+    private ImportScheduler scheduler;
+    private DumpStatistics statistics;
+    
+    private Map<Integer, String> batch;
+    private long batchSize = 0;
+    
+    public DumpLineHandler(Configuration conf, PersistService persistService, ImportScheduler scheduler, DumpStatistics statistics) {
+        super();
+        this.conf = conf;
+        this.persistService = persistService;
+        this.scheduler = scheduler;
+        this.statistics = statistics;
+        this.batch = new LinkedHashMap<Integer, String>();
+    }
+
+    /**
+     * Handles one line of a dump. Lines without an entity
+     * like "[" or "]" are ignored.
+     * 
+     * @param buffer A buffer which contains the line
+     * @param offset Start of the line in the buffer
+     * @param length Length of the line without line break
+     * @throws InterruptedException
+     */
+    public void handleLine(byte[] buffer, int offset, int length) throws InterruptedException {
+        handleLine(ByteBuffer.wrap(buffer), offset, length);
+    }
+    
+    /**
+     * Handles one line of a dump. Lines without an entity
+     * like "[" or "]" are ignored. The position of the buffer 
+     * is not changed.
+     * 
+     * @param buffer A buffer which contains the line, e.g. a mapped file
+     * @param offset Start of the line in the buffer
+     * @param length Length of the line without line break
+     * @throws InterruptedException
+     */
+    public void handleLine(ByteBuffer buffer, int offset, int length) throws InterruptedException {
+        statistics.addBytes(length + 1);
+        int start = offset;
+        int end = offset + length;
+        while(start < end && isWhitespace(buffer.get(start))) {
+            start++;
+        }
+        while(end > start && (isWhitespace(buffer.get(end-1)) || buffer.get(end-1)==',')) {
+            end--;
+        }
+        if(end <= start || buffer.get(start)!='{') {
+            return;
+        }
+        long n = statistics.addEntity();
+        if(n % LOG_INTERVAL == 0) {
+            LOG.info("Entities read: " + n + ", items: " + statistics.getNumberOfItems());
+        }
+        handleEntity(buffer, start, end - start);
+    }
+
+    private void handleEntity(ByteBuffer buffer, int offset, int length) throws InterruptedException {
+        Integer id;
+        try {
+            id = EntityData.parseItemId(readEntityId(buffer, offset, length));
+        } catch (IOException e) {
+            statistics.addError();
+            LOG.warn("Error while parsing entity: " + e.getMessage());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Stacktrace: ", e);
+            }
+            return;
+        }
+        if(id==null || id < conf.getFirstId() || id > conf.getLastId()) {
+            return;
+        }
+        statistics.addItem();
+        String json = EntityData.toJson(id, buffer, offset, length);
+        long size = MemoryBudget.getSize(json);
+        MemoryBudget budget = scheduler.getMemoryBudget();
+        if(budget!=null && budget.isOversized(batchSize + size)) {
+            flush();
+        }
+        batch.put(id, json);
+        batchSize += size;
+        if(batch.size() >= BATCH_SIZE || (budget!=null && budget.isOversized(size))) {
+            flush();
+        }
+    }
+
+    /**
+     * Reads the top level field "id" of an entity. 
+     * All other fields are skipped without creating any objects.
+     * The parser reads an array directly, other buffers are read 
+     * through a stream until the id is found.
+     */
+    private static String readEntityId(ByteBuffer buffer, int offset, int length) throws IOException {
+        JsonParser parser;
+        if(buffer.hasArray()) {
+            parser = JSON_FACTORY.createParser(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            ByteBuffer entity = buffer.duplicate();
+            entity.limit(offset + length);
+            entity.position(offset);
+            parser = JSON_FACTORY.createParser(new ByteBufferBackedInputStream(entity));
+        }
+        try {
+            if(parser.nextToken()!=JsonToken.START_OBJECT) {
+                return null;
+            }
+            while(parser.nextToken()==JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if("id".equals(name)) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Passes the current batch to the scheduler.
+     * 
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException {
+        if(batch.isEmpty()) {
+            return;
+        }
+        final Map<Integer, String> items = batch;
+        long size = batchSize;
+        batch = new LinkedHashMap<Integer, String>();
+        batchSize = 0;
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveItems(items);
+            }
+        }, size);
+    }
+
+    private void saveItems(Map<Integer, String> items) {
+        for (Map.Entry<Integer, String> entry : items.entrySet()) {
+            try {
+                persistService.save(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                statistics.addError();
+                LOG.warn("Item " + entry.getKey() + " was not exported. Unknow error: " + e.getMessage());
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Stacktrace: ", e);
+                }
+            }
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b==' ' || b=='\t' || b=='\r' || b=='\n';
+    }
+    
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Thread-safe counters of a dump import.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class DumpStatistics {
+    
+    private static final double MB = 1024.0 * 1024.0;
+    
+    private long startTimestamp = System.currentTimeMillis();
+    
+    private AtomicLong numberOfEntities = new AtomicLong();
+    private AtomicLong numberOfItems = new AtomicLong();
+    private AtomicLong numberOfErrors = new AtomicLong();
+    private AtomicLong numberOfBytes = new AtomicLong();
+    private long fileSize = 0;
+    
+    public DumpStatistics(long fileSize) {
+        super();
+        this.fileSize = fileSize;
+    }
+
+    public long addEntity() {
+        return numberOfEntities.incrementAndGet();
+    }
+    
+    public long addItem() {
+        return numberOfItems.incrementAndGet();
+    }
+    
+    public long addError() {
+        return numberOfErrors.incrementAndGet();
+    }
+    
+    public long addBytes(long n) {
+        return numberOfBytes.addAndGet(n);
+    }
+    
+    public long getNumberOfEntities() {
+        return numberOfEntities.get();
+    }
+
+    public long getNumberOfItems() {
+        return numberOfItems.get();
+    }
+    
+    public long getNumberOfErrors() {
+        return numberOfErrors.get();
+    }
+
+    public long getNumberOfBytes() {
+        return numberOfBytes.get();
+    }
+
+    /**
+     * Logs throughput of the import: MB/s of the file, MB/s of the
+     * uncompressed data and entities/s.
+     */
+    public void log(Logger log, int numberOfThreads) {
+        double seconds = Math.max(1, System.currentTimeMillis() - startTimestamp) / 1000.0;
+        log.info("Dump file read with " + numberOfThreads + " thread(s) in " + TimeFormatter.getHumanRedableTime((long) (seconds * 1000)) 
+                + ", entities: " + getNumberOfEntities() 
+                + ", items: " + getNumberOfItems()
+                + ", errors: " + getNumberOfErrors());
+        log.info("File MB/s: " + format(fileSize / MB / seconds) 
+                + ", uncompressed MB/s: " + format(getNumberOfBytes() / MB / seconds) 
+                + ", entities/s: " + format(getNumberOfEntities() / seconds));
+    }
+    
+    private static String format(double d) {
+        return String.format("%.1f", d);
+    }
+
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * DumpStreamIndex finds the start offsets of the independently decodable
+ * streams of a compressed dump file: the members of a multi-member gzip
+ * file or the streams of a multi-stream bzip2 file.
+ * 
+ * The offsets are found by scanning the file for the header signatures.
+ * gzip headers are short, every gzip candidate is checked by decoding
+ * the beginning of the member. The offsets are saved in an index file
+ * next to the dump (<dump>.idx) and reused as long as the dump is not changed.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public abstract class DumpStreamIndex {
+
+    private static final Logger LOG = Logger.getLogger(DumpStreamIndex.class);
+    
+    public static final String INDEX_FILE_EXTENSION = ".idx";
+    
+    // ID1, ID2 and compression method deflate
+    private static final byte[] GZIP_SIGNATURE = {(byte) 0x1f, (byte) 0x8b, 0x08};
+    private static final int GZIP_HEADER_LENGTH = 10;
+    
+    // "BZh", followed by the block size '1'-'9' and the magic number of the first block (BCD pi)
+    private static final byte[] BZIP2_SIGNATURE = {'B', 'Z', 'h'};
+    private static final byte[] BZIP2_BLOCK_MAGIC = {0x31, 0x41, 0x59, 0x26, 0x53, 0x59};
+    private static final int BZIP2_HEADER_LENGTH = 10;
+    
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024 * 1024;
+    private static final int GZIP_CHECK_SIZE = 64 * 1024;
+    
+    public static boolean isSupported(String dumpFile) {
+        return isGzip(dumpFile) || isBzip2(dumpFile);
+    }
+    
+    public static boolean isGzip(String dumpFile) {
+        return dumpFile.endsWith(".gz");
+    }
+    
+    public static boolean isBzip2(String dumpFile) {
+        return dumpFile.endsWith(".bz2");
+    }
+    
+    /**
+     * Returns the start offsets of all streams of a compressed dump file.
+     * The first offset is always 0.
+     * 
+     * @param dumpFile Path to a .gz or .bz2 dump file
+     * @return Sorted list of stream offsets
+     * @throws IOException
+     */
+    public static List<Long> getStreamOffsets(String dumpFile) throws IOException {
+        File dump = new File(dumpFile);
+        File index = new File(dumpFile + INDEX_FILE_EXTENSION);
+        if(index.exists() && index.lastModified() >= dump.lastModified()) {
+            try {
+                List<Long> offsets = readIndex(index);
+                LOG.info("Stream index loaded: " + index.getPath() + ", number of streams: " + offsets.size());
+                return offsets;
+            } catch (Exception e) {
+                LOG.warn("Can not read stream index: " + index.getPath() + ", dump file is scanned again.", e);
+            }
+        }
+        LOG.info("Scanning dump file for stream offsets: " + dumpFile + "...");
+        List<Long> offsets = scan(dumpFile);
+        LOG.info("Number of streams: " + offsets.size());
+        try {
+            writeIndex(index, offsets);
+        } catch (IOException e) {
+            LOG.warn("Can not write stream index: " + index.getPath(), e);
+        }
+        return offsets;
+    }
+
+    private static List<Long> scan(String dumpFile) throws IOException {
+        boolean gzip = isGzip(dumpFile);
+        byte[] signature = gzip ? GZIP_SIGNATURE : BZIP2_SIGNATURE;
+        int headerLength = gzip ? GZIP_HEADER_LENGTH : BZIP2_HEADER_LENGTH;
+        List<Long> offsets = new ArrayList<Long>();
+        offsets.add(0L);
+        RandomAccessFile file = new RandomAccessFile(dumpFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+            long position = 0;
+            while(position < size) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                int n = 0;
+                while(byteBuffer.hasRemaining() && position + n < size) {
+                    int r = channel.read(byteBuffer, position + n);
+                    if(r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                int last = n - headerLength;
+                for (int i = 0; i <= last; i++) {
+                    long offset = position + i;
+                    if(offset > 0 && matches(buffer, i, signature) && (gzip ? isGzipMember(channel, offset) : isBzip2Stream(buffer, i))) {
+                        offsets.add(offset);
+                    }
+                }
+                if(position + n >= size) {
+                    break;
+                }
+                // Next buffer overlaps, headers on the boundary are found
+                position += Math.max(1, n - headerLength + 1);
+            }
+        } finally {
+            file.close();
+        }
+        return offsets;
+    }
+
+    private static boolean matches(byte[] buffer, int i, byte[] signature) {
+        for (int j = 0; j < signature.length; j++) {
+            if(buffer[i + j]!=signature[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isBzip2Stream(byte[] buffer, int i) {
+        byte blockSize = buffer[i + BZIP2_SIGNATURE.length];
+        return blockSize >= '1' && blockSize <= '9' && matches(buffer, i + BZIP2_SIGNATURE.length + 1, BZIP2_BLOCK_MAGIC);
+    }
+
+    /**
+     * Checks a gzip candidate by decoding the beginning of the member.
+     */
+    private static boolean isGzipMember(FileChannel channel, long offset) {
+        try {
+            InputStream in = new GZIPInputStream(new FileRangeInputStream(channel, offset, channel.size()));
+            try {
+                byte[] buffer = new byte[GZIP_CHECK_SIZE];
+                int n = 0;
+                while(n < buffer.length) {
+                    int r = in.read(buffer, n, buffer.length - n);
+                    if(r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static List<Long> readIndex(File index) throws IOException {
+        List<Long> offsets = new ArrayList<Long>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine())!=null) {
+                if(!line.trim().isEmpty()) {
+                    offsets.add(Long.valueOf(line.trim()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if(offsets.isEmpty() || offsets.get(0)!=0L) {
+            throw new IOException("Invalid stream index: " + index.getPath());
+        }
+        return offsets;
+    }
+
+    private static void writeIndex(File index, List<Long> offsets) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(index), "UTF-8"));
+        try {
+            for (Long offset : offsets) {
+                writer.write(String.valueOf(offset));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+    
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Helper methods to create documents in the format
+ * of a Special:EntityData response:
+ * {"entities":{"Q<id>":{...}}}
+ * 
+ * All sources of the importer (web service, dump files) 
+ * pass documents in this format to {@link PersistService#save(Integer, String)}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public abstract class EntityData {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private static final JsonFactory FACTORY = new JsonFactory();
+    
+    private static final String ITEM_PREFIX = "Q";
+    
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    
+    /**
+     * Wraps an entity in the structure of a Special:EntityData response.
+     * 
+     * @param id The numeric id of an item
+     * @param entity An entity of a wbgetentities response or a dump file
+     * @return The JSON text of the wrapped entity
+     * @throws IOException
+     */
+    public static String toJson(Integer id, JsonNode entity) throws IOException {
+        ObjectNode entityData = MAPPER.createObjectNode();
+        entityData.putObject("entities").set(buildEntityId(id), entity);
+        return MAPPER.writeValueAsString(entityData);
+    }
+    
+    /**
+     * Wraps the JSON text of an entity in the structure of a 
+     * Special:EntityData response without parsing it.
+     * 
+     * @param id The numeric id of an item
+     * @param entityJson The JSON text of an entity
+     * @return The JSON text of the wrapped entity
+     */
+    public static String toJson(Integer id, String entityJson) {
+        StringBuilder sb = new StringBuilder(entityJson.length() + 32);
+        sb.append("{\"entities\":{\"").append(buildEntityId(id)).append("\":");
+        sb.append(entityJson);
+        sb.append("}}");
+        return sb.toString();
+    }
+    
+    /**
+     * Wraps the UTF-8 encoded JSON text of an entity in the structure
+     * of a Special:EntityData response without parsing it. The entity
+     * is copied once from the buffer into the encoded document which
+     * is decoded once to the returned String.
+     * 
+     * @param id The numeric id of an item
+     * @param buffer A buffer which contains the entity, e.g. a mapped file
+     * @param offset Start of the entity in the buffer
+     * @param length Length of the entity in bytes
+     * @return The JSON text of the wrapped entity
+     */
+    public static String toJson(Integer id, ByteBuffer buffer, int offset, int length) {
+        byte[] prefix = ("{\"entities\":{\"" + buildEntityId(id) + "\":").getBytes(UTF_8);
+        byte[] json = new byte[prefix.length + length + 2];
+        System.arraycopy(prefix, 0, json, 0, prefix.length);
+        ByteBuffer entity = buffer.duplicate();
+        entity.position(offset);
+        entity.get(json, prefix.length, length);
+        json[json.length - 2] = '}';
+        json[json.length - 1] = '}';
+        return new String(json, UTF_8);
+    }
+    
+    /**
+     * Returns the id of the first entity of a Special:EntityData response
+     * without parsing the entity. If an item is redirected the response 
+     * contains the target of the redirect.
+     * 
+     * @param json The JSON text of a Special:EntityData response
+     * @return The id of the first entity or null if there is no entity
+     * @throws IOException
+     */
+    public static String getEntityId(String json) throws IOException {
+        JsonParser parser = FACTORY.createParser(json);
+        try {
+            if(parser.nextToken()!=JsonToken.START_OBJECT) {
+                return null;
+            }
+            while(parser.nextToken()==JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if("entities".equals(name) && parser.nextToken()==JsonToken.START_OBJECT) {
+                    return (parser.nextToken()==JsonToken.FIELD_NAME) ? parser.getCurrentName() : null;
+                }
+                parser.nextToken();
+                parser.skipChildren();
+            }
+            return null;
+        } finally {
+            parser.close();
+        }
+    }
+    
+    public static String buildEntityId(Integer id) {
+        return ITEM_PREFIX + id;
+    }
+    
+    /**
+     * @param entityId An entity id, e.g. "Q42" or "P31"
+     * @return The numeric id of an item or null if entityId is not an item id
+     */
+    public static Integer parseItemId(String entityId) {
+        if(entityId==null || !entityId.startsWith(ITEM_PREFIX)) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(entityId.substring(ITEM_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+}
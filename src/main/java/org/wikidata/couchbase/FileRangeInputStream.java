@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream which reads a range of a file.
+ * 
+ * The stream uses positional reads of a {@link FileChannel}, multiple
+ * streams can read different ranges of the same channel concurrently.
+ * The channel is not closed when the stream is closed.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class FileRangeInputStream extends InputStream {
+
+    private FileChannel channel;
+    private long position;
+    private long end;
+    
+    /**
+     * @param channel A file channel
+     * @param start Start position of the range (inclusive)
+     * @param end End position of the range (exclusive)
+     */
+    public FileRangeInputStream(FileChannel channel, long start, long end) {
+        super();
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return (n < 1) ? -1 : (b[0] & 0xff);
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(position >= end) {
+            return -1;
+        }
+        int n = (int) Math.min(len, end - position);
+        n = channel.read(ByteBuffer.wrap(b, off, n), position);
+        if(n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.InputStream#available()
+     */
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, end - position));
+    }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+
+/**
+ * Passed to {@link IFetchCallback#failed(int, Exception)} if a server
+ * answers with an error status. Contains the value of the 
+ * Retry-After header if the server sends one.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private int status;
+    private long retryAfterInMs;
+
+    /**
+     * @param message The status line of the response
+     * @param status The HTTP status code
+     * @param retryAfter The value of the Retry-After header or null
+     * @param cause The cause of the error or null
+     */
+    public HttpStatusException(String message, int status, String retryAfter, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+        this.retryAfterInMs = parseRetryAfter(retryAfter);
+    }
+
+    /**
+     * Parses a Retry-After header. Only delay seconds are supported,
+     * HTTP dates are ignored.
+     * 
+     * @param retryAfter The value of the Retry-After header or null
+     * @return The delay in milliseconds or -1 if there is no delay
+     */
+    public static long parseRetryAfter(String retryAfter) {
+        if(retryAfter==null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000L;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the delay of the Retry-After header in milliseconds
+     * or -1 if there is no header.
+     */
+    public long getRetryAfterInMs() {
+        return retryAfterInMs;
+    }
+
+}
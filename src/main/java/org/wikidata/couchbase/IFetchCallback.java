@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+/**
+ * Callback of a {@link IFetchEngine} request.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public interface IFetchCallback {
+
+    /**
+     * Called when a request was successful.
+     * 
+     * @param json The response body
+     */
+    void completed(String json);
+    
+    /**
+     * Called when a request failed.
+     * 
+     * @param status The HTTP status code or -1 if the request failed without a response 
+     * @param e The cause of the error
+     */
+    void failed(int status, Exception e);
+    
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+/**
+ * A fetch engine loads JSON documents from the Wikidata web service.
+ * 
+ * An engine may call the callback in the calling thread
+ * ({@link JerseyFetchEngine}) or asynchronously in another thread
+ * ({@link AsyncFetchEngine}).
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public interface IFetchEngine {
+
+    /**
+     * Loads the document with the given URL and passes the response
+     * to the callback.
+     * 
+     * @param url The URL of a document
+     * @param callback Callback which handles the response
+     * @throws InterruptedException
+     */
+    void fetch(String url, IFetchCallback callback) throws InterruptedException;
+    
+    /**
+     * Returns true if {@link #fetch(String, IFetchCallback)} returns
+     * before the callback is finished.
+     */
+    boolean isAsync();
+    
+    /**
+     * Blocks until all requests which are started are finished
+     * and their callbacks returned.
+     * 
+     * @throws InterruptedException
+     */
+    void awaitCompletion() throws InterruptedException;
+    
+    /**
+     * Waits until all requests are finished and releases all resources.
+     */
+    void shutdown();
+    
+}
@@ -32,6 +32,20 @@ public interface IITemProcessor {
      * @param item
      */
     void run(JsonNode item);
+    
+    /**
+     * Finishes the processing of all items which were passed 
+     * to {@link #run(JsonNode)} since the last call of this method.
+     */
+    void flush();
+    
+    /**
+     * Returns the paths of the fields which are read by this processor, 
+     * e.g. "item.claims". Only these fields are loaded from the database.
+     * 
+     * @return Paths of the fields or null if the processor reads the whole item
+     */
+    String[] getRequiredFields();
 
     /**
      * @param persistService
@@ -19,7 +19,8 @@
  ******************************************************************************/
 package org.wikidata.couchbase;
 
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
@@ -34,15 +35,105 @@ public interface IPersistHandler {
 
     void save(Integer id, String json);
     
+    /**
+     * Creates the document of an item without saving it. 
+     * Call {@link #save(ItemDocument)} to save the document.
+     * 
+     * @param id The id of the item
+     * @param json The JSON text of the item
+     * @return The document or null if the item is unchanged and must not be saved
+     */
+    ItemDocument createDocument(Integer id, String json);
+    
+    /**
+     * Saves a document which is created by {@link #createDocument(Integer, String)}.
+     * 
+     * The document is written before this method returns or later, e.g. in
+     * a bulk request. If the write is confirmed {@link ItemDocument#written()}
+     * is called. A RuntimeException is thrown if the document is not
+     * accepted, {@link ItemDocument#writeFailed(Exception)} is called if
+     * the document is accepted and not written.
+     * 
+     * @param document The document of an item
+     */
+    void save(ItemDocument document);
+    
     void save(DBObject object);
     
-    List<DBObject> load(int start, int limit);
+    /**
+     * Saves a document in a collection other than the item collection,
+     * e.g. the claims of a property, see {@link ClaimProcessor}.
+     * Documents may be buffered until {@link #flush()} is called.
+     * 
+     * @param collectionName The name of the collection
+     * @param object A document with an _id
+     */
+    void save(String collectionName, DBObject object);
+    
+    /**
+     * Returns a cursor of all items with an id greater or equal 
+     * than firstId and less than stopId, sorted by id.
+     * The cursor must be closed by the caller.
+     * 
+     * @param firstId First item id
+     * @param stopId Item id after the last item id 
+     * @param fields Paths of the fields which are loaded, e.g. "item.claims" or null for all fields
+     * @return A cursor of the items in the range, sorted by id
+     */
+    ItemCursor scan(int firstId, int stopId, String[] fields);
     
     long count();
+    
+    /**
+     * @return The highest item id in the database or null if there are no items
+     */
+    Integer getMaxItemId();
+    
+    /**
+     * Returns the last revision ids of items. Items without a
+     * revision id are not in the result.
+     * 
+     * @param ids Item ids
+     * @return The last revision id of every item which is found
+     */
+    Map<Integer, Long> getLastRevisionIds(Collection<Integer> ids);
+    
+    /**
+     * @return The latest modification time of all items, e.g. "2014-02-22T10:00:00Z" or null if unknown
+     */
+    String getLastModified();
+
+    /**
+     * Sets the memory budget of the import. Documents which are kept
+     * after a save method returns reserve their memory in the budget
+     * until they are written.
+     * 
+     * @param memoryBudget A memory budget or null
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget);
+
+    /**
+     * Blocks until all items which are passed to a save method
+     * are written to the database.
+     */
+    void flush();
 
     void shutdown();
 
     DBCursor find(BasicDBObject doc);
+    
+    /**
+     * @param collectionName The name of a collection
+     * @return The number of documents in the collection
+     */
+    long count(String collectionName);
+    
+    /**
+     * @param doc The query
+     * @param fields Paths of the fields which are loaded or null for all fields
+     * @return A cursor of the matching documents
+     */
+    DBCursor find(BasicDBObject doc, String[] fields);
 
 
 }
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+/**
+ * An item which is imported by the stages of an {@link ImportPipeline}.
+ * Every stage method is called in a thread of the stage when the
+ * previous stage is finished.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public interface IPipelineItem {
+
+    /**
+     * Parses the response of the item.
+     *
+     * @return true if the item is passed to the next stage, false if there is nothing to save
+     * @throws Exception
+     */
+    boolean parse() throws Exception;
+
+    /**
+     * Creates the documents of the item.
+     *
+     * @return true if the item is passed to the next stage, false if there is nothing to save
+     * @throws Exception
+     */
+    boolean transform() throws Exception;
+
+    /**
+     * Saves the documents of the item in the database.
+     *
+     * @throws Exception
+     */
+    void persist() throws Exception;
+
+    /**
+     * Called if a stage failed, the following stages are not called.
+     *
+     * @param e The cause of the error
+     */
+    void failed(Exception e);
+
+}
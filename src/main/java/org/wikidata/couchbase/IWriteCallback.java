@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+/**
+ * Callback of a document which is saved by
+ * {@link IPersistHandler#save(ItemDocument)}.
+ *
+ * A persist handler may write documents after the save method
+ * returns, e.g. in a bulk request or asynchronously. The callback
+ * is called when the write is confirmed by the database.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public interface IWriteCallback {
+
+    /**
+     * Called when the document of an item is written.
+     *
+     * @param id The id of the item
+     */
+    void written(Integer id);
+
+    /**
+     * Called when the document of an item can not be written
+     * after the save method returned.
+     *
+     * @param id The id of the item
+     * @param e The cause of the error
+     */
+    void writeFailed(Integer id, Exception e);
+
+}
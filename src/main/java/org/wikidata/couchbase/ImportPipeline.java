@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImportPipeline imports items in stages:
+ *
+ * fetch -&gt; parse -&gt; transform -&gt; persist
+ *
+ * Items are loaded by the threads of an {@link ImportScheduler} and a
+ * {@link IFetchEngine}. A loaded item is passed to the parse stage,
+ * the response is parsed and checked. The transform stage creates
+ * the documents of the item and the persist stage saves the documents
+ * in the database, see {@link IPipelineItem}.
+ *
+ * Every stage has its own thread pool which is sized to the work of
+ * the stage: CPU bound stages (parse, transform) have one thread per
+ * core, the persist stage has the threads which wait for the database.
+ * With virtual threads every persist task runs in a new virtual thread,
+ * the number of writes in flight is limited by the window of the stage.
+ * The stages are connected by bounded queues, see {@link PipelineStage}.
+ * A full queue blocks the previous stage and finally the fetch threads,
+ * a slow database slows down the requests.
+ *
+ * If a memory budget is configured the memory of an item is held from
+ * the parse stage until the item is saved or failed.
+ *
+ * {@link #DIRECT} executes all stages in the calling thread.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ImportPipeline {
+
+    /**
+     * A pipeline without threads, all stages are executed in the
+     * thread which passes an item to the pipeline.
+     */
+    public static final ImportPipeline DIRECT = new ImportPipeline();
+
+    private PipelineStage parseStage = null;
+    private PipelineStage transformStage = null;
+    private PipelineStage persistStage = null;
+    private MemoryBudget memoryBudget = null;
+
+    private long startTimestamp;
+
+    private ImportPipeline() {
+        super();
+    }
+
+    /**
+     * @param numberOfCpuThreads The number of threads of the parse and of the transform stage
+     * @param numberOfPersistThreads The number of threads of the persist stage
+     */
+    public ImportPipeline(int numberOfCpuThreads, int numberOfPersistThreads) {
+        this(numberOfCpuThreads, numberOfPersistThreads, false);
+    }
+
+    /**
+     * @param numberOfCpuThreads The number of threads of the parse and of the transform stage
+     * @param numberOfPersistThreads The number of threads or the max. number of virtual threads of the persist stage
+     * @param virtualThreads true if the persist stage runs every task in a virtual thread
+     */
+    public ImportPipeline(int numberOfCpuThreads, int numberOfPersistThreads, boolean virtualThreads) {
+        super();
+        parseStage = new PipelineStage("parse", numberOfCpuThreads);
+        transformStage = new PipelineStage("transform", numberOfCpuThreads);
+        if(virtualThreads) {
+            persistStage = PipelineStage.createVirtual("persist", numberOfPersistThreads);
+        } else {
+            persistStage = new PipelineStage("persist", numberOfPersistThreads);
+        }
+        startTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Passes a loaded item to the parse stage. Blocks until the
+     * parse stage accepts the item.
+     *
+     * If the item is oversized this method blocks until the oversized lane
+     * of the memory budget is free, see {@link MemoryBudget#hold(long)}.
+     *
+     * @param item An item
+     * @param bytes The memory of the item, see {@link MemoryBudget#getSize(String)}
+     * @throws InterruptedException
+     */
+    public void submit(final IPipelineItem item, final long bytes) throws InterruptedException {
+        if(memoryBudget!=null) {
+            memoryBudget.hold(bytes);
+        }
+        try {
+            execute(parseStage, new Runnable() {
+                @Override
+                public void run() {
+                    parse(item, bytes);
+                }
+            });
+        } catch (InterruptedException e) {
+            release(bytes);
+            throw e;
+        } catch (RuntimeException e) {
+            release(bytes);
+            throw e;
+        }
+    }
+
+    private void parse(final IPipelineItem item, final long bytes) {
+        try {
+            if(!item.parse()) {
+                release(bytes);
+                return;
+            }
+            execute(transformStage, new Runnable() {
+                @Override
+                public void run() {
+                    transform(item, bytes);
+                }
+            });
+        } catch (Exception e) {
+            failed(item, bytes, e);
+        }
+    }
+
+    private void transform(final IPipelineItem item, final long bytes) {
+        try {
+            if(!item.transform()) {
+                release(bytes);
+                return;
+            }
+            execute(persistStage, new Runnable() {
+                @Override
+                public void run() {
+                    persist(item, bytes);
+                }
+            });
+        } catch (Exception e) {
+            failed(item, bytes, e);
+        }
+    }
+
+    private void persist(IPipelineItem item, long bytes) {
+        try {
+            item.persist();
+            release(bytes);
+        } catch (Exception e) {
+            failed(item, bytes, e);
+        }
+    }
+
+    private void failed(IPipelineItem item, long bytes, Exception e) {
+        release(bytes);
+        if(e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        item.failed(e);
+    }
+
+    private void release(long bytes) {
+        if(memoryBudget!=null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    private static void execute(PipelineStage stage, Runnable task) throws InterruptedException {
+        if(stage==null) {
+            task.run();
+            return;
+        }
+        stage.execute(task);
+    }
+
+    /**
+     * Blocks until all items in the pipeline are saved or failed.
+     *
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws InterruptedException {
+        if(parseStage==null) {
+            return;
+        }
+        // items are passed forward only, a stage is finished when the previous stages are finished
+        parseStage.awaitCompletion();
+        transformStage.awaitCompletion();
+        persistStage.awaitCompletion();
+    }
+
+    /**
+     * Returns the number of queued tasks of every stage,
+     * e.g. "parse: 3, transform: 0, persist: 12".
+     */
+    public String getQueueDepths() {
+        if(parseStage==null) {
+            return "";
+        }
+        return parseStage.getName() + ": " + parseStage.getQueueDepth() + ", "
+                + transformStage.getName() + ": " + transformStage.getQueueDepth() + ", "
+                + persistStage.getName() + ": " + persistStage.getQueueDepth();
+    }
+
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        if(parseStage==null) {
+            return;
+        }
+        parseStage.shutdown(timeout, unit);
+        transformStage.shutdown(timeout, unit);
+        persistStage.shutdown(timeout, unit);
+        logStatistics();
+    }
+
+    public void logStatistics() {
+        if(parseStage==null) {
+            return;
+        }
+        long runtimeInMs = System.currentTimeMillis() - startTimestamp;
+        parseStage.logStatistics(runtimeInMs);
+        transformStage.logStatistics(runtimeInMs);
+        persistStage.logStatistics(runtimeInMs);
+    }
+
+    /**
+     * Sets the memory budget of the items in the pipeline.
+     *
+     * @param memoryBudget A memory budget or null
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        if(this==DIRECT) {
+            throw new UnsupportedOperationException("The direct pipeline has no memory budget.");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public PipelineStage getParseStage() {
+        return parseStage;
+    }
+
+    public PipelineStage getTransformStage() {
+        return transformStage;
+    }
+
+    public PipelineStage getPersistStage() {
+        return persistStage;
+    }
+
+}
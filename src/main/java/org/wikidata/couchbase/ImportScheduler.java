@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImportScheduler executes tasks in one long-lived thread pool
+ * and keeps a bounded number of tasks in flight.
+ * 
+ * {@link #execute(Runnable)} blocks until a slot in the window is free.
+ * A slot is freed as soon as a task is finished, so a slow task
+ * never stalls the other workers and the memory used by queued tasks
+ * does not depend on the number of tasks.
+ * 
+ * A scheduler created by {@link #createVirtual(int)} executes every
+ * task in a new virtual thread. The number of tasks in flight is limited
+ * by the window only, a task which blocks on I/O does not block a
+ * platform thread. Thousands of blocking requests can be in flight.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ImportScheduler {
+
+    /**
+     * Number of tasks in flight per thread. A value greater than 1
+     * makes sure that a worker finds the next task in the queue
+     * when it finished a task.
+     */
+    public static final int WINDOW_SIZE_PER_THREAD = 2;
+    
+    private ExecutorService executor;
+    private Semaphore window;
+    private int windowSize;
+    private MemoryBudget memoryBudget = null;
+    
+    public ImportScheduler(int numberOfThreads) {
+        this(numberOfThreads, numberOfThreads * WINDOW_SIZE_PER_THREAD);
+    }
+    
+    public ImportScheduler(int numberOfThreads, int windowSize) {
+        this(Executors.newFixedThreadPool(numberOfThreads), windowSize);
+    }
+    
+    protected ImportScheduler(ExecutorService executor, int windowSize) {
+        super();
+        this.windowSize = windowSize;
+        this.window = new Semaphore(windowSize);
+        this.executor = executor;
+    }
+    
+    /**
+     * Creates a scheduler which executes every task in a new virtual thread.
+     * 
+     * @param maxNumberOfTasks The max. number of tasks in flight
+     * @return A scheduler with virtual threads
+     */
+    public static ImportScheduler createVirtual(int maxNumberOfTasks) {
+        return new ImportScheduler(Executors.newVirtualThreadPerTaskExecutor(), maxNumberOfTasks);
+    }
+    
+    /**
+     * Executes a task in the thread pool. Blocks until
+     * a slot in the window is free.
+     * 
+     * @param task A task
+     * @throws InterruptedException
+     */
+    public void execute(final Runnable task) throws InterruptedException {
+        window.acquire();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        window.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            window.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * Executes a task which needs memory in the thread pool. Blocks until
+     * the memory of the memory budget and a slot in the window is free.
+     * The memory is released when the task is finished.
+     * 
+     * @param task A task
+     * @param bytes The memory of the task
+     * @throws InterruptedException
+     */
+    public void execute(final Runnable task, final long bytes) throws InterruptedException {
+        if(memoryBudget==null) {
+            execute(task);
+            return;
+        }
+        memoryBudget.acquire(bytes);
+        try {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        memoryBudget.release(bytes);
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            memoryBudget.release(bytes);
+            throw e;
+        } catch (RuntimeException e) {
+            memoryBudget.release(bytes);
+            throw e;
+        }
+    }
+    
+    /**
+     * Blocks until all tasks are finished.
+     * 
+     * @throws InterruptedException
+     */
+    public void awaitCompletion() throws InterruptedException {
+        window.acquire(windowSize);
+        window.release(windowSize);
+    }
+    
+    /**
+     * Returns the number of tasks which are queued or running.
+     */
+    public int getNumberOfTasksInFlight() {
+        return windowSize - window.availablePermits();
+    }
+    
+    /**
+     * Returns the executor of the scheduler. Tasks executed directly
+     * by the executor are not limited by the window.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Returns the memory budget of the tasks or null if there is no budget.
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+    
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(timeout, unit);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mongodb.DBCursor;
+
+/**
+ * Streams the items of a database cursor as JSON nodes.
+ * The cursor must be decoded by {@link JsonNodeDBDecoder}.
+ * Items are fetched in batches by the driver, only one
+ * batch is held in memory.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ItemCursor implements Iterator<JsonNode>, Closeable {
+
+    private DBCursor cursor;
+
+    /**
+     * @param cursor A database cursor or null for an empty cursor
+     */
+    public ItemCursor(DBCursor cursor) {
+        super();
+        this.cursor = cursor;
+        if(cursor!=null) {
+            cursor.setDecoderFactory(JsonNodeDBDecoder.FACTORY);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        return cursor!=null && cursor.hasNext();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#next()
+     */
+    @Override
+    public JsonNode next() {
+        if(cursor==null) {
+            throw new NoSuchElementException();
+        }
+        return ((JsonNodeDBObject) cursor.next()).getNode();
+    }
+
+    /* (non-Javadoc)
+     * @see java.util.Iterator#remove()
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("ItemCursor is read only.");
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        if(cursor!=null) {
+            cursor.close();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import com.mongodb.DBObject;
+
+/**
+ * The document of an item which is created by
+ * {@link IPersistHandler#createDocument(Integer, String)} and
+ * saved by {@link IPersistHandler#save(ItemDocument)}.
+ *
+ * A handler which saves the JSON text (Couchbase) does not create
+ * a DBObject, a handler which saves DBObjects (MongoDB) creates
+ * the DBObject before the document is saved.
+ *
+ * If a {@link IWriteCallback} is set the handler reports the result
+ * of the write to the callback, see {@link #written()} and
+ * {@link #writeFailed(Exception)}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ItemDocument {
+
+    private Integer id;
+    private String json;
+    private DBObject dbObject;
+    private long hash = 0;
+    private IWriteCallback callback = null;
+
+    public ItemDocument(Integer id, String json, DBObject dbObject) {
+        super();
+        this.id = id;
+        this.json = json;
+        this.dbObject = dbObject;
+    }
+
+    /**
+     * @param id The id of the item
+     * @param json The JSON text of the item
+     * @param dbObject The DBObject of the item or null
+     * @param hash The content hash of the JSON text, see {@link ContentHashIndex#hash(String)}
+     */
+    public ItemDocument(Integer id, String json, DBObject dbObject, long hash) {
+        this(id, json, dbObject);
+        this.hash = hash;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * Returns the DBObject of the item or null
+     * if the JSON text is saved.
+     */
+    public DBObject getDbObject() {
+        return dbObject;
+    }
+
+    /**
+     * Called by a persist handler when the document is written.
+     */
+    public void written() {
+        if(callback!=null) {
+            callback.written(id);
+        }
+    }
+
+    /**
+     * Called by a persist handler when the document can not be written.
+     *
+     * @param e The cause of the error
+     */
+    public void writeFailed(Exception e) {
+        if(callback!=null) {
+            callback.writeFailed(id, e);
+        }
+    }
+
+    /**
+     * Returns the content hash of the document or 0 if
+     * the hash is not calculated.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    public IWriteCallback getCallback() {
+        return callback;
+    }
+
+    public void setCallback(IWriteCallback callback) {
+        this.callback = callback;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.UniformInterfaceException;
+import com.sun.jersey.api.client.WebResource;
+
+/**
+ * Fetch engine which loads documents with a blocking Jersey client.
+ * The callback is called in the thread which calls {@link #fetch(String, IFetchCallback)}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class JerseyFetchEngine implements IFetchEngine {
+
+    private static final String RETRY_AFTER = "Retry-After";
+    
+    private Client jerseyClient;
+    
+    public JerseyFetchEngine() {
+        super();
+        jerseyClient = Client.create();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#fetch(java.lang.String, org.wikidata.couchbase.IFetchCallback)
+     */
+    @Override
+    public void fetch(String url, IFetchCallback callback) {
+        String json = null;
+        try {
+            WebResource webResource = jerseyClient.resource(url);
+            json = webResource.get(String.class);
+        } catch (UniformInterfaceException uie) {
+            ClientResponse response = uie.getResponse();
+            if(response==null) {
+                callback.failed(-1, uie);
+                return;
+            }
+            int status = response.getStatus();
+            callback.failed(status, new HttpStatusException(uie.getMessage(), status, response.getHeaders().getFirst(RETRY_AFTER), uie));
+            return;
+        } catch (ClientHandlerException che) {
+            callback.failed(-1, che);
+            return;
+        }
+        callback.completed(json);
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#isAsync()
+     */
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#awaitCompletion()
+     */
+    @Override
+    public void awaitCompletion() {
+        // requests are finished when fetch returns
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        jerseyClient.destroy();
+    }
+
+}
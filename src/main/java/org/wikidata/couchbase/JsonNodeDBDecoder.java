@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.LinkedList;
+import java.util.UUID;
+
+import org.bson.BSONCallback;
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DefaultDBDecoder;
+
+/**
+ * A decoder which turns the BSON documents of a cursor directly into
+ * Jackson trees. The documents are returned as {@link JsonNodeDBObject}s.
+ *
+ * Use this decoder to pass stored items to an {@link IITemProcessor}
+ * without creating a DBObject and a JSON string for every document:
+ *
+ *   cursor.setDecoderFactory(JsonNodeDBDecoder.FACTORY);
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class JsonNodeDBDecoder extends DefaultDBDecoder {
+
+    public static final DBDecoderFactory FACTORY = new DBDecoderFactory() {
+        @Override
+        public DBDecoder create() {
+            return new JsonNodeDBDecoder();
+        }
+    };
+
+    /* (non-Javadoc)
+     * @see com.mongodb.DefaultDBDecoder#getDBCallback(com.mongodb.DBCollection)
+     */
+    @Override
+    public DBCallback getDBCallback(DBCollection collection) {
+        return new JsonNodeCallback();
+    }
+
+    /**
+     * Builds a Jackson tree from the events of the BSON decoder.
+     * Types without a JSON counterpart are converted to strings or numbers.
+     */
+    static class JsonNodeCallback implements DBCallback {
+
+        private static final JsonNodeFactory FACTORY = JsonNodeFactory.instance;
+
+        private LinkedList<ContainerNode<?>> stack = new LinkedList<ContainerNode<?>>();
+        private ContainerNode<?> root;
+
+        @Override
+        public void objectStart() {
+            objectStart(false);
+        }
+
+        @Override
+        public void objectStart(boolean array) {
+            root = array ? FACTORY.arrayNode() : FACTORY.objectNode();
+            stack.clear();
+            stack.push(root);
+        }
+
+        @Override
+        public void objectStart(String name) {
+            ContainerNode<?> parent = stack.peek();
+            ObjectNode node = (parent instanceof ObjectNode) ? ((ObjectNode) parent).putObject(name) : ((ArrayNode) parent).addObject();
+            stack.push(node);
+        }
+
+        @Override
+        public void arrayStart() {
+            objectStart(true);
+        }
+
+        @Override
+        public void arrayStart(String name) {
+            ContainerNode<?> parent = stack.peek();
+            ArrayNode node = (parent instanceof ObjectNode) ? ((ObjectNode) parent).putArray(name) : ((ArrayNode) parent).addArray();
+            stack.push(node);
+        }
+
+        @Override
+        public Object objectDone() {
+            return stack.pop();
+        }
+
+        @Override
+        public Object arrayDone() {
+            return stack.pop();
+        }
+
+        @Override
+        public void reset() {
+            root = null;
+            stack.clear();
+        }
+
+        @Override
+        public Object get() {
+            if(root instanceof ObjectNode) {
+                return new JsonNodeDBObject((ObjectNode) root);
+            }
+            return root;
+        }
+
+        @Override
+        public BSONCallback createBSONCallback() {
+            return new JsonNodeCallback();
+        }
+
+        private void add(String name, ValueNode value) {
+            ContainerNode<?> parent = stack.peek();
+            if(parent instanceof ObjectNode) {
+                ((ObjectNode) parent).set(name, value);
+            } else {
+                ((ArrayNode) parent).add(value);
+            }
+        }
+
+        @Override
+        public void gotNull(String name) {
+            add(name, FACTORY.nullNode());
+        }
+
+        @Override
+        public void gotUndefined(String name) {
+            add(name, FACTORY.nullNode());
+        }
+
+        @Override
+        public void gotMinKey(String name) {
+            add(name, FACTORY.nullNode());
+        }
+
+        @Override
+        public void gotMaxKey(String name) {
+            add(name, FACTORY.nullNode());
+        }
+
+        @Override
+        public void gotBoolean(String name, boolean value) {
+            add(name, FACTORY.booleanNode(value));
+        }
+
+        @Override
+        public void gotDouble(String name, double value) {
+            add(name, FACTORY.numberNode(value));
+        }
+
+        @Override
+        public void gotInt(String name, int value) {
+            add(name, FACTORY.numberNode(value));
+        }
+
+        @Override
+        public void gotLong(String name, long value) {
+            add(name, FACTORY.numberNode(value));
+        }
+
+        @Override
+        public void gotDate(String name, long millis) {
+            add(name, FACTORY.numberNode(millis));
+        }
+
+        @Override
+        public void gotString(String name, String value) {
+            add(name, FACTORY.textNode(value));
+        }
+
+        @Override
+        public void gotSymbol(String name, String value) {
+            add(name, FACTORY.textNode(value));
+        }
+
+        @Override
+        public void gotRegex(String name, String pattern, String flags) {
+            add(name, FACTORY.textNode(pattern));
+        }
+
+        @Override
+        public void gotTimestamp(String name, int time, int increment) {
+            add(name, FACTORY.numberNode(((long) time << 32) | (increment & 0xFFFFFFFFL)));
+        }
+
+        @Override
+        public void gotObjectId(String name, ObjectId id) {
+            add(name, FACTORY.textNode(id.toString()));
+        }
+
+        @Override
+        public void gotDBRef(String name, String ns, ObjectId id) {
+            add(name, FACTORY.textNode(ns + "/" + id));
+        }
+
+        // required by BSONCallback, the decoder of the driver calls gotBinary for all binary subtypes
+        @SuppressWarnings("deprecation")
+        @Override
+        public void gotBinaryArray(String name, byte[] data) {
+            add(name, FACTORY.binaryNode(data));
+        }
+
+        @Override
+        public void gotBinary(String name, byte type, byte[] data) {
+            add(name, FACTORY.binaryNode(data));
+        }
+
+        @Override
+        public void gotUUID(String name, long part1, long part2) {
+            add(name, FACTORY.textNode(new UUID(part1, part2).toString()));
+        }
+
+        @Override
+        public void gotCode(String name, String code) {
+            add(name, FACTORY.textNode(code));
+        }
+
+        @Override
+        public void gotCodeWScope(String name, String code, Object scope) {
+            add(name, FACTORY.textNode(code));
+        }
+    }
+}
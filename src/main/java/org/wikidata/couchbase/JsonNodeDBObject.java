@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BSONObject;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mongodb.DBObject;
+
+/**
+ * A read only DBObject view of a Jackson tree which is created
+ * by {@link JsonNodeDBDecoder}. Scalar fields are returned as Java
+ * values, objects and arrays as {@link JsonNode}s.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class JsonNodeDBObject implements DBObject {
+
+    private ObjectNode node;
+
+    private boolean partialObject = false;
+
+    public JsonNodeDBObject(ObjectNode node) {
+        super();
+        this.node = node;
+    }
+
+    public ObjectNode getNode() {
+        return node;
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#get(java.lang.String)
+     */
+    @Override
+    public Object get(String key) {
+        JsonNode value = node.get(key);
+        if(value==null || value.isNull()) {
+            return null;
+        }
+        if(value.isTextual()) {
+            return value.textValue();
+        }
+        if(value.isNumber()) {
+            return value.numberValue();
+        }
+        if(value.isBoolean()) {
+            return value.booleanValue();
+        }
+        return value;
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#containsField(java.lang.String)
+     */
+    @Override
+    public boolean containsField(String key) {
+        return node.has(key);
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#containsKey(java.lang.String)
+     */
+    @Override
+    @Deprecated
+    public boolean containsKey(String key) {
+        return containsField(key);
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#keySet()
+     */
+    @Override
+    public Set<String> keySet() {
+        Set<String> keySet = new LinkedHashSet<String>();
+        Iterator<String> fieldNames = node.fieldNames();
+        while(fieldNames.hasNext()) {
+            keySet.add(fieldNames.next());
+        }
+        return keySet;
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#toMap()
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Map toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (String key : keySet()) {
+            map.put(key, get(key));
+        }
+        return map;
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#put(java.lang.String, java.lang.Object)
+     */
+    @Override
+    public Object put(String key, Object value) {
+        throw new UnsupportedOperationException("JsonNodeDBObject is read only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#putAll(org.bson.BSONObject)
+     */
+    @Override
+    public void putAll(BSONObject object) {
+        throw new UnsupportedOperationException("JsonNodeDBObject is read only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#putAll(java.util.Map)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void putAll(Map map) {
+        throw new UnsupportedOperationException("JsonNodeDBObject is read only.");
+    }
+
+    /* (non-Javadoc)
+     * @see org.bson.BSONObject#removeField(java.lang.String)
+     */
+    @Override
+    public Object removeField(String key) {
+        throw new UnsupportedOperationException("JsonNodeDBObject is read only.");
+    }
+
+    /* (non-Javadoc)
+     * @see com.mongodb.DBObject#markAsPartialObject()
+     */
+    @Override
+    public void markAsPartialObject() {
+        partialObject = true;
+    }
+
+    /* (non-Javadoc)
+     * @see com.mongodb.DBObject#isPartialObject()
+     */
+    @Override
+    public boolean isPartialObject() {
+        return partialObject;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return node.toString();
+    }
+
+}
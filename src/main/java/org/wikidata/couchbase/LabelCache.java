@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread-safe LRU cache which maps document keys of items
+ * to a subset of their labels. One cache is shared by all
+ * {@link ClaimProcessor}s of an iterator run.
+ * 
+ * Items which are not in the database are cached with {@link #MISSING_ITEM}
+ * and are not queried again.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class LabelCache {
+
+    /**
+     * Labels of an item which is not in the database, compared by identity.
+     */
+    public static final List<Object> MISSING_ITEM = Collections.unmodifiableList(new ArrayList<Object>(0));
+
+    private int maxSize;
+
+    private Map<String, List<Object>> map;
+
+    private AtomicLong numberOfHits = new AtomicLong();
+    private AtomicLong numberOfMisses = new AtomicLong();
+    private AtomicLong numberOfEvictions = new AtomicLong();
+
+    public LabelCache(int maxSize) {
+        super();
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<String, List<Object>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Object>> eldest) {
+                boolean remove = size() > LabelCache.this.maxSize;
+                if(remove) {
+                    numberOfEvictions.incrementAndGet();
+                }
+                return remove;
+            }
+        };
+    }
+
+    /**
+     * @param key The document key of an item
+     * @return The labels of the item or null if the item is not cached
+     */
+    public List<Object> get(String key) {
+        List<Object> labels;
+        synchronized (map) {
+            labels = map.get(key);
+        }
+        if(labels!=null) {
+            numberOfHits.incrementAndGet();
+        } else {
+            numberOfMisses.incrementAndGet();
+        }
+        return labels;
+    }
+
+    public void put(String key, List<Object> labels) {
+        synchronized (map) {
+            map.put(key, labels);
+        }
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getNumberOfHits() {
+        return numberOfHits.get();
+    }
+
+    public long getNumberOfMisses() {
+        return numberOfMisses.get();
+    }
+
+    public long getNumberOfEvictions() {
+        return numberOfEvictions.get();
+    }
+
+    /**
+     * @return Percentage of lookups which were answered by the cache
+     */
+    public double getHitRate() {
+        long hits = getNumberOfHits();
+        long lookups = hits + getNumberOfMisses();
+        return (lookups>0) ? (hits * 100.0) / lookups : 0;
+    }
+
+}
@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * MappedDumpReader reads an uncompressed Wikidata JSON dump file
+ * (one entity per line) with multiple threads.
+ * 
+ * The file is split into line-aligned ranges which are read on a 
+ * fork-join pool. Every range is mapped into memory in windows of 
+ * {@link #WINDOW_SIZE} bytes with {@link FileChannel#map}. Lines are 
+ * passed as slices of the mapped window to a {@link DumpLineHandler}.
+ * The id of an entity is parsed from the window, only the lines of
+ * imported items are copied, see {@link DumpLineHandler}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class MappedDumpReader {
+
+    private static final Logger LOG = Logger.getLogger(MappedDumpReader.class);
+    
+    public static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    
+    /**
+     * Number of ranges per thread, more ranges than threads
+     * balance the load of the threads.
+     */
+    private static final int RANGES_PER_THREAD = 4;
+    
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+    
+    private Configuration conf;
+    private PersistService persistService;
+    private ImportScheduler scheduler;
+    private DumpStatistics statistics;
+    
+    public MappedDumpReader(Configuration conf, PersistService persistService, ImportScheduler scheduler) {
+        super();
+        this.conf = conf;
+        this.persistService = persistService;
+        this.scheduler = scheduler;
+    }
+    
+    public static boolean isSupported(String dumpFile) {
+        return !DumpStreamIndex.isSupported(dumpFile);
+    }
+    
+    /**
+     * Reads the dump file and saves all items in the database.
+     * 
+     * @param dumpFile Path to an uncompressed dump file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void read(String dumpFile) throws IOException, InterruptedException {
+        LOG.info("Reading dump file with " + conf.getParallelism() + " threads: " + dumpFile + "...");
+        statistics = new DumpStatistics(new File(dumpFile).length());
+        RandomAccessFile file = new RandomAccessFile(dumpFile, "r");
+        ForkJoinPool pool = new ForkJoinPool(conf.getParallelism());
+        try {
+            FileChannel channel = file.getChannel();
+            List<long[]> ranges = createRanges(channel, conf.getParallelism() * RANGES_PER_THREAD);
+            LOG.info("Number of ranges: " + ranges.size());
+            pool.invoke(new RangeTask(channel, ranges, 0, ranges.size()));
+        } catch (RuntimeException e) {
+            if(e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+            file.close();
+        }
+        scheduler.awaitCompletion();
+        statistics.log(LOG, conf.getParallelism());
+    }
+
+    /**
+     * Splits the file into ranges of nearly the same size. Every range 
+     * starts at the beginning of a line.
+     * 
+     * @return A list of ranges, start (inclusive) and end (exclusive) offset of every range
+     */
+    private static List<long[]> createRanges(FileChannel channel, int numberOfRanges) throws IOException {
+        long size = channel.size();
+        List<long[]> ranges = new ArrayList<long[]>(numberOfRanges);
+        long start = 0;
+        for (int i = 1; i <= numberOfRanges && start < size; i++) {
+            long end = (i == numberOfRanges) ? size : findLineStart(channel, size * i / numberOfRanges);
+            if(end > start) {
+                ranges.add(new long[]{start, end});
+                start = end;
+            }
+        }
+        return ranges;
+    }
+    
+    /**
+     * Returns the position after the next line break at or after position.
+     */
+    private static long findLineStart(FileChannel channel, long position) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        while(position < size) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if(n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if(buffer.get(i)=='\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+    
+    /**
+     * Reads a list of ranges. The list is split until a task reads one range.
+     */
+    class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 4620187325009735311L;
+        
+        private transient FileChannel channel;
+        private transient List<long[]> ranges;
+        private int from;
+        private int to;
+        
+        RangeTask(FileChannel channel, List<long[]> ranges, int from, int to) {
+            super();
+            this.channel = channel;
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if(to - from == 1) {
+                readRange(ranges.get(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(channel, ranges, from, middle), new RangeTask(channel, ranges, middle, to));
+        }
+        
+        private void readRange(long[] range) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Reading range " + range[0] + " - " + range[1] + "...");
+            }
+            try {
+                readLines(range[0], range[1]);
+            } catch (IOException e) {
+                throw new RuntimeException("Error while reading range " + range[0] + " - " + range[1], e);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        private void readLines(long start, long end) throws IOException, InterruptedException {
+            DumpLineHandler handler = new DumpLineHandler(conf, persistService, scheduler, statistics);
+            long windowSize = WINDOW_SIZE;
+            long position = start;
+            while(position < end) {
+                long size = Math.min(windowSize, end - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                int lineStart = 0;
+                int limit = (int) size;
+                for (int i = 0; i < limit; i++) {
+                    if(window.get(i)=='\n') {
+                        handler.handleLine(window, lineStart, i - lineStart);
+                        lineStart = i + 1;
+                    }
+                }
+                if(position + size == end && lineStart < limit) {
+                    // last line without line break
+                    handler.handleLine(window, lineStart, limit - lineStart);
+                    lineStart = limit;
+                }
+                if(lineStart == 0 && size < end - position) {
+                    // Line is longer than the window
+                    if(windowSize * 2 > Integer.MAX_VALUE) {
+                        throw new IOException("Line at position " + position + " is too long.");
+                    }
+                    windowSize *= 2;
+                }
+                position += lineStart;
+            }
+            handler.flush();
+        }
+    }
+    
+    public long getNumberOfItems() {
+        return (statistics!=null) ? statistics.getNumberOfItems() : 0;
+    }
+
+}
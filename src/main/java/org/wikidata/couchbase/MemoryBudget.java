@@ -0,0 +1,300 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * MemoryBudget limits the memory of the items which are
+ * imported at the same time.
+ *
+ * Before an item is loaded or parsed the memory of the item is acquired,
+ * it is released when the item is passed to the database. Loaded items
+ * which are passed to other threads hold their memory until they are
+ * saved, see {@link ImportPipeline}. Writers
+ * which keep documents after they are passed reserve the memory of the
+ * documents until they are written. Producers are blocked while the
+ * budget is used up. An item which is larger than the budget is admitted
+ * if no other item is in the budget, so every item can be imported.
+ *
+ * Items which need more than 1/{@link #OVERSIZED_FRACTION} of the
+ * budget are imported one by one in a single-slot lane. While an
+ * oversized item waits for the lane or is in the lane only its JSON
+ * text counts in the budget, a few very large items can neither block
+ * all other items nor exhaust the heap.
+ *
+ * The size of the next item is estimated by the size of the last items.
+ * The first estimate is the max. size of an item which is not oversized,
+ * an import starts with a few requests until the size is known.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class MemoryBudget {
+
+    private static final Logger LOG = Logger.getLogger(MemoryBudget.class);
+
+    public static final int OVERSIZED_FRACTION = 8;
+
+    // Heap bytes per character of a JSON String
+    public static final int STRING_BYTES_PER_CHAR = 2;
+
+    // Heap bytes per character of the JSON text of a DBObject
+    public static final int DOCUMENT_BYTES_PER_CHAR = 7;
+
+    /**
+     * Heap bytes per character of an item which is imported. Measured with
+     * a JSON String (2), a JsonNode tree (8), a DBObject (7) and a
+     * String of the re-serialized entity (2) of the same item.
+     */
+    public static final int BYTES_PER_CHAR = 20;
+
+    // The estimate follows larger items faster than smaller items
+    private static final double ESTIMATE_INCREASE_WEIGHT = 0.25;
+    private static final double ESTIMATE_DECREASE_WEIGHT = 0.05;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition budgetAvailable = lock.newCondition();
+
+    private Semaphore oversizedLane = new Semaphore(1);
+
+    private long maxBytes;
+    private long oversizedBytes;
+    private long usedBytes = 0;
+    private double estimate;
+
+    private long maxUsedBytes = 0;
+    private long numberOfBlockedProducers = 0;
+    private long blockedTimeInMs = 0;
+    private long numberOfOversizedItems = 0;
+
+    /**
+     * @param maxBytes The max. memory of all items in bytes
+     */
+    public MemoryBudget(long maxBytes) {
+        super();
+        this.maxBytes = maxBytes;
+        this.oversizedBytes = maxBytes / OVERSIZED_FRACTION;
+        this.estimate = oversizedBytes;
+    }
+
+    /**
+     * Returns the memory of an item with a JSON document.
+     *
+     * @param json The JSON text of the item
+     * @return The estimated memory in bytes
+     */
+    public static long getSize(String json) {
+        return getSize(json.length());
+    }
+
+    /**
+     * Returns the memory of an item with a JSON document
+     * which is not read yet, e.g. an entity in a dump.
+     *
+     * @param length The length of the JSON text in characters or bytes
+     * @return The estimated memory in bytes
+     */
+    public static long getSize(long length) {
+        return length * BYTES_PER_CHAR;
+    }
+
+    /**
+     * Blocks until the memory of an item is available. An oversized
+     * item blocks until the oversized lane is free.
+     *
+     * @param bytes The memory of the item
+     * @throws InterruptedException
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        if(!isOversized(bytes)) {
+            acquireBudget(bytes);
+            return;
+        }
+        acquireBudget(getTextSize(bytes));
+        acquireOversizedLane(bytes);
+    }
+
+    /**
+     * Returns the memory of the JSON String of an item.
+     */
+    private static long getTextSize(long bytes) {
+        return bytes / BYTES_PER_CHAR * STRING_BYTES_PER_CHAR;
+    }
+
+    private void acquireBudget(long bytes) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if(!isAvailable(bytes)) {
+                numberOfBlockedProducers++;
+                long startTimestamp = System.currentTimeMillis();
+                while(!isAvailable(bytes)) {
+                    budgetAvailable.await();
+                }
+                blockedTimeInMs += System.currentTimeMillis() - startTimestamp;
+            }
+            add(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquireOversizedLane(long bytes) throws InterruptedException {
+        try {
+            oversizedLane.acquire();
+        } catch (InterruptedException e) {
+            reserve(-getTextSize(bytes));
+            throw e;
+        }
+        lock.lock();
+        try {
+            numberOfOversizedItems++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isAvailable(long bytes) {
+        return usedBytes==0 || usedBytes + bytes <= maxBytes;
+    }
+
+    /**
+     * Holds the memory of an item which is loaded already. The memory
+     * is added without waiting, a waiting caller could block the threads
+     * which release memory. Producers are blocked until the budget is
+     * available again.
+     *
+     * If the item is oversized the caller waits for the oversized lane.
+     * If the caller is interrupted the memory is released.
+     *
+     * @param bytes The memory of the item
+     * @throws InterruptedException
+     */
+    public void hold(long bytes) throws InterruptedException {
+        if(!isOversized(bytes)) {
+            reserve(bytes);
+            return;
+        }
+        reserve(getTextSize(bytes));
+        acquireOversizedLane(bytes);
+    }
+
+    /**
+     * Adds the size of a loaded item to the estimate
+     * of the next items, see {@link #getEstimate()}.
+     *
+     * @param bytes The memory of an item
+     */
+    public void updateEstimate(long bytes) {
+        lock.lock();
+        try {
+            double weight = (bytes > estimate) ? ESTIMATE_INCREASE_WEIGHT : ESTIMATE_DECREASE_WEIGHT;
+            estimate += weight * (bytes - estimate);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves memory without waiting, e.g. for a document in the
+     * buffer of a writer. Producers are blocked until the budget is
+     * available again. A negative value releases reserved memory.
+     *
+     * @param bytes The memory of the document
+     */
+    public void reserve(long bytes) {
+        lock.lock();
+        try {
+            add(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(long bytes) {
+        usedBytes += bytes;
+        maxUsedBytes = Math.max(maxUsedBytes, usedBytes);
+        if(bytes < 0) {
+            budgetAvailable.signalAll();
+        }
+    }
+
+    /**
+     * Releases the memory of an item.
+     *
+     * @param bytes The memory which was acquired
+     */
+    public void release(long bytes) {
+        if(isOversized(bytes)) {
+            oversizedLane.release();
+            bytes = getTextSize(bytes);
+        }
+        reserve(-bytes);
+    }
+
+    public boolean isOversized(long bytes) {
+        return bytes > oversizedBytes;
+    }
+
+    /**
+     * Returns the estimated memory of an item which is not loaded yet,
+     * the average memory of the last items.
+     */
+    public long getEstimate() {
+        lock.lock();
+        try {
+            // an estimate is never oversized, it would block in the lane
+            return Math.min((long) estimate, oversizedBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void logStatistics() {
+        lock.lock();
+        try {
+            LOG.info("Memory budget: " + toMb(maxBytes) + " MB, max. used: " + toMb(maxUsedBytes) + " MB, oversized items: " + numberOfOversizedItems
+                    + ", blocked producers: " + numberOfBlockedProducers + ", blocked time: " + blockedTimeInMs + " ms");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+}
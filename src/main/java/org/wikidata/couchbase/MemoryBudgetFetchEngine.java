@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Fetch engine which limits the memory of the responses of another
+ * fetch engine by a {@link MemoryBudget}.
+ *
+ * The size of a response is not known before it is loaded. An estimate
+ * is acquired before the request is started, the caller is blocked
+ * if the budget is used up. The estimate is released when the callback
+ * returns. The callback holds the real size of the response until the
+ * item is saved, see {@link ImportPipeline#submit(IPipelineItem, long)}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class MemoryBudgetFetchEngine implements IFetchEngine {
+
+    private static final Logger LOG = Logger.getLogger(MemoryBudgetFetchEngine.class);
+
+    private IFetchEngine fetchEngine;
+    private MemoryBudget budget;
+
+    /**
+     * @param fetchEngine The engine which loads the documents
+     * @param budget The memory budget of all requests
+     */
+    public MemoryBudgetFetchEngine(IFetchEngine fetchEngine, MemoryBudget budget) {
+        super();
+        this.fetchEngine = fetchEngine;
+        this.budget = budget;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#fetch(java.lang.String, org.wikidata.couchbase.IFetchCallback)
+     */
+    @Override
+    public void fetch(String url, IFetchCallback callback) throws InterruptedException {
+        long estimate = budget.getEstimate();
+        budget.acquire(estimate);
+        try {
+            fetchEngine.fetch(url, new Request(callback, estimate));
+        } catch (InterruptedException e) {
+            budget.release(estimate);
+            throw e;
+        } catch (RuntimeException e) {
+            budget.release(estimate);
+            throw e;
+        }
+    }
+
+    /**
+     * The callback of a request which holds the estimate
+     * of the request until the response is passed on.
+     */
+    class Request implements IFetchCallback {
+
+        private IFetchCallback callback;
+        private long estimate;
+
+        Request(IFetchCallback callback, long estimate) {
+            super();
+            this.callback = callback;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public void completed(String json) {
+            long size = MemoryBudget.getSize(json);
+            budget.updateEstimate(size);
+            if (LOG.isDebugEnabled() && budget.isOversized(size)) {
+                LOG.debug("Oversized response: " + json.length() + " chars");
+            }
+            try {
+                callback.completed(json);
+            } finally {
+                budget.release(estimate);
+            }
+        }
+
+        @Override
+        public void failed(int status, Exception e) {
+            budget.release(estimate);
+            callback.failed(status, e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#isAsync()
+     */
+    @Override
+    public boolean isAsync() {
+        return fetchEngine.isAsync();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#awaitCompletion()
+     */
+    @Override
+    public void awaitCompletion() throws InterruptedException {
+        fetchEngine.awaitCompletion();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchEngine#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        fetchEngine.shutdown();
+    }
+
+    public MemoryBudget getBudget() {
+        return budget;
+    }
+
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * MongoBulkWriter collects documents from all threads and writes
+ * them with unordered bulk upserts.
+ * 
+ * The buffer is written if it contains {@link #getMaxNumberOfDocuments()} 
+ * documents, if the estimated size of the documents exceeds {@link #MAX_BYTES}
+ * or if the oldest document is older than {@link #MAX_LATENCY_IN_MS}.
+ * Every document is upserted by its _id, existing documents are 
+ * replaced without a second request. The result of every document is
+ * reported to the callback of the document, see {@link ItemDocument#written()}.
+ * The content hash of a document is saved in the index after the document
+ * is written, documents which can not be written are logged.
+ * 
+ * Bulk write operations - http://docs.mongodb.org/manual/core/bulk-write-operations/
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class MongoBulkWriter {
+
+    private static final Logger LOG = Logger.getLogger(MongoBulkWriter.class);
+    
+    public static final int MAX_BYTES = 8 * 1024 * 1024;
+    public static final long MAX_LATENCY_IN_MS = 1000;
+    
+    private DBCollection collection;
+    private int maxNumberOfDocuments;
+    
+    private List<ItemDocument> buffer;
+    private long bufferSize = 0;
+    private long bufferTimestamp = 0;
+    private final Object lock = new Object();
+    
+    private ScheduledExecutorService timer;
+    
+    private ContentHashIndex contentHashes = null;
+    
+    private AtomicLong numberOfDocuments = new AtomicLong();
+    private AtomicLong numberOfRequests = new AtomicLong();
+    private AtomicLong numberOfErrors = new AtomicLong();
+    
+    public MongoBulkWriter(DBCollection collection, int maxNumberOfDocuments) {
+        super();
+        this.collection = collection;
+        this.maxNumberOfDocuments = maxNumberOfDocuments;
+        this.buffer = new ArrayList<ItemDocument>(maxNumberOfDocuments);
+        startTimer();
+    }
+
+    private void startTimer() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushIfExpired();
+            }
+        }, MAX_LATENCY_IN_MS, MAX_LATENCY_IN_MS / 2, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Adds a document to the buffer. The buffer is written in the
+     * calling thread if it is full.
+     * 
+     * @param document A document with an _id
+     * @param size Estimated size of the document in bytes
+     */
+    public void add(DBObject document, long size) {
+        add(new ItemDocument(MongoPersistHandler.getItemId(document), null, document), size);
+    }
+    
+    /**
+     * Adds the document of an item to the buffer. The buffer is written
+     * in the calling thread if it is full. The result of the write is
+     * reported to the callback of the document.
+     * 
+     * @param document The document of an item with a DBObject
+     * @param size Estimated size of the document in bytes
+     */
+    public void add(ItemDocument document, long size) {
+        List<ItemDocument> documents = null;
+        synchronized (lock) {
+            if(buffer.isEmpty()) {
+                bufferTimestamp = System.currentTimeMillis();
+            }
+            buffer.add(document);
+            bufferSize += size;
+            if(buffer.size() >= maxNumberOfDocuments || bufferSize >= MAX_BYTES) {
+                documents = swapBuffer();
+            }
+        }
+        write(documents);
+    }
+    
+    /**
+     * Writes all documents in the buffer.
+     */
+    public void flush() {
+        List<ItemDocument> documents;
+        synchronized (lock) {
+            documents = swapBuffer();
+        }
+        write(documents);
+    }
+    
+    private void flushIfExpired() {
+        List<ItemDocument> documents = null;
+        synchronized (lock) {
+            if(!buffer.isEmpty() && System.currentTimeMillis() - bufferTimestamp >= MAX_LATENCY_IN_MS) {
+                documents = swapBuffer();
+            }
+        }
+        try {
+            write(documents);
+        } catch (Exception e) {
+            LOG.error("Error while writing documents.", e);
+        }
+    }
+
+    private List<ItemDocument> swapBuffer() {
+        List<ItemDocument> documents = buffer;
+        buffer = new ArrayList<ItemDocument>(maxNumberOfDocuments);
+        bufferSize = 0;
+        return documents;
+    }
+
+    private void write(List<ItemDocument> documents) {
+        if(documents==null || documents.isEmpty()) {
+            return;
+        }
+        BulkWriteOperation operation = collection.initializeUnorderedBulkOperation();
+        for (ItemDocument document : documents) {
+            DBObject dbObject = document.getDbObject();
+            operation.find(new BasicDBObject("_id", dbObject.get("_id"))).upsert().replaceOne(dbObject);
+        }
+        numberOfRequests.incrementAndGet();
+        numberOfDocuments.addAndGet(documents.size());
+        try {
+            operation.execute();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(documents.size() + " documents written.");
+            }
+        } catch (BulkWriteException e) {
+            handleErrors(documents, e);
+            return;
+        } catch (RuntimeException e) {
+            numberOfErrors.addAndGet(documents.size());
+            LOG.error("Error while writing " + documents.size() + " documents, first: " + getId(documents.get(0))
+                    + ", last: " + getId(documents.get(documents.size() - 1)), e);
+            for (ItemDocument document : documents) {
+                failed(document, e);
+            }
+            return;
+        }
+        for (ItemDocument document : documents) {
+            written(document);
+        }
+    }
+
+    /**
+     * Documents with a write error failed, all other documents of an
+     * unordered bulk operation are written. If the write concern is not 
+     * satisfied no document is confirmed.
+     */
+    private void handleErrors(List<ItemDocument> documents, BulkWriteException e) {
+        boolean[] failed = new boolean[documents.size()];
+        for (BulkWriteError error : e.getWriteErrors()) {
+            ItemDocument document = documents.get(error.getIndex());
+            failed[error.getIndex()] = true;
+            numberOfErrors.incrementAndGet();
+            LOG.error("Document " + getId(document) + " was not saved: " + error.getMessage());
+            failed(document, new MongoException(error.getCode(), error.getMessage()));
+        }
+        if(e.getWriteConcernError()!=null) {
+            LOG.error("Write concern error: " + e.getWriteConcernError().getMessage());
+        }
+        for (int i = 0; i < failed.length; i++) {
+            if(failed[i]) {
+                continue;
+            }
+            if(e.getWriteConcernError()!=null) {
+                numberOfErrors.incrementAndGet();
+                failed(documents.get(i), e);
+            } else {
+                written(documents.get(i));
+            }
+        }
+    }
+    
+    private void written(ItemDocument document) {
+        if(contentHashes!=null && document.getId()!=null) {
+            contentHashes.put(document.getId(), document.getHash());
+        }
+        document.written();
+    }
+    
+    private void failed(ItemDocument document, Exception e) {
+        document.writeFailed(e);
+    }
+    
+    private static Object getId(ItemDocument document) {
+        return document.getDbObject().get("_id");
+    }
+    
+    /**
+     * Writes all documents in the buffer and stops the timer.
+     */
+    public void shutdown() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(MAX_LATENCY_IN_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        LOG.info("Documents written: " + getNumberOfDocuments() + ", requests: " + getNumberOfRequests() + ", errors: " + getNumberOfErrors());
+    }
+
+    public void setContentHashes(ContentHashIndex contentHashes) {
+        this.contentHashes = contentHashes;
+    }
+
+    public int getMaxNumberOfDocuments() {
+        return maxNumberOfDocuments;
+    }
+
+    public long getNumberOfDocuments() {
+        return numberOfDocuments.get();
+    }
+
+    public long getNumberOfRequests() {
+        return numberOfRequests.get();
+    }
+
+    public long getNumberOfErrors() {
+        return numberOfErrors.get();
+    }
+    
+}
@@ -21,24 +21,23 @@ package org.wikidata.couchbase;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.DuplicateKeyException;
 import com.mongodb.MongoClient;
-import com.mongodb.MongoException;
 import com.mongodb.ServerAddress;
-import com.mongodb.util.JSON;
 
 /**
  *
@@ -52,11 +51,32 @@ public class MongoPersistHandler implements IPersistHandler {
     public static final String ITEM_COLLECTION_NAME = "item";
     public static final String CLAIM_COLLECTION_NAME = "claim";
     
+    // Numeric item id, used for range queries
+    public static final String ITEM_ID_FIELD_NAME = "itemId";
+    
+    // Revision and modification time of an item, used by the incremental import
+    public static final String LAST_REVISION_ID_FIELD_NAME = "lastrevid";
+    public static final String MODIFIED_FIELD_NAME = "modified";
+    
+    // Hash of the JSON text of an item, see ContentHashIndex
+    public static final String CONTENT_HASH_FIELD_NAME = "contenthash";
+    
+    // Number of items which are fetched with one request of a scan
+    private static final int SCAN_BATCH_SIZE = 100;
+    
+    // Estimated size of documents which are not created from JSON text
+    private static final int DOCUMENT_SIZE_DEFAULT = 1024;
+    
     private Configuration conf;
     
     private MongoClient mongoClient = null;
     private DB db = null;
     private DBCollection collection = null;
+    private MongoBulkWriter bulkWriter = null;
+    
+    // Bulk writers of the other collections by collection name, e.g. claims
+    private Map<String, MongoBulkWriter> collectionWriters = new ConcurrentHashMap<String, MongoBulkWriter>();
+    private ContentHashIndex contentHashes = null;
     
     
     public MongoPersistHandler(Configuration conf) {
@@ -64,8 +84,20 @@ public class MongoPersistHandler implements IPersistHandler {
         this.conf = conf;
         try {
             createMongoClient();
+            getCollection().createIndex(new BasicDBObject(ITEM_ID_FIELD_NAME, 1));
+            getCollection().createIndex(new BasicDBObject(LAST_REVISION_ID_FIELD_NAME, 1));
+            getCollection().createIndex(new BasicDBObject(MODIFIED_FIELD_NAME, 1));
+            if(conf.getContentHashFile()!=null) {
+                contentHashes = new ContentHashIndex(conf.getContentHashFile());
+            }
+            if(conf.getWriteBatchSize() > 1) {
+                bulkWriter = new MongoBulkWriter(getCollection(), conf.getWriteBatchSize());
+                bulkWriter.setContentHashes(contentHashes);
+            }
         } catch (UnknownHostException e) {
             LOG.error("Unknown host. Can not create MongoDB client.", e);
+        } catch (IOException e) {
+            LOG.error("Error while loading content hashes: " + conf.getContentHashFile(), e);
         }
     }
     
@@ -83,17 +115,57 @@ public class MongoPersistHandler implements IPersistHandler {
      */
     @Override
     public void save(Integer id, String jsonString) {
-        DBObject dbObject = null;
+        ItemDocument document = createDocument(id, jsonString);
+        if(document!=null) {
+            save(document);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#createDocument(java.lang.Integer, java.lang.String)
+     */
+    @Override
+    public ItemDocument createDocument(Integer id, String jsonString) {
+        byte[] utf8 = ContentHashIndex.encode(jsonString);
+        long hash = ContentHashIndex.hashEncoded(utf8);
+        if(contentHashes!=null && contentHashes.isUnchanged(id, hash, utf8.length)) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Item " + id + " is unchanged and not saved");
+            }
+            return null;
+        }
         try {
-            dbObject = new BasicDBObject();                  
-            JsonNode node = createJsonNode(jsonString);         
-            JsonNode transformedNode = transformNode(node);        
-            String jsonText = transformedNode.toString();          
-            dbObject.put("item", JSON.parse(jsonText));          
+            DBObject dbObject = new BasicDBObject();   
+            DBObject entity = DBObjectParser.parseEntity(jsonString);
+            dbObject.put("item", entity);          
             String idString = buildDocumentKey(id);
             dbObject.put("_id", idString);
+            dbObject.put(ITEM_ID_FIELD_NAME, id);
+            dbObject.put(LAST_REVISION_ID_FIELD_NAME, entity.get(LAST_REVISION_ID_FIELD_NAME));
+            dbObject.put(MODIFIED_FIELD_NAME, entity.get(MODIFIED_FIELD_NAME));
+            dbObject.put(CONTENT_HASH_FIELD_NAME, hash);
+            return new ItemDocument(id, jsonString, dbObject, hash);
+        } catch (Exception e) {
+            LOG.error("Error while saving Object.", e);
+            throw new RuntimeException("Error while saving Object.", e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(org.wikidata.couchbase.ItemDocument)
+     */
+    @Override
+    public void save(ItemDocument document) {
+        Integer id = document.getId();
+        DBObject dbObject = document.getDbObject();
+        try {
+            if(bulkWriter!=null) {
+                // the bulk writer reports the result to the callback of the document
+                bulkWriter.add(document, document.getJson().length());
+                return;
+            }
             getCollection().insert(dbObject);
-        } catch (MongoException.DuplicateKey e) {
+        } catch (DuplicateKeyException e) {
             LOG.info("Item " + id + " exists and is updated");
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Stacktrace: ", e);
@@ -103,38 +175,78 @@ public class MongoPersistHandler implements IPersistHandler {
             LOG.error("Error while saving Object.", e);
             throw new RuntimeException("Error while saving Object.", e);
         }
+        if(contentHashes!=null) {
+            contentHashes.put(id, document.getHash());
+        }
+        document.written();
     }
     
     @Override
     public void save(DBObject dbObject) {    
+        save(getCollection(), bulkWriter, dbObject);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(java.lang.String, com.mongodb.DBObject)
+     */
+    @Override
+    public void save(String collectionName, DBObject dbObject) {
+        save(getDb().getCollection(collectionName), getBulkWriter(collectionName), dbObject);
+    }
+    
+    private void save(DBCollection collection, MongoBulkWriter writer, DBObject dbObject) {
         try {         
-            getCollection().insert(dbObject);
-        } catch (MongoException.DuplicateKey e) {
-            LOG.info("Item " + dbObject.get("_id") + " exists and is updated");
+            if(writer!=null) {
+                writer.add(dbObject, DOCUMENT_SIZE_DEFAULT);
+                return;
+            }
+            collection.insert(dbObject);
+        } catch (DuplicateKeyException e) {
+            LOG.info("Document " + dbObject.get("_id") + " exists and is updated");
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Stacktrace: ", e);
             }
-            getCollection().save(dbObject);
+            collection.save(dbObject);
         } catch (Exception e) {
             LOG.error("Error while saving Object.", e);
             throw new RuntimeException("Error while saving Object.", e);
         }
     }
     
-    @Override
-    public List<DBObject> load(int start, int limit) {
-        DBCursor cursor = getCollection().find();
-        cursor.skip(start);
-        cursor.limit(limit);
-        List<DBObject> result = new LinkedList<DBObject>();
-        try {
-           while(cursor.hasNext()) {
-               result.add(cursor.next());
-           }
-        } finally {
-           cursor.close();
+    /**
+     * Returns the bulk writer of a collection, the writer 
+     * is created with the first document of the collection.
+     * 
+     * @return The writer or null if documents are written one by one
+     */
+    private MongoBulkWriter getBulkWriter(String collectionName) {
+        if(conf.getWriteBatchSize() <= 1) {
+            return null;
         }
-        return result;
+        MongoBulkWriter writer = collectionWriters.get(collectionName);
+        if(writer==null) {
+            synchronized (collectionWriters) {
+                writer = collectionWriters.get(collectionName);
+                if(writer==null) {
+                    writer = new MongoBulkWriter(getDb().getCollection(collectionName), conf.getWriteBatchSize());
+                    collectionWriters.put(collectionName, writer);
+                }
+            }
+        }
+        return writer;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#scan(int, int, java.lang.String[])
+     */
+    @Override
+    public ItemCursor scan(int firstId, int stopId, String[] fields) {
+        BasicDBObject range = new BasicDBObject("$gte", firstId).append("$lt", stopId);
+        DBCursor cursor = find(new BasicDBObject(ITEM_ID_FIELD_NAME, range), fields);
+        cursor.sort(new BasicDBObject(ITEM_ID_FIELD_NAME, 1));
+        cursor.batchSize(SCAN_BATCH_SIZE);
+        // BSON is decoded to JSON nodes without creating DBObjects
+        return new ItemCursor(cursor);
     }
     
     /* (non-Javadoc)
@@ -144,18 +256,72 @@ public class MongoPersistHandler implements IPersistHandler {
     public long count() {
         return getCollection().getCount();
     }
-
-    private JsonNode transformNode(JsonNode node) {
-        Map.Entry<String, JsonNode> entry = node.iterator().next().fields().next();  
-        JsonNode transformedNode = entry.getValue();
-        return transformedNode;
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#count(java.lang.String)
+     */
+    @Override
+    public long count(String collectionName) {
+        return getDb().getCollection(collectionName).getCount();
     }
-
-    private JsonNode createJsonNode(String jsonString) throws IOException, JsonProcessingException {
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.readTree(jsonString);
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getMaxItemId()
+     */
+    @Override
+    public Integer getMaxItemId() {
+        DBCursor cursor = getCollection().find(new BasicDBObject(ITEM_ID_FIELD_NAME, new BasicDBObject("$exists", true)));
+        cursor.sort(new BasicDBObject(ITEM_ID_FIELD_NAME, -1));
+        cursor.limit(1);
+        try {
+            return cursor.hasNext() ? getItemId(cursor.next()) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getLastRevisionIds(java.util.Collection)
+     */
+    @Override
+    public Map<Integer, Long> getLastRevisionIds(Collection<Integer> ids) {
+        Map<Integer, Long> revisionIds = new HashMap<Integer, Long>();
+        BasicDBObject query = new BasicDBObject(ITEM_ID_FIELD_NAME, new BasicDBObject("$in", ids));
+        DBCursor cursor = find(query, new String[]{ITEM_ID_FIELD_NAME, LAST_REVISION_ID_FIELD_NAME});
+        try {
+            while(cursor.hasNext()) {
+                DBObject dbObject = cursor.next();
+                Object revisionId = dbObject.get(LAST_REVISION_ID_FIELD_NAME);
+                if(revisionId instanceof Number) {
+                    revisionIds.put(getItemId(dbObject), ((Number) revisionId).longValue());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return revisionIds;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getLastModified()
+     */
+    @Override
+    public String getLastModified() {
+        DBCursor cursor = find(new BasicDBObject(MODIFIED_FIELD_NAME, new BasicDBObject("$exists", true)), new String[]{MODIFIED_FIELD_NAME});
+        cursor.sort(new BasicDBObject(MODIFIED_FIELD_NAME, -1));
+        cursor.limit(1);
+        try {
+            return cursor.hasNext() ? (String) cursor.next().get(MODIFIED_FIELD_NAME) : null;
+        } finally {
+            cursor.close();
+        }
     }
     
+    public static Integer getItemId(DBObject dbObject) {
+        Object id = dbObject.get(ITEM_ID_FIELD_NAME);
+        return (id instanceof Number) ? ((Number) id).intValue() : null;
+    }
+
     public static String buildDocumentKey(Integer startId) {
         StringBuilder sb = new StringBuilder();
         sb.append("wikidata:item:");
@@ -163,11 +329,42 @@ public class MongoPersistHandler implements IPersistHandler {
         return sb.toString();
     }
 
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#setMemoryBudget(org.wikidata.couchbase.MemoryBudget)
+     */
+    @Override
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        // the buffer of the bulk writer is limited by MongoBulkWriter.MAX_BYTES
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#flush()
+     */
+    @Override
+    public void flush() {
+        if(bulkWriter!=null) {
+            bulkWriter.flush();
+        }
+        for (MongoBulkWriter writer : collectionWriters.values()) {
+            writer.flush();
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.wikidata.couchbase.IPersistHandler#shutdown()
      */
     @Override
     public void shutdown() {
+        if(bulkWriter!=null) {
+            bulkWriter.shutdown();
+        }
+        for (MongoBulkWriter writer : collectionWriters.values()) {
+            writer.shutdown();
+        }
+        if(contentHashes!=null) {
+            // after the writer, the hashes of the last written documents are saved
+            contentHashes.close();
+        }
         mongoClient.close();
     }
     
@@ -192,6 +389,25 @@ public class MongoPersistHandler implements IPersistHandler {
     public DBCursor find(BasicDBObject doc) {
         return getCollection().find(doc);
     }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#find(com.mongodb.BasicDBObject, java.lang.String[])
+     */
+    @Override
+    public DBCursor find(BasicDBObject doc, String[] fields) {
+        return getCollection().find(doc, createProjection(fields));
+    }
+    
+    private static BasicDBObject createProjection(String[] fields) {
+        if(fields==null) {
+            return null;
+        }
+        BasicDBObject projection = new BasicDBObject();
+        for (String field : fields) {
+            projection.put(field, 1);
+        }
+        return projection;
+    }
 
 
 
@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * ParallelDumpReader reads a compressed Wikidata JSON dump file
+ * with multiple threads.
+ * 
+ * The file is split into chunks of independently decodable streams, 
+ * see {@link DumpStreamIndex}. The chunks are decompressed and parsed
+ * on a fork-join pool. Lines which span two chunks are joined 
+ * and handled after all chunks are read.
+ * 
+ * Items are passed in batches to the worker threads of an 
+ * {@link ImportScheduler}, see {@link DumpLineHandler}.
+ * 
+ * Only dumps which consist of multiple streams are decompressed by
+ * multiple threads: multi-member gzip files (e.g. created by bgzip or by
+ * concatenating gzip files) and multi-stream bzip2 files (e.g. created
+ * by pbzip2). A single-stream gzip or bzip2 file can not be
+ * split, it is decompressed by one thread. The items of such a dump
+ * are still parsed and saved by the threads of the scheduler.
+ * 
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ParallelDumpReader {
+
+    private static final Logger LOG = Logger.getLogger(ParallelDumpReader.class);
+    
+    /**
+     * Minimal compressed size of a chunk
+     */
+    public static final long CHUNK_SIZE = 64L * 1024 * 1024;
+    
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+    
+    private Configuration conf;
+    private PersistService persistService;
+    private ImportScheduler scheduler;
+    private DumpStatistics statistics;
+    private long chunkSize = CHUNK_SIZE;
+    
+    public ParallelDumpReader(Configuration conf, PersistService persistService, ImportScheduler scheduler) {
+        super();
+        this.conf = conf;
+        this.persistService = persistService;
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Reads the dump file and saves all items in the database.
+     * 
+     * @param dumpFile Path to a .gz or .bz2 dump file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void read(String dumpFile) throws IOException, InterruptedException {
+        LOG.info("Reading dump file with " + conf.getParallelism() + " threads: " + dumpFile + "...");
+        long fileSize = new File(dumpFile).length();
+        List<long[]> chunks = createChunks(DumpStreamIndex.getStreamOffsets(dumpFile), fileSize, chunkSize);
+        if(chunks.size() < 2) {
+            LOG.warn("Dump file consists of only one stream, it is decompressed by one thread. Use a multi-member gzip or a multi-stream bzip2 file to decompress with multiple threads.");
+        }
+        LOG.info("Number of chunks: " + chunks.size());
+        statistics = new DumpStatistics(fileSize);
+        RandomAccessFile file = new RandomAccessFile(dumpFile, "r");
+        ForkJoinPool pool = new ForkJoinPool(conf.getParallelism());
+        try {
+            ChunkTask task = new ChunkTask(file.getChannel(), DumpStreamIndex.isGzip(dumpFile), chunks, 0, chunks.size());
+            List<ChunkResult> results = pool.invoke(task);
+            handleBoundaryLines(results);
+        } catch (RuntimeException e) {
+            if(e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            pool.shutdown();
+            file.close();
+        }
+        scheduler.awaitCompletion();
+        statistics.log(LOG, conf.getParallelism());
+    }
+    
+    /**
+     * Groups stream offsets to chunks of at least chunkSize bytes.
+     * 
+     * @return A list of chunks, start (inclusive) and end (exclusive) offset of every chunk
+     */
+    private static List<long[]> createChunks(List<Long> offsets, long fileSize, long chunkSize) {
+        List<long[]> chunks = new ArrayList<long[]>();
+        long start = 0;
+        for (Long offset : offsets) {
+            if(offset - start >= chunkSize) {
+                chunks.add(new long[]{start, offset});
+                start = offset;
+            }
+        }
+        chunks.add(new long[]{start, fileSize});
+        return chunks;
+    }
+
+    /**
+     * Joins the last line of every chunk with the first line
+     * of the following chunk and handles the joined lines.
+     */
+    private void handleBoundaryLines(List<ChunkResult> results) throws InterruptedException {
+        DumpLineHandler handler = createLineHandler();
+        byte[] pending = new byte[0];
+        for (ChunkResult result : results) {
+            pending = concat(pending, result.head);
+            if(result.hasLineBreak) {
+                handler.handleLine(pending, 0, pending.length);
+                pending = result.tail;
+            }
+        }
+        if(pending.length > 0) {
+            handler.handleLine(pending, 0, pending.length);
+        }
+        handler.flush();
+    }
+    
+    private DumpLineHandler createLineHandler() {
+        return new DumpLineHandler(conf, persistService, scheduler, statistics);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        if(a.length==0) {
+            return b;
+        }
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+    
+    /**
+     * Result of a chunk: the bytes before the first line break (head) 
+     * and after the last line break (tail) of the decompressed chunk.
+     */
+    static class ChunkResult {
+        byte[] head = new byte[0];
+        byte[] tail = new byte[0];
+        boolean hasLineBreak = false;
+    }
+    
+    /**
+     * Decompresses and parses a range of chunks. Ranges are split 
+     * until a task handles one chunk.
+     */
+    class ChunkTask extends RecursiveTask<List<ChunkResult>> {
+
+        private static final long serialVersionUID = -2446386373398208353L;
+        
+        private transient FileChannel channel;
+        private boolean gzip;
+        private transient List<long[]> chunks;
+        private int from;
+        private int to;
+        
+        ChunkTask(FileChannel channel, boolean gzip, List<long[]> chunks, int from, int to) {
+            super();
+            this.channel = channel;
+            this.gzip = gzip;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveTask#compute()
+         */
+        @Override
+        protected List<ChunkResult> compute() {
+            if(to - from == 1) {
+                List<ChunkResult> result = new ArrayList<ChunkResult>(1);
+                result.add(readChunk(chunks.get(from)));
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, gzip, chunks, from, middle);
+            ChunkTask right = new ChunkTask(channel, gzip, chunks, middle, to);
+            left.fork();
+            List<ChunkResult> result = new ArrayList<ChunkResult>(to - from);
+            List<ChunkResult> rightResult = right.compute();
+            result.addAll(left.join());
+            result.addAll(rightResult);
+            return result;
+        }
+        
+        private ChunkResult readChunk(long[] chunk) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Reading chunk " + chunk[0] + " - " + chunk[1] + "...");
+            }
+            try {
+                InputStream in = openChunk(chunk);
+                try {
+                    return readLines(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error while reading chunk " + chunk[0] + " - " + chunk[1], e);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private InputStream openChunk(long[] chunk) throws IOException {
+            InputStream in = new BufferedInputStream(new FileRangeInputStream(channel, chunk[0], chunk[1]), STREAM_BUFFER_SIZE);
+            if(gzip) {
+                return new GZIPInputStream(in, STREAM_BUFFER_SIZE);
+            }
+            return new BZip2CompressorInputStream(in, true);
+        }
+        
+        private ChunkResult readLines(InputStream in) throws IOException, InterruptedException {
+            ChunkResult result = new ChunkResult();
+            DumpLineHandler handler = createLineHandler();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length = 0;
+            int n;
+            while((n = in.read(buffer, length, buffer.length - length)) >= 0) {
+                int scanStart = length;
+                length += n;
+                int lineStart = 0;
+                for (int i = scanStart; i < length; i++) {
+                    if(buffer[i]=='\n') {
+                        if(!result.hasLineBreak) {
+                            result.head = Arrays.copyOfRange(buffer, lineStart, i);
+                            result.hasLineBreak = true;
+                        } else {
+                            handler.handleLine(buffer, lineStart, i - lineStart);
+                        }
+                        lineStart = i + 1;
+                    }
+                }
+                // Move incomplete line to the start of the buffer
+                length -= lineStart;
+                System.arraycopy(buffer, lineStart, buffer, 0, length);
+                if(length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            if(result.hasLineBreak) {
+                result.tail = Arrays.copyOf(buffer, length);
+            } else {
+                result.head = Arrays.copyOf(buffer, length);
+            }
+            handler.flush();
+            return result;
+        }
+    }
+    
+    /**
+     * @param chunkSize Minimal compressed size of a chunk, default: {@link #CHUNK_SIZE}
+     */
+    void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public long getNumberOfItems() {
+        return (statistics!=null) ? statistics.getNumberOfItems() : 0;
+    }
+
+}
@@ -19,7 +19,8 @@
  ******************************************************************************/
 package org.wikidata.couchbase;
 
-import java.util.List;
+import java.util.Collection;
+import java.util.Map;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
@@ -55,18 +56,54 @@ public class PersistService {
         getHandler().save(id,json);
     }
     
+    public ItemDocument createDocument(Integer id, String json) {
+        return getHandler().createDocument(id, json);
+    }
+    
+    public void save(ItemDocument document) {
+        getHandler().save(document);
+    }
+    
     public void save(DBObject object) {
         getHandler().save(object);
     }
     
-    public List<DBObject> load(int start, int limit) {
-        return getHandler().load(start, limit);
+    public void save(String collectionName, DBObject object) {
+        getHandler().save(collectionName, object);
+    }
+    
+    public ItemCursor scan(int firstId, int stopId, String[] fields) {
+        return getHandler().scan(firstId, stopId, fields);
     }
     
     public long count() {
         return getHandler().count();
     }
     
+    public long count(String collectionName) {
+        return getHandler().count(collectionName);
+    }
+    
+    public Integer getMaxItemId() {
+        return getHandler().getMaxItemId();
+    }
+    
+    public Map<Integer, Long> getLastRevisionIds(Collection<Integer> ids) {
+        return getHandler().getLastRevisionIds(ids);
+    }
+    
+    public String getLastModified() {
+        return getHandler().getLastModified();
+    }
+    
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        getHandler().setMemoryBudget(memoryBudget);
+    }
+    
+    public void flush() {
+        getHandler().flush();
+    }
+    
     public void shutdown() {
         getHandler().shutdown();
     }
@@ -86,4 +123,8 @@ public class PersistService {
         return getHandler().find(doc);
         
     }
+    
+    public DBCursor find(BasicDBObject doc, String[] fields) {
+        return getHandler().find(doc, fields);
+    }
 }
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A stage of an {@link ImportPipeline}. Every stage has its own
+ * thread pool and a bounded queue, see {@link ImportScheduler}.
+ * If the queue is full the previous stage is blocked until
+ * this stage catches up.
+ *
+ * A stage created by {@link #createVirtual(String, int)} executes every
+ * task in a new virtual thread, there is no queue.
+ *
+ * The stage measures the time its threads are busy, the number of
+ * queued tasks and the time producers wait for a free slot in the queue.
+ * The busy time of a stage includes the time it waits for the next stage.
+ * The stage which keeps the previous stage waiting and is not
+ * waiting itself is the bottleneck of the pipeline.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class PipelineStage extends ImportScheduler {
+
+    private static final Logger LOG = Logger.getLogger(PipelineStage.class);
+
+    /**
+     * Number of queued tasks per thread.
+     */
+    public static final int QUEUE_SIZE_PER_THREAD = 4;
+
+    private String name;
+    private int numberOfThreads;
+
+    private AtomicInteger numberOfRunningTasks = new AtomicInteger();
+    private AtomicInteger maxQueueDepth = new AtomicInteger();
+    private AtomicLong numberOfTasks = new AtomicLong();
+    private AtomicLong busyTimeInNs = new AtomicLong();
+    private AtomicLong producerWaitTimeInNs = new AtomicLong();
+
+    /**
+     * @param name The name of the stage, e.g. "parse"
+     * @param numberOfThreads The number of threads of the stage
+     */
+    public PipelineStage(String name, int numberOfThreads) {
+        this(name, Executors.newFixedThreadPool(numberOfThreads), numberOfThreads, numberOfThreads * (1 + QUEUE_SIZE_PER_THREAD));
+    }
+
+    private PipelineStage(String name, ExecutorService executor, int numberOfThreads, int windowSize) {
+        super(executor, windowSize);
+        this.name = name;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Creates a stage which executes every task in a new virtual thread.
+     *
+     * @param name The name of the stage, e.g. "persist"
+     * @param maxNumberOfTasks The max. number of tasks in flight
+     * @return A stage with virtual threads
+     */
+    public static PipelineStage createVirtual(String name, int maxNumberOfTasks) {
+        return new PipelineStage(name, Executors.newVirtualThreadPerTaskExecutor(), maxNumberOfTasks, maxNumberOfTasks);
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.ImportScheduler#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute(final Runnable task) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        super.execute(new Runnable() {
+            @Override
+            public void run() {
+                numberOfRunningTasks.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    busyTimeInNs.addAndGet(System.nanoTime() - start);
+                    numberOfTasks.incrementAndGet();
+                    numberOfRunningTasks.decrementAndGet();
+                }
+            }
+        });
+        producerWaitTimeInNs.addAndGet(System.nanoTime() - waitStart);
+        updateMaxQueueDepth();
+    }
+
+    private void updateMaxQueueDepth() {
+        int queueDepth = getQueueDepth();
+        int max = maxQueueDepth.get();
+        while(queueDepth > max && !maxQueueDepth.compareAndSet(max, queueDepth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * Returns the number of tasks which are waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return Math.max(0, getNumberOfTasksInFlight() - numberOfRunningTasks.get());
+    }
+
+    /**
+     * Returns the share of the time the threads of the stage were busy.
+     *
+     * @param runtimeInMs The runtime of the stage
+     * @return A value between 0 and 1
+     */
+    public double getUtilization(long runtimeInMs) {
+        if(runtimeInMs <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, getBusyTimeInMs() / ((double) runtimeInMs * numberOfThreads));
+    }
+
+    public long getBusyTimeInMs() {
+        return busyTimeInNs.get() / 1000000;
+    }
+
+    /**
+     * Returns the time producers waited until the stage accepted a task.
+     */
+    public long getProducerWaitTimeInMs() {
+        return producerWaitTimeInNs.get() / 1000000;
+    }
+
+    public long getNumberOfTasks() {
+        return numberOfTasks.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void logStatistics(long runtimeInMs) {
+        LOG.info("Stage " + name + ": threads: " + numberOfThreads + ", tasks: " + getNumberOfTasks() + ", busy time: " + getBusyTimeInMs()
+                + " ms, utilization: " + Math.round(getUtilization(runtimeInMs) * 100) + "%, max. queue depth: " + getMaxQueueDepth()
+                + ", producer wait time: " + getProducerWaitTimeInMs() + " ms");
+    }
+
+}
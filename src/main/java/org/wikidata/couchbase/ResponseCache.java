@@ -0,0 +1,741 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+/**
+ * ResponseCache saves HTTP responses in a directory.
+ *
+ * Responses are addressed by the SHA-1 hash of the request URL.
+ * The compressed bodies are appended to segment files of at most
+ * {@link #SEGMENT_SIZE} bytes. An in-memory index maps the hashes to the
+ * records in the segments, it is saved in file index.dat on close.
+ * Records appended after the index was saved are found by scanning
+ * the end of the segments, a cache survives a crash.
+ *
+ * The size of all records is limited, the least recently used records are
+ * evicted. Segments without records are deleted, segments with only a few
+ * records are compacted. Records older than the max. age are not returned.
+ *
+ * Segments are compacted by a background thread. The live records of a
+ * segment are copied to a new segment without holding the lock of the cache,
+ * only the index entries are swapped under the lock. Gets and puts are not
+ * blocked while records are copied.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ResponseCache {
+
+    private static final Logger LOG = Logger.getLogger(ResponseCache.class);
+
+    public static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Segments are compacted if the size of all files is greater
+     * than the max. size multiplied by this factor.
+     */
+    public static final double COMPACTION_THRESHOLD = 1.25;
+
+    private static final int RECORD_MAGIC = 0x57435231;
+    private static final int INDEX_MAGIC = 0x57435249;
+    // magic, hash, timestamp, status, raw length, compressed length
+    private static final int RECORD_HEADER_SIZE = 4 + 16 + 8 + 4 + 4 + 4;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_FILE = "index.dat";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long TERMINATION_TIMEOUT_IN_SECONDS = 60;
+
+    private File directory;
+    private long maxSize;
+    private long maxAgeInMs;
+
+    // access ordered, the first entry is the least recently used
+    private LinkedHashMap<Key, Entry> index = new LinkedHashMap<Key, Entry>(1024, 0.75f, true);
+    private TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private Segment activeSegment = null;
+    private long liveBytes = 0;
+    private long fileBytes = 0;
+
+    private long numberOfHits = 0;
+    private long numberOfMisses = 0;
+    private long numberOfEvictions = 0;
+    private long numberOfCompactions = 0;
+
+    private ExecutorService compactor = Executors.newSingleThreadExecutor();
+    // segment which is compacted and the new segment of its records
+    private Segment compactedSegment = null;
+    private Segment compactionSegment = null;
+    private boolean closed = false;
+
+    /**
+     * A response of the cache.
+     */
+    public static class Response {
+
+        private int status;
+        private String body;
+
+        Response(int status, String body) {
+            super();
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    static class Key {
+
+        final long high;
+        final long low;
+
+        Key(long high, long low) {
+            super();
+            this.high = high;
+            this.low = low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (low ^ (low >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return high==other.high && low==other.low;
+        }
+    }
+
+    static class Entry {
+
+        Segment segment;
+        long offset;
+        int status;
+        int rawLength;
+        int compressedLength;
+        long timestamp;
+        // true if the entry was replaced, removed or evicted
+        boolean removed = false;
+
+        int getRecordSize() {
+            return RECORD_HEADER_SIZE + compressedLength;
+        }
+    }
+
+    static class Segment {
+
+        int id;
+        File file;
+        FileChannel channel;
+        long size;
+        long liveBytes = 0;
+    }
+
+    /**
+     * Opens or creates a cache.
+     *
+     * @param directory The directory of the cache
+     * @param maxSize The max. size of all records in bytes
+     * @param maxAgeInMs The max. age of a record or 0 if records never expire
+     * @throws IOException
+     */
+    public ResponseCache(String directory, long maxSize, long maxAgeInMs) throws IOException {
+        super();
+        this.directory = new File(directory);
+        this.maxSize = maxSize;
+        this.maxAgeInMs = maxAgeInMs;
+        if(!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Can not create cache directory: " + directory);
+        }
+        load();
+    }
+
+    /**
+     * Returns a cached response or null if there is no response
+     * for the URL or the response is expired.
+     *
+     * @param url The URL of a request
+     * @return The cached response or null
+     * @throws IOException
+     */
+    public Response get(String url) throws IOException {
+        Key key = createKey(url);
+        Entry entry;
+        FileChannel channel;
+        long position;
+        synchronized (this) {
+            entry = index.get(key);
+            if(entry!=null && isExpired(entry)) {
+                remove(key);
+                entry = null;
+            }
+            if(entry==null) {
+                numberOfMisses++;
+                return null;
+            }
+            numberOfHits++;
+            channel = entry.segment.channel;
+            position = entry.offset + RECORD_HEADER_SIZE;
+        }
+        byte[] compressed = new byte[entry.compressedLength];
+        try {
+            read(channel, ByteBuffer.wrap(compressed), position);
+        } catch (ClosedChannelException e) {
+            // the segment was compacted
+            return get(url);
+        }
+        return new Response(entry.status, new String(inflate(compressed, entry.rawLength), UTF_8));
+    }
+
+    /**
+     * Saves a response in the cache.
+     *
+     * @param url The URL of the request
+     * @param status The HTTP status of the response
+     * @param body The body of the response
+     * @throws IOException
+     */
+    public void put(String url, int status, String body) throws IOException {
+        Key key = createKey(url);
+        byte[] raw = body.getBytes(UTF_8);
+        byte[] compressed = deflate(raw);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + compressed.length);
+        long timestamp = System.currentTimeMillis();
+        record.putInt(RECORD_MAGIC);
+        record.putLong(key.high);
+        record.putLong(key.low);
+        record.putLong(timestamp);
+        record.putInt(status);
+        record.putInt(raw.length);
+        record.putInt(compressed.length);
+        record.put(compressed);
+        record.flip();
+        synchronized (this) {
+            Entry entry = new Entry();
+            entry.status = status;
+            entry.rawLength = raw.length;
+            entry.compressedLength = compressed.length;
+            entry.timestamp = timestamp;
+            append(entry, record);
+            add(key, entry);
+            evict();
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return maxAgeInMs > 0 && System.currentTimeMillis() - entry.timestamp > maxAgeInMs;
+    }
+
+    private void append(Entry entry, ByteBuffer record) throws IOException {
+        int size = record.remaining();
+        if(activeSegment==null || (activeSegment.size > 0 && activeSegment.size + size > SEGMENT_SIZE)) {
+            int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            activeSegment = openSegment(new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX), id);
+        }
+        long position = activeSegment.size;
+        while(record.hasRemaining()) {
+            position += activeSegment.channel.write(record, position);
+        }
+        entry.segment = activeSegment;
+        entry.offset = activeSegment.size;
+        activeSegment.size += size;
+        fileBytes += size;
+    }
+
+    private void add(Key key, Entry entry) {
+        Entry old = index.put(key, entry);
+        if(old!=null) {
+            removeLiveBytes(old);
+        }
+        entry.segment.liveBytes += entry.getRecordSize();
+        liveBytes += entry.getRecordSize();
+    }
+
+    private void remove(Key key) throws IOException {
+        Entry entry = index.remove(key);
+        if(entry!=null) {
+            removeLiveBytes(entry);
+            deleteIfEmpty(entry.segment);
+        }
+    }
+
+    private void removeLiveBytes(Entry entry) {
+        entry.removed = true;
+        entry.segment.liveBytes -= entry.getRecordSize();
+        liveBytes -= entry.getRecordSize();
+    }
+
+    /**
+     * Evicts the least recently used records until the size of the
+     * records is below the max. size. Starts a compaction if
+     * the files are much larger than the records.
+     */
+    private void evict() throws IOException {
+        Iterator<Entry> entries = index.values().iterator();
+        List<Segment> changedSegments = new ArrayList<Segment>();
+        while(liveBytes > maxSize && entries.hasNext()) {
+            Entry entry = entries.next();
+            entries.remove();
+            removeLiveBytes(entry);
+            changedSegments.add(entry.segment);
+            numberOfEvictions++;
+        }
+        for (Segment segment : changedSegments) {
+            deleteIfEmpty(segment);
+        }
+        startCompaction();
+    }
+
+    private void deleteIfEmpty(Segment segment) throws IOException {
+        // segments of a running compaction are deleted by the compaction
+        if(segment.liveBytes==0 && segment!=activeSegment && segment!=compactedSegment && segment!=compactionSegment
+           && segments.containsKey(segment.id)) {
+            deleteSegment(segment);
+        }
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        segments.remove(segment.id);
+        segment.channel.close();
+        fileBytes -= segment.size;
+        Files.deleteIfExists(segment.file.toPath());
+    }
+
+    private boolean isCompactionRequired() {
+        return !closed && fileBytes > maxSize * COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Starts a compaction in the background thread
+     * if the files are much larger than the records.
+     */
+    private void startCompaction() {
+        if(compactedSegment!=null || !isCompactionRequired()) {
+            return;
+        }
+        Segment segment = selectSegment();
+        if(segment==null) {
+            return;
+        }
+        compactedSegment = segment;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    /**
+     * @return The segment with the lowest ratio of live records or null
+     */
+    private Segment selectSegment() {
+        Segment segment = null;
+        for (Segment candidate : segments.values()) {
+            if(candidate!=activeSegment && (segment==null
+               || (double) candidate.liveBytes / candidate.size < (double) segment.liveBytes / segment.size)) {
+                segment = candidate;
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Compacts segments until the files are not much larger than the records.
+     * Executed by the background thread.
+     */
+    private void compact() {
+        try {
+            while(compactSegment()) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Cache segment compacted.");
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Error while compacting response cache: " + directory, e);
+        } catch (RuntimeException e) {
+            LOG.error("Error while compacting response cache: " + directory, e);
+        }
+    }
+
+    /**
+     * Copies the live records of the compacted segment to a new segment.
+     * Records are copied without the lock, entries of records which are 
+     * still live are moved to the new segment under the lock. Entries
+     * which are removed while the records are copied are not moved.
+     *
+     * @return true if another segment must be compacted
+     */
+    private boolean compactSegment() throws IOException {
+        Segment segment;
+        Segment target;
+        List<Entry> entries = new ArrayList<Entry>();
+        synchronized (this) {
+            segment = compactedSegment;
+            if(segment==null || closed) {
+                compactedSegment = null;
+                return false;
+            }
+            for (Entry entry : index.values()) {
+                if(entry.segment==segment) {
+                    entries.add(entry);
+                }
+            }
+            int id = segments.lastKey() + 1;
+            target = openSegment(new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX), id);
+            compactionSegment = target;
+        }
+        long[] offsets = new long[entries.size()];
+        long position = 0;
+        try {
+            for (int i = 0; i < offsets.length; i++) {
+                Entry entry = entries.get(i);
+                ByteBuffer record = ByteBuffer.allocate(entry.getRecordSize());
+                read(segment.channel, record, entry.offset);
+                record.flip();
+                offsets[i] = position;
+                while(record.hasRemaining()) {
+                    position += target.channel.write(record, position);
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                compactedSegment = null;
+                compactionSegment = null;
+                deleteSegment(target);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            target.size = position;
+            fileBytes += position;
+            for (int i = 0; i < offsets.length; i++) {
+                Entry entry = entries.get(i);
+                if(!entry.removed) {
+                    segment.liveBytes -= entry.getRecordSize();
+                    target.liveBytes += entry.getRecordSize();
+                    entry.segment = target;
+                    entry.offset = offsets[i];
+                }
+            }
+            compactedSegment = null;
+            compactionSegment = null;
+            // reads of the old segment are retried, see get(String)
+            deleteSegment(segment);
+            deleteIfEmpty(target);
+            numberOfCompactions++;
+            if(!isCompactionRequired()) {
+                return false;
+            }
+            compactedSegment = selectSegment();
+            return compactedSegment!=null;
+        }
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = openSegment(file, id);
+            segment.size = segment.channel.size();
+            fileBytes += segment.size;
+        }
+        Map<Integer, Long> indexedSizes = loadIndex();
+        for (Segment segment : segments.values()) {
+            Long indexedSize = indexedSizes.get(segment.id);
+            scanSegment(segment, (indexedSize!=null) ? indexedSize : 0);
+        }
+        if(!segments.isEmpty()) {
+            activeSegment = segments.lastEntry().getValue();
+        }
+        evict();
+        LOG.info("Response cache loaded: " + index.size() + " responses, " + (liveBytes / (1024 * 1024)) + " MB");
+    }
+
+    private Segment openSegment(File file, int id) throws IOException {
+        Segment segment = new Segment();
+        segment.id = id;
+        segment.file = file;
+        segment.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Loads the index file.
+     *
+     * @return The size of every segment when the index was saved
+     */
+    private Map<Integer, Long> loadIndex() throws IOException {
+        Map<Integer, Long> indexedSizes = new HashMap<Integer, Long>();
+        File indexFile = new File(directory, INDEX_FILE);
+        if(!indexFile.exists()) {
+            return indexedSizes;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if(in.readInt()!=INDEX_MAGIC) {
+                throw new IOException("Not a cache index: " + indexFile);
+            }
+            int numberOfSegments = in.readInt();
+            for (int i = 0; i < numberOfSegments; i++) {
+                indexedSizes.put(in.readInt(), in.readLong());
+            }
+            int numberOfEntries = in.readInt();
+            for (int i = 0; i < numberOfEntries; i++) {
+                Key key = new Key(in.readLong(), in.readLong());
+                Entry entry = new Entry();
+                entry.segment = segments.get(in.readInt());
+                entry.offset = in.readLong();
+                entry.status = in.readInt();
+                entry.rawLength = in.readInt();
+                entry.compressedLength = in.readInt();
+                entry.timestamp = in.readLong();
+                if(entry.segment!=null && entry.offset + entry.getRecordSize() <= entry.segment.size) {
+                    add(key, entry);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return indexedSizes;
+    }
+
+    /**
+     * Adds the records of a segment after a position to the index.
+     * An incomplete record at the end is truncated.
+     */
+    private void scanSegment(Segment segment, long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while(position + RECORD_HEADER_SIZE <= segment.size) {
+            header.clear();
+            read(segment.channel, header, position);
+            header.flip();
+            if(header.getInt()!=RECORD_MAGIC) {
+                break;
+            }
+            Key key = new Key(header.getLong(), header.getLong());
+            Entry entry = new Entry();
+            entry.timestamp = header.getLong();
+            entry.status = header.getInt();
+            entry.rawLength = header.getInt();
+            entry.compressedLength = header.getInt();
+            entry.segment = segment;
+            entry.offset = position;
+            if(position + entry.getRecordSize() > segment.size) {
+                break;
+            }
+            add(key, entry);
+            position += entry.getRecordSize();
+        }
+        if(position < segment.size) {
+            LOG.warn("Truncating incomplete cache segment: " + segment.file + " at " + position);
+            segment.channel.truncate(position);
+            fileBytes -= segment.size - position;
+            segment.size = position;
+        }
+    }
+
+    private void saveIndex() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE);
+        File tmpFile = new File(directory, INDEX_FILE + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                out.writeInt(segment.id);
+                out.writeLong(segment.size);
+            }
+            out.writeInt(index.size());
+            // least recently used first, the order is restored on load
+            for (Map.Entry<Key, Entry> mapEntry : index.entrySet()) {
+                Key key = mapEntry.getKey();
+                Entry entry = mapEntry.getValue();
+                out.writeLong(key.high);
+                out.writeLong(key.low);
+                out.writeInt(entry.segment.id);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.status);
+                out.writeInt(entry.rawLength);
+                out.writeInt(entry.compressedLength);
+                out.writeLong(entry.timestamp);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Waits for a running compaction, saves the index and closes all segments.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(TERMINATION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeSegments();
+        }
+    }
+
+    private void closeSegments() {
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.force(false);
+            }
+            saveIndex();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            LOG.error("Error while closing response cache: " + directory, e);
+        }
+        LOG.info("Response cache hits: " + numberOfHits + ", misses: " + numberOfMisses + ", evictions: " + numberOfEvictions
+                + ", compactions: " + numberOfCompactions + ", size: " + (liveBytes / (1024 * 1024)) + " MB");
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if(n < 0) {
+                throw new IOException("Unexpected end of cache segment.");
+            }
+            position += n;
+        }
+    }
+
+    private static Key createKey(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            ByteBuffer buffer = ByteBuffer.wrap(hash);
+            return new Key(buffer.getLong(), buffer.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported.", e);
+        }
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while(!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while(n < rawLength && !inflater.finished()) {
+                if(inflater.needsInput()) {
+                    throw new IOException("Cache record is incomplete.");
+                }
+                n += inflater.inflate(raw, n, rawLength - n);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Cache record is corrupt.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public synchronized long getNumberOfHits() {
+        return numberOfHits;
+    }
+
+    public synchronized long getNumberOfMisses() {
+        return numberOfMisses;
+    }
+
+}
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * RetryLane imports items again which failed in the import.
+ *
+ * Failed items are retried one by one by a few threads of the lane, the
+ * threads of the import are never blocked by a retry. The delay of a retry
+ * grows exponentially with the number of attempts, a random part
+ * of the delay spreads the retries of items which failed together.
+ *
+ * Items which still fail after {@link #MAX_ATTEMPTS} attempts are written
+ * to a dead-letter file, one id per line. The file can be imported
+ * again with option --ids-from, see {@link #readIds(String)}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class RetryLane {
+
+    private static final Logger LOG = Logger.getLogger(RetryLane.class);
+
+    public static final int NUMBER_OF_THREADS = 2;
+    public static final int MAX_ATTEMPTS = 5;
+    public static final long BASE_DELAY_IN_MS = 1000;
+    public static final long MAX_DELAY_IN_MS = 5 * 60 * 1000;
+
+    private static final String CHARSET = "UTF-8";
+
+    private IFetchEngine fetchEngine;
+    private PersistService persistService;
+    private String wikidataUrl;
+    private CheckpointJournal journal = null;
+    private TombstoneBitmap tombstones = null;
+    private ImportPipeline pipeline = ImportPipeline.DIRECT;
+
+    private ScheduledExecutorService executor;
+    private Random random = new Random();
+
+    // ids which are waiting for a retry or are retried, the value is the next attempt
+    private Map<Integer, Integer> pendingIds = new ConcurrentHashMap<Integer, Integer>();
+    private final Object pendingLock = new Object();
+
+    private String deadLetterFile;
+    private Writer deadLetterWriter = null;
+    private boolean shutdown = false;
+
+    private AtomicLong numberOfRetries = new AtomicLong();
+    private AtomicLong numberOfRecoveredItems = new AtomicLong();
+    private AtomicLong numberOfDeadLetters = new AtomicLong();
+
+    /**
+     * @param conf Importer configuration
+     * @param fetchEngine The engine which loads the items
+     * @param persistService The service which saves the items
+     */
+    public RetryLane(Configuration conf, IFetchEngine fetchEngine, PersistService persistService) {
+        super();
+        this.fetchEngine = fetchEngine;
+        this.persistService = persistService;
+        this.wikidataUrl = conf.getWikidataUrl();
+        this.deadLetterFile = conf.getDeadLetterFile();
+        this.executor = Executors.newScheduledThreadPool(NUMBER_OF_THREADS);
+    }
+
+    /**
+     * Called by an import thread if an item failed. Schedules a retry
+     * or writes the id to the dead-letter file if there are no attempts left.
+     * Never blocks.
+     *
+     * @param id The id of an item
+     * @param attempt The number of the attempt which failed, starting with 1
+     * @param reason The cause of the error
+     */
+    public void failed(int id, int attempt, String reason) {
+        if(attempt >= MAX_ATTEMPTS) {
+            LOG.warn("Item " + id + " failed " + attempt + " times, writing it to dead-letter file. Last error: " + reason);
+            writeDeadLetter(id);
+            removePending(id);
+            return;
+        }
+        final int nextAttempt = attempt + 1;
+        final int itemId = id;
+        long delay = getDelay(attempt);
+        pendingIds.put(id, nextAttempt);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Retrying item " + id + " in " + delay + " ms, attempt: " + nextAttempt);
+        }
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retry(itemId, nextAttempt);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the lane is shut down
+            writeDeadLetter(id);
+            removePending(id);
+        }
+    }
+
+    /**
+     * Called by an import thread if an item is finished without
+     * saving it, e.g. the item does not exist or is unchanged.
+     *
+     * @param id The id of an item
+     */
+    public void completed(int id) {
+        if(pendingIds.isEmpty()) {
+            return;
+        }
+        removePending(id);
+    }
+
+    /**
+     * Called by an import thread if an item is saved. A retried
+     * item which is saved is counted as recovered.
+     *
+     * @param id The id of an item
+     */
+    public void saved(int id) {
+        if(pendingIds.isEmpty()) {
+            return;
+        }
+        if(removePending(id)) {
+            numberOfRecoveredItems.incrementAndGet();
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter, the delay is
+     * between 50% and 100% of the exponential delay.
+     */
+    private long getDelay(int attempt) {
+        long delay = Math.min(MAX_DELAY_IN_MS, BASE_DELAY_IN_MS << Math.min(attempt - 1, 20));
+        long jitter;
+        synchronized (random) {
+            jitter = (long) (random.nextDouble() * delay / 2);
+        }
+        return delay / 2 + jitter;
+    }
+
+    private void retry(int id, int attempt) {
+        numberOfRetries.incrementAndGet();
+        WikidataImportThread thread = new WikidataImportThread(fetchEngine, persistService, wikidataUrl, id);
+        thread.setJournal(journal);
+        thread.setTombstones(tombstones);
+        thread.setRetryLane(this, attempt);
+        thread.setPipeline(pipeline);
+        try {
+            // executed by a thread of the lane
+            thread.run();
+        } catch (RuntimeException e) {
+            // e.g. the fetch engine is shut down
+            failed(id, attempt, e.getMessage());
+        }
+    }
+
+    private boolean removePending(int id) {
+        synchronized (pendingLock) {
+            boolean removed = pendingIds.remove(id)!=null;
+            if(pendingIds.isEmpty()) {
+                pendingLock.notifyAll();
+            }
+            return removed;
+        }
+    }
+
+    private synchronized void writeDeadLetter(int id) {
+        numberOfDeadLetters.incrementAndGet();
+        try {
+            if(deadLetterWriter==null) {
+                deadLetterWriter = new OutputStreamWriter(new FileOutputStream(deadLetterFile, true), CHARSET);
+            }
+            deadLetterWriter.write(String.valueOf(id));
+            deadLetterWriter.write('\n');
+            deadLetterWriter.flush();
+        } catch (IOException e) {
+            LOG.error("Error while writing dead-letter file: " + deadLetterFile + ", item: " + id, e);
+        } finally {
+            if(shutdown) {
+                // items which fail after the shutdown, the file is not kept open
+                closeDeadLetterWriter();
+            }
+        }
+    }
+
+    private synchronized void closeDeadLetterWriter() {
+        if(deadLetterWriter!=null) {
+            try {
+                deadLetterWriter.close();
+            } catch (IOException e) {
+                LOG.error("Error while closing dead-letter file: " + deadLetterFile, e);
+            }
+            deadLetterWriter = null;
+        }
+    }
+
+    /**
+     * Blocks until all retries are finished or the timeout is over.
+     *
+     * @param timeout The max. time to wait
+     * @param unit The unit of the timeout
+     * @throws InterruptedException
+     */
+    public void awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (pendingLock) {
+            while(!pendingIds.isEmpty()) {
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0) {
+                    return;
+                }
+                pendingLock.wait(wait);
+            }
+        }
+    }
+
+    /**
+     * Stops the retries. Ids which are not retried yet are
+     * written to the dead-letter file. Call this after the fetch engine
+     * and the pipeline are finished, items which fail later are
+     * written to the dead-letter file without a retry.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        for (Integer id : new ArrayList<Integer>(pendingIds.keySet())) {
+            writeDeadLetter(id);
+            removePending(id);
+        }
+        synchronized (this) {
+            shutdown = true;
+            closeDeadLetterWriter();
+        }
+        LOG.info("Retries: " + numberOfRetries.get() + ", recovered items: " + numberOfRecoveredItems.get()
+                + ", dead-letter items: " + numberOfDeadLetters.get()
+                + ((numberOfDeadLetters.get()>0) ? " (" + deadLetterFile + ")" : ""));
+    }
+
+    /**
+     * Reads the ids of a dead-letter file. Lines with an item id
+     * ("123" or "Q123") are read, empty lines and lines
+     * starting with # are ignored.
+     *
+     * @param fileName A file with one id per line
+     * @return The ids in the file
+     * @throws IOException
+     */
+    public static List<Integer> readIds(String fileName) throws IOException {
+        List<Integer> ids = new ArrayList<Integer>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), CHARSET));
+        try {
+            String line;
+            while((line = reader.readLine())!=null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if(line.startsWith("Q") || line.startsWith("q")) {
+                    line = line.substring(1);
+                }
+                ids.add(Integer.valueOf(line));
+            }
+        } finally {
+            reader.close();
+        }
+        return ids;
+    }
+
+    public void setJournal(CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setTombstones(TombstoneBitmap tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    public void setPipeline(ImportPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public long getNumberOfDeadLetters() {
+        return numberOfDeadLetters.get();
+    }
+
+}
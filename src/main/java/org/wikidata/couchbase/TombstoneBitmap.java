@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * TombstoneBitmap records ids of items which do not exist:
+ * Deleted items (HTTP 404), redirected items and entities which
+ * are not items. Tombstones are saved in a file and are used
+ * by all following imports, items with a tombstone are not requested.
+ *
+ * Ids are grouped in blocks of {@link #BLOCK_SIZE} ids. For every block
+ * the time of the oldest tombstone is saved. If a block is older
+ * than the time to live all its tombstones are removed when the file
+ * is loaded and the items are requested again.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class TombstoneBitmap {
+
+    private static final Logger LOG = Logger.getLogger(TombstoneBitmap.class);
+
+    public static final int BLOCK_SIZE = 4096;
+    public static final long SAVE_INTERVAL_IN_MINUTES = 5;
+
+    private static final int FILE_MAGIC = 0x57434954;
+
+    private File file;
+    private long timeToLiveInMs;
+
+    private BitSet tombstones = new BitSet();
+    // time of the oldest tombstone of every block, 0 if there is no tombstone
+    private long[] blockTimestamps = new long[0];
+    private final Object lock = new Object();
+
+    private ScheduledExecutorService timer;
+
+    private int numberOfLoadedTombstones = 0;
+    private int numberOfExpiredTombstones = 0;
+    private AtomicLong numberOfNewTombstones = new AtomicLong();
+    private AtomicLong numberOfSkippedIds = new AtomicLong();
+
+    /**
+     * @param fileName The file of the bitmap
+     * @param timeToLiveInMs Time after which tombstones are checked again
+     * @throws IOException
+     */
+    public TombstoneBitmap(String fileName, long timeToLiveInMs) throws IOException {
+        super();
+        this.file = new File(fileName);
+        this.timeToLiveInMs = timeToLiveInMs;
+        load();
+        startTimer();
+    }
+
+    /**
+     * Returns true if there is a tombstone for an id and
+     * counts the id as skipped.
+     *
+     * @param id The id of an item
+     * @return true if the item should not be requested
+     */
+    public boolean skip(int id) {
+        boolean tombstone;
+        synchronized (lock) {
+            tombstone = tombstones.get(id);
+        }
+        if(tombstone) {
+            numberOfSkippedIds.incrementAndGet();
+        }
+        return tombstone;
+    }
+
+    public boolean isTombstone(int id) {
+        synchronized (lock) {
+            return tombstones.get(id);
+        }
+    }
+
+    /**
+     * Adds a tombstone for an id.
+     *
+     * @param id The id of an item which does not exist
+     */
+    public void add(int id) {
+        synchronized (lock) {
+            if(tombstones.get(id)) {
+                return;
+            }
+            tombstones.set(id);
+            int block = id / BLOCK_SIZE;
+            if(block >= blockTimestamps.length) {
+                blockTimestamps = Arrays.copyOf(blockTimestamps, Math.max(block + 1, blockTimestamps.length * 2));
+            }
+            if(blockTimestamps[block]==0) {
+                blockTimestamps[block] = System.currentTimeMillis();
+            }
+        }
+        numberOfNewTombstones.incrementAndGet();
+    }
+
+    private void load() throws IOException {
+        if(!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt()!=FILE_MAGIC || in.readInt()!=BLOCK_SIZE) {
+                throw new IOException("Not a tombstone file: " + file);
+            }
+            blockTimestamps = new long[in.readInt()];
+            for (int i = 0; i < blockTimestamps.length; i++) {
+                blockTimestamps[i] = in.readLong();
+            }
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            tombstones = BitSet.valueOf(words);
+        } finally {
+            in.close();
+        }
+        numberOfLoadedTombstones = tombstones.cardinality();
+        removeExpiredBlocks();
+        LOG.info("Tombstones loaded: " + numberOfLoadedTombstones + ", expired: " + numberOfExpiredTombstones);
+    }
+
+    private void removeExpiredBlocks() {
+        long expiryTimestamp = System.currentTimeMillis() - timeToLiveInMs;
+        for (int block = 0; block < blockTimestamps.length; block++) {
+            if(blockTimestamps[block]!=0 && blockTimestamps[block] < expiryTimestamp) {
+                int firstId = block * BLOCK_SIZE;
+                numberOfExpiredTombstones += tombstones.get(firstId, firstId + BLOCK_SIZE).cardinality();
+                tombstones.clear(firstId, firstId + BLOCK_SIZE);
+                blockTimestamps[block] = 0;
+            }
+        }
+    }
+
+    private void startTimer() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    save();
+                } catch (Exception e) {
+                    LOG.error("Error while saving tombstones: " + file, e);
+                }
+            }
+        }, SAVE_INTERVAL_IN_MINUTES, SAVE_INTERVAL_IN_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Writes the bitmap to a temporary file which replaces the file.
+     */
+    public void save() throws IOException {
+        long[] timestamps;
+        long[] words;
+        synchronized (lock) {
+            timestamps = blockTimestamps.clone();
+            words = tombstones.toLongArray();
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(BLOCK_SIZE);
+            out.writeInt(timestamps.length);
+            for (long timestamp : timestamps) {
+                out.writeLong(timestamp);
+            }
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves the bitmap and stops the timer.
+     */
+    public void close() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(1, TimeUnit.MINUTES);
+            save();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error("Error while saving tombstones: " + file, e);
+        }
+        LOG.info("Tombstones: " + getNumberOfTombstones() + ", new: " + getNumberOfNewTombstones()
+                + ", expired: " + getNumberOfExpiredTombstones() + ", skipped requests: " + getNumberOfSkippedIds());
+    }
+
+    public int getNumberOfTombstones() {
+        synchronized (lock) {
+            return tombstones.cardinality();
+        }
+    }
+
+    public int getNumberOfLoadedTombstones() {
+        return numberOfLoadedTombstones;
+    }
+
+    public int getNumberOfExpiredTombstones() {
+        return numberOfExpiredTombstones;
+    }
+
+    public long getNumberOfNewTombstones() {
+        return numberOfNewTombstones.get();
+    }
+
+    public long getNumberOfSkippedIds() {
+        return numberOfSkippedIds.get();
+    }
+
+}
@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * This task loads a range of items from wikidata with one
+ * wbgetentities request and saves every item of the response
+ * in a database.
+ *
+ * Every item is saved in the same format as a response
+ * of Special:EntityData, see {@link WikidataImportThread}.
+ * Missing items in a range are reported one by one.
+ *
+ * The response is passed to the stages of an {@link ImportPipeline}
+ * as one item, all items of the range are parsed, transformed and
+ * saved by one task of every stage. An item is completed when its
+ * write is confirmed by the database, see {@link IWriteCallback}.
+ *
+ * wikidata API - https://www.wikidata.org/w/api.php?action=help&modules=wbgetentities
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class WikidataBatchImportThread implements Runnable, IFetchCallback, IPipelineItem, IWriteCallback {
+
+    private static final Logger LOG = Logger.getLogger(WikidataBatchImportThread.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String ENTITY_TYPE_ITEM = "item";
+
+    IFetchEngine fetchEngine = null;
+    PersistService persistService = null;
+    String wikidataUrl;
+    Integer firstId;
+    Integer lastId;
+    CheckpointJournal journal = null;
+    TombstoneBitmap tombstones = null;
+    RetryLane retryLane = null;
+    ImportPipeline pipeline = ImportPipeline.DIRECT;
+
+    private String jsonResponse;
+    private Map<Integer, JsonNode> entities;
+    private List<ItemDocument> documents;
+
+    public WikidataBatchImportThread(IFetchEngine fetchEngine, PersistService persistService, String wikidataUrl, Integer firstId, Integer lastId) {
+        super();
+        this.fetchEngine = fetchEngine;
+        this.persistService = persistService;
+        this.wikidataUrl = wikidataUrl;
+        this.firstId = firstId;
+        this.lastId = lastId;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        exportItems(firstId, lastId);
+    }
+
+    private void exportItems(Integer firstId, Integer lastId) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Loading items " + firstId + " to " + lastId + " from wikidata...");
+        }
+        String url = buildWebserviceUrl(firstId, lastId);
+        if(url==null) {
+            // all items of the range are completed or tombstones
+            return;
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Webservice URL: " + url);
+        }
+        try {
+            fetchEngine.fetch(url, this);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Items " + firstId + " to " + lastId + " were not exported. Import was interrupted.");
+            retryAll("Import was interrupted.");
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchCallback#completed(java.lang.String)
+     */
+    @Override
+    public void completed(String jsonResponse) {
+        this.jsonResponse = jsonResponse;
+        try {
+            pipeline.submit(this, MemoryBudget.getSize(jsonResponse));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Items " + firstId + " to " + lastId + " were not exported. Import was interrupted.");
+            retryAll("Import was interrupted.");
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#parse()
+     */
+    @Override
+    public boolean parse() throws Exception {
+        JsonNode entityNodes = getEntities(jsonResponse);
+        jsonResponse = null;
+        entities = new LinkedHashMap<Integer, JsonNode>();
+        for (int id = firstId; id <= lastId; id++) {
+            if(!isCompleted(id) && !isTombstone(id)) {
+                JsonNode entity = entityNodes.get(EntityData.buildEntityId(id));
+                if(isItem(id, entity)) {
+                    entities.put(id, entity);
+                }
+            }
+        }
+        return !entities.isEmpty();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#transform()
+     */
+    @Override
+    public boolean transform() throws Exception {
+        documents = new ArrayList<ItemDocument>(entities.size());
+        for (Map.Entry<Integer, JsonNode> entry : entities.entrySet()) {
+            Integer id = entry.getKey();
+            try {
+                ItemDocument document = persistService.createDocument(id, EntityData.toJson(id, entry.getValue()));
+                if(document!=null) {
+                    document.setCallback(this);
+                    documents.add(document);
+                } else {
+                    // the item is unchanged
+                    markCompleted(id);
+                }
+            } catch (Exception e) {
+                itemFailed(id, e);
+            }
+        }
+        entities = null;
+        return !documents.isEmpty();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#persist()
+     */
+    @Override
+    public void persist() throws Exception {
+        for (ItemDocument document : documents) {
+            try {
+                persistService.save(document);
+            } catch (Exception e) {
+                itemFailed(document.getId(), e);
+            }
+        }
+        documents = null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IWriteCallback#written(java.lang.Integer)
+     */
+    @Override
+    public void written(Integer id) {
+        markSaved(id);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Item " + id + " saved in db.");
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IWriteCallback#writeFailed(java.lang.Integer, java.lang.Exception)
+     */
+    @Override
+    public void writeFailed(Integer id, Exception e) {
+        itemFailed(id, e);
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#failed(java.lang.Exception)
+     */
+    @Override
+    public void failed(Exception e) {
+        jsonResponse = null;
+        entities = null;
+        documents = null;
+        LOG.warn("Items " + firstId + " to " + lastId + " were not exported. Unknow error: " + e.getMessage());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stacktrace: ", e);
+        }
+        retryAll(e.getMessage());
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchCallback#failed(int, java.lang.Exception)
+     */
+    @Override
+    public void failed(int status, Exception e) {
+        if(status>=0) {
+            LOG.warn("Items " + firstId + " to " + lastId + " were not exported. HTTP error: " + status);
+        } else {
+            LOG.warn("Items " + firstId + " to " + lastId + " were not exported. Unknow error, maybe a network problem: " + e.getMessage());
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stacktrace: ", e);
+        }
+        retryAll("HTTP status: " + status + ", " + ((e!=null) ? e.getMessage() : null));
+    }
+
+    /**
+     * Returns true if an entity is the item with the id. Missing,
+     * redirected and other entities are marked as tombstones.
+     */
+    private boolean isItem(Integer id, JsonNode entity) {
+        if(entity==null || entity.has("missing")) {
+            LOG.warn("Item " + id + " was not exported. Item is missing.");
+            markTombstone(id);
+            markCompleted(id);
+            return false;
+        }
+        if(entity.has("redirects") || !EntityData.buildEntityId(id).equals(entity.path("id").asText())
+           || !ENTITY_TYPE_ITEM.equals(entity.path("type").asText())) {
+            LOG.warn("Item " + id + " was not exported. Entity is redirected or not an item: " + entity.path("id").asText());
+            markTombstone(id);
+            markCompleted(id);
+            return false;
+        }
+        return true;
+    }
+
+    private void itemFailed(Integer id, Exception e) {
+        LOG.warn("Item " + id + " was not exported. Unknow error: " + e.getMessage());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stacktrace: ", e);
+        }
+        if(retryLane!=null) {
+            retryLane.failed(id, 1, e.getMessage());
+        }
+    }
+
+    /**
+     * Passes all items of the range to the retry lane,
+     * items are retried one by one.
+     */
+    private void retryAll(String reason) {
+        if(retryLane==null) {
+            return;
+        }
+        for (int id = firstId; id <= lastId; id++) {
+            if(!isCompleted(id) && !isTombstone(id)) {
+                retryLane.failed(id, 1, reason);
+            }
+        }
+    }
+
+    private void markCompleted(Integer id) {
+        if(journal!=null) {
+            journal.markCompleted(id);
+        }
+        if(retryLane!=null) {
+            retryLane.completed(id);
+        }
+    }
+
+    private void markSaved(Integer id) {
+        if(journal!=null) {
+            journal.markCompleted(id);
+        }
+        if(retryLane!=null) {
+            retryLane.saved(id);
+        }
+    }
+
+    private void markTombstone(Integer id) {
+        if(tombstones!=null) {
+            tombstones.add(id);
+        }
+    }
+
+    private boolean isTombstone(Integer id) {
+        return tombstones!=null && tombstones.isTombstone(id);
+    }
+
+    /**
+     * Returns true if an item was completed by a previous import,
+     * see {@link CheckpointJournal}.
+     */
+    private boolean isCompleted(Integer id) {
+        return journal!=null && journal.isCompleted(id);
+    }
+
+    private JsonNode getEntities(String jsonResponse) throws Exception {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Wikidata JSON response: " + jsonResponse);
+        }
+        JsonNode response = MAPPER.readTree(jsonResponse);
+        if(response.has("error")) {
+            throw new RuntimeException(response.path("error").path("info").asText());
+        }
+        return response.path("entities");
+    }
+
+    /**
+     * Completed items and tombstones are not requested.
+     *
+     * @return The URL of the request or null if all items are completed or tombstones
+     */
+    private String buildWebserviceUrl(Integer firstId, Integer lastId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(wikidataUrl);
+        sb.append("/w/api.php?action=wbgetentities&format=json&ids=");
+        boolean first = true;
+        for (int id = firstId; id <= lastId; id++) {
+            if(isCompleted(id) || (tombstones!=null && tombstones.skip(id))) {
+                continue;
+            }
+            if(!first) {
+                // "|" URL encoded
+                sb.append("%7C");
+            }
+            sb.append(EntityData.buildEntityId(id));
+            first = false;
+        }
+        return first ? null : sb.toString();
+    }
+
+    public void setJournal(CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setTombstones(TombstoneBitmap tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    public void setRetryLane(RetryLane retryLane) {
+        this.retryLane = retryLane;
+    }
+
+    /**
+     * @param pipeline The pipeline which parses and saves the items
+     */
+    public void setPipeline(ImportPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+}
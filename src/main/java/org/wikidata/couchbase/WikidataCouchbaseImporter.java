@@ -19,8 +19,11 @@
  ******************************************************************************/
 package org.wikidata.couchbase;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
@@ -31,13 +34,56 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.log4j.Logger;
 
-import com.sun.jersey.api.client.Client;
-
 /**
  * WikidataImporter loads items from Wikidata
  * and saves these items in a database (MongoDB or Couchbase).
  * 
  * Loading ans saving is done concurrently by multiple {@link WikidataImportThread}s.
+ * The threads are executed by an {@link ImportScheduler}.
+ * Items are loaded by a {@link IFetchEngine}, see {@link JerseyFetchEngine}
+ * and {@link AsyncFetchEngine}. Loaded items are parsed, transformed and
+ * saved by the stages of an {@link ImportPipeline}, every stage has its
+ * own thread pool and a bounded queue.
+ * 
+ * With virtual threads every item is loaded and saved in a virtual thread,
+ * the number of items in flight is limited by the window of the scheduler
+ * and not by the number of threads.
+ * 
+ * If a journal file is configured all imported items are recorded in a
+ * {@link CheckpointJournal}. An interrupted import is resumed at the first 
+ * item which is not imported, imported items after this item are skipped.
+ * 
+ * With adaptive concurrency the number of parallel requests is adapted
+ * to the latency and the throttling of the server, see 
+ * {@link AdaptiveConcurrencyLimiter}. Throttled requests are repeated.
+ * 
+ * Items which fail are retried by a {@link RetryLane}. Items which fail
+ * too often are written to a dead-letter file, this file can be
+ * imported again with option --ids-from.
+ * 
+ * With source "changes" only items which are changed since the last import
+ * are loaded, see {@link ChangeFeed}.
+ * 
+ * If a cache directory is configured all responses are saved in a 
+ * {@link ResponseCache}, a re-import of cached items needs no network.
+ * 
+ * If a tombstone file is configured missing, redirected and non-item ids
+ * are recorded in a {@link TombstoneBitmap}. These ids are not requested 
+ * again until the tombstones expire.
+ * 
+ * If a hash index file is configured the hash of every saved item is
+ * recorded in a {@link ContentHashIndex}. Unchanged items are not
+ * written again.
+ * 
+ * If a memory budget is configured the memory of the items in flight
+ * is limited by a {@link MemoryBudget}, large items can not exhaust the heap.
+ * 
+ * Items can also be imported offline from a Wikidata JSON dump file,
+ * see {@link WikidataDumpReader}. Compressed dumps which consist of 
+ * multiple streams are read by multiple threads, see {@link ParallelDumpReader}.
+ * A single-stream .gz or .bz2 dump is decompressed by one thread.
+ * Uncompressed dumps are mapped into memory and read by multiple threads,
+ * see {@link MappedDumpReader}.
  * 
  * Wikidata is a free knowledge base that can be read and edited by humans and machines alike. 
  * http://wikidata.org
@@ -51,26 +97,31 @@ public class WikidataCouchbaseImporter {
 
     private static final Logger LOG = Logger.getLogger(WikidataCouchbaseImporter.class);
  
-    private static final Integer MAX_NUMBER_PER_ITERATION_DEFAULT = 2000;
+    private static final int LOG_INTERVAL = 2000;
+    // Number of changed items which are compared with the database in one query
+    private static final int CHANGES_BATCH_SIZE = 1000;
     private static long TERMINATION_TIMEOUT_IN_MINUTES = 15;
     
     // Text for command line help output
-    private static final String USAGE = "java -jar wci.jar [-t <db_type>] [-u <db_url>] [-b <bucket>] [-f <first_id>] [-l <last_id>]";
+    private static final String USAGE = "java -jar wci.jar [-t <db_type>] [-u <db_url>] [-b <bucket>] [-f <first_id>] [-l <last_id>] [-bs <batch_size>] [-s dump <file> | -s changes [<file>]] [-si <since>] [-j <journal>] [-ts <tombstones>] [-ac <max>] [-dl <file>] [-if <file>] [-c <cache_dir>] [-hi <file>] [-mb <MB>] [-pt <threads>] [-vt]";
     private static final String HEADER = "Wikidata importer (WCI), Copyright (c) 2014 Daniel Murygin.";
     private static final String FOOTER = "For more instructions, see: http://murygin.wordpress.com/2014/02/22/wikidata-couchbase-importer/";
 
     Configuration conf;
     
-    private Integer startId;
-    private Integer stopId;
-    private int maxNumberPerIteration = MAX_NUMBER_PER_ITERATION_DEFAULT;
-    
-    private static ExecutorService taskExecutor;
-    private static Client jerseyClient = null;
+    private ImportScheduler scheduler;
+    private IFetchEngine fetchEngine = null;
     
     private PersistService persistService = null;
+    private CheckpointJournal journal = null;
+    private TombstoneBitmap tombstones = null;
+    private AdaptiveConcurrencyLimiter limiter = null;
+    private RetryLane retryLane = null;
+    private MemoryBudget memoryBudget = null;
+    private ImportPipeline pipeline = null;
     
     private long startTimestamp;
+    private long numberOfItems = 0;
 
     /**
      * Creates a WikidataCouchbaseImporter with default parameters.
@@ -113,9 +164,14 @@ public class WikidataCouchbaseImporter {
         } catch (NumberFormatException e) {
             LOG.error(e);
             printUsage(options);
+        } catch (IllegalArgumentException e) {
+            LOG.error(e);
+            printUsage(options);
         } catch (InterruptedException e) {
             LOG.error(e);
             printUsage(options);
+        } catch (IOException e) {
+            LOG.error("Error while reading dump file.", e);
         } finally {
             if(importer!=null) {
                 importer.shutdown();
@@ -126,46 +182,305 @@ public class WikidataCouchbaseImporter {
     private void init() {
         startTimestamp = initRuntime();
         
-        // init Jersey client
-        jerseyClient = Client.create();
-        
         persistService = new PersistService(conf);
 
         // init thread executer
-        taskExecutor = Executors.newFixedThreadPool(conf.getMaxNumberOfThreads());
+        if(isVirtualThreads()) {
+            scheduler = ImportScheduler.createVirtual(getMaxNumberOfVirtualThreads());
+        } else {
+            scheduler = new ImportScheduler(getNumberOfThreads());
+        }
+        if(conf.isMemoryBudget()) {
+            memoryBudget = new MemoryBudget(conf.getMemoryBudgetInMb() * 1024L * 1024L);
+            scheduler.setMemoryBudget(memoryBudget);
+            persistService.setMemoryBudget(memoryBudget);
+        }
+        
+        fetchEngine = createFetchEngine();
+    }
+    
+    private int getNumberOfThreads() {
+        if(conf.isAdaptiveConcurrency() && !isAsyncFetchEngine()) {
+            // every blocking request needs a thread
+            return Math.max(conf.getMaxNumberOfThreads(), conf.getMaxConcurrency());
+        }
+        return conf.getMaxNumberOfThreads();
+    }
+    
+    /**
+     * Dumps are parsed by platform threads, 
+     * virtual threads are used for web imports only.
+     */
+    private boolean isVirtualThreads() {
+        return conf.isVirtualThreads() && !Configuration.SOURCE_DUMP.equals(conf.getSource());
+    }
+    
+    private int getMaxNumberOfVirtualThreads() {
+        if(conf.isAdaptiveConcurrency()) {
+            return Math.max(conf.getMaxNumberOfRequests(), conf.getMaxConcurrency());
+        }
+        return conf.getMaxNumberOfRequests();
+    }
+    
+    private boolean isAsyncFetchEngine() {
+        return Configuration.FETCH_ENGINE_ASYNC.equals(conf.getFetchEngine());
+    }
+    
+    private IFetchEngine createFetchEngine() {
+        IFetchEngine engine;
+        int initialLimit;
+        if(isAsyncFetchEngine()) {
+            engine = new AsyncFetchEngine(conf, scheduler.getExecutor());
+            initialLimit = conf.getMaxNumberOfRequests();
+        } else {
+            engine = new JerseyFetchEngine();
+            initialLimit = isVirtualThreads() ? conf.getMaxNumberOfRequests() : conf.getMaxNumberOfThreads();
+        }
+        if(conf.isAdaptiveConcurrency()) {
+            limiter = new AdaptiveConcurrencyLimiter(initialLimit, conf.getMaxConcurrency());
+            engine = new AdaptiveFetchEngine(engine, limiter);
+        }
+        return engine;
     }
 
     /**
      * Run the import
      * @throws InterruptedException 
+     * @throws IOException 
      */
-    public void run() throws InterruptedException {
+    public void run() throws InterruptedException, IOException {
         LOG.info("Starting import...");
         logParameter();
-        setStartId(conf.getFirstId());
-        setStopId(0);
-        while(getStopId() < conf.getLastId()) {
-            if((conf.getLastId()-getStartId()) < maxNumberPerIteration) {
-                setStopId(conf.getLastId());
-            } else {
-                setStopId(getStartId()+maxNumberPerIteration);
+        if(Configuration.SOURCE_DUMP.equals(conf.getSource())) {
+            importDump();
+        } else if(Configuration.SOURCE_CHANGES.equals(conf.getSource())) {
+            importChanges();
+        } else {
+            importFromWeb();
+        }
+    }
+    
+    private void importDump() throws IOException, InterruptedException {
+        if(conf.getParallelism()>1 && DumpStreamIndex.isSupported(conf.getDumpFile())) {
+            ParallelDumpReader reader = new ParallelDumpReader(conf, persistService, scheduler);
+            reader.read(conf.getDumpFile());
+            numberOfItems = reader.getNumberOfItems();
+            return;
+        }
+        if(conf.getParallelism()>1 && MappedDumpReader.isSupported(conf.getDumpFile())) {
+            MappedDumpReader reader = new MappedDumpReader(conf, persistService, scheduler);
+            reader.read(conf.getDumpFile());
+            numberOfItems = reader.getNumberOfItems();
+            return;
+        }
+        WikidataDumpReader reader = new WikidataDumpReader(conf, persistService, scheduler);
+        reader.read(conf.getDumpFile());
+        numberOfItems = reader.getNumberOfItems();
+    }
+
+    private void importFromWeb() throws InterruptedException, IOException {
+        if(conf.getJournalFile()!=null) {
+            journal = new CheckpointJournal(conf.getJournalFile());
+        }
+        if(conf.getTombstoneFile()!=null) {
+            tombstones = new TombstoneBitmap(conf.getTombstoneFile(), TimeUnit.DAYS.toMillis(conf.getTombstoneTtlInDays()));
+        }
+        if(conf.getCacheDirectory()!=null) {
+            ResponseCache cache = new ResponseCache(conf.getCacheDirectory(), conf.getCacheSizeInMb() * 1024L * 1024L, TimeUnit.DAYS.toMillis(conf.getCacheMaxAgeInDays()));
+            fetchEngine = new CachingFetchEngine(fetchEngine, cache, scheduler);
+        }
+        createMemoryBudgetFetchEngine();
+        createPipeline();
+        createRetryLane();
+        if(conf.getIdsFile()!=null) {
+            importIds(RetryLane.readIds(conf.getIdsFile()));
+        } else {
+            importRange();
+        }
+        awaitCompletion();
+    }
+    
+    /**
+     * Imports the items which are changed since the last import.
+     * The revision ids of the recent changes are compared with the
+     * revision ids in the database, only changed items are loaded
+     * and replaced.
+     * Responses are never loaded from the cache.
+     */
+    private void importChanges() throws InterruptedException, IOException {
+        ChangeFeed changeFeed = new ChangeFeed();
+        if(conf.getChangesFile()!=null) {
+            LOG.info("Reading changes from file: " + conf.getChangesFile());
+            changeFeed.load(conf.getChangesFile());
+        } else {
+            String since = (conf.getSince()!=null) ? conf.getSince() : persistService.getLastModified();
+            if(since==null) {
+                throw new IllegalArgumentException("Start time of changes is unknown, use: --since <timestamp>");
+            }
+            LOG.info("Reading changes since: " + since);
+            changeFeed.load(conf.getWikidataUrl(), since);
+        }
+        Map<Integer, Long> changes = changeFeed.getChanges();
+        LOG.info("Changes: " + changeFeed.getNumberOfRevisions() + " revisions of " + changes.size() + " items, last change: " + changeFeed.getLastTimestamp());
+        createMemoryBudgetFetchEngine();
+        createPipeline();
+        createRetryLane();
+        List<Integer> ids = new ArrayList<Integer>(changes.keySet());
+        Collections.sort(ids);
+        long numberOfUnchangedItems = 0;
+        for (int i = 0; i < ids.size(); i += CHANGES_BATCH_SIZE) {
+            List<Integer> batch = ids.subList(i, Math.min(i + CHANGES_BATCH_SIZE, ids.size()));
+            Map<Integer, Long> revisionIds = persistService.getLastRevisionIds(batch);
+            logProgress(batch.get(0));
+            for (Integer id : batch) {
+                Long revisionId = revisionIds.get(id);
+                if(revisionId!=null && revisionId >= changes.get(id)) {
+                    numberOfUnchangedItems++;
+                    continue;
+                }
+                execute(createImportThread(id, id));
+                numberOfItems++;
+            }
+        }
+        awaitCompletion();
+        LOG.info("Changed items: " + numberOfItems + ", items which are up to date: " + numberOfUnchangedItems);
+    }
+    
+    /**
+     * Blocks until all items are saved or failed. The callbacks of an
+     * asynchronous fetch engine are not executed by the scheduler, 
+     * the requests in flight are finished before the pipeline. Buffered 
+     * documents are written before waiting for the retry lane, 
+     * documents which can not be written are retried too.
+     */
+    private void awaitCompletion() throws InterruptedException {
+        scheduler.awaitCompletion();
+        fetchEngine.awaitCompletion();
+        pipeline.awaitCompletion();
+        persistService.flush();
+        retryLane.awaitCompletion(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Wraps the fetch engine, cached responses are limited too.
+     */
+    private void createMemoryBudgetFetchEngine() {
+        if(memoryBudget!=null) {
+            fetchEngine = new MemoryBudgetFetchEngine(fetchEngine, memoryBudget);
+        }
+    }
+    
+    /**
+     * Creates the stages which parse, transform and save loaded items.
+     * Parsing and transforming is CPU bound, these stages have 
+     * one thread per core by default.
+     */
+    private void createPipeline() {
+        pipeline = new ImportPipeline(conf.getParallelism(), conf.getPersistThreads(), isVirtualThreads());
+        pipeline.setMemoryBudget(memoryBudget);
+    }
+    
+    private void createRetryLane() {
+        retryLane = new RetryLane(conf, fetchEngine, persistService);
+        retryLane.setJournal(journal);
+        retryLane.setTombstones(tombstones);
+        retryLane.setPipeline(pipeline);
+    }
+    
+    private void importRange() throws InterruptedException {
+        long id = conf.getFirstId();
+        if(journal!=null) {
+            id = journal.getLowWatermark(conf.getFirstId());
+            if(id > conf.getFirstId()) {
+                LOG.info("Resuming import at item " + id + "...");
+            }
+        }
+        long nextLogId = id;
+        numberOfItems = 0;
+        while(id <= conf.getLastId()) {
+            if(isSkipped((int) id)) {
+                id++;
+                continue;
+            }
+            if(id >= nextLogId) {
+                logProgress(id);
+                nextLogId = id + LOG_INTERVAL;
+            }
+            id = importItem((int) id) + 1L;
+        }
+    }
+    
+    /**
+     * Returns the number of ids of a range which are requested,
+     * completed ids and tombstones are skipped.
+     */
+    private int countPendingIds(int firstId, int lastId) {
+        int n = 0;
+        for (int id = firstId; id <= lastId; id++) {
+            if((journal==null || !journal.isCompleted(id)) && (tombstones==null || !tombstones.isTombstone(id))) {
+                n++;
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * Imports the items of a list one by one, 
+     * e.g. the ids of a dead-letter file.
+     */
+    private void importIds(List<Integer> ids) throws InterruptedException {
+        LOG.info("Importing " + ids.size() + " items from file: " + conf.getIdsFile());
+        int n = 0;
+        for (Integer id : ids) {
+            if(n % LOG_INTERVAL == 0) {
+                logProgress(id);
+            }
+            n++;
+            if(isSkipped(id)) {
+                continue;
             }
-            LOG.info("Importing item " + getStartId() + " to " + getStopId() + "...");
-            importItem(getStartId());
-            taskExecutor.shutdown();
-            taskExecutor.awaitTermination(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
-            taskExecutor = Executors.newFixedThreadPool(conf.getMaxNumberOfThreads());
-            setStartId(getStopId()+1);
+            execute(createImportThread(id, id));
+            numberOfItems++;
         }
     }
     
+    private boolean isSkipped(int id) {
+        if(journal!=null && journal.isCompleted(id)) {
+            return true;
+        }
+        // tombstones of batches are skipped by the batch import thread
+        return conf.getBatchSize()==1 && tombstones!=null && tombstones.skip(id);
+    }
+    
+    private void logProgress(long id) {
+        LOG.info("Importing item " + id + "..." + ((limiter!=null) ? " Concurrency limit: " + limiter.getLimit() : "")
+                + ((pipeline!=null) ? " Queues: " + pipeline.getQueueDepths() : ""));
+    }
+    
     private void shutdown() {
         try {
-            if(taskExecutor!=null) {
-                taskExecutor.shutdown();
-                taskExecutor.awaitTermination(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+            if(scheduler!=null) {
+                // items fail until all requests and writes are finished
+                fetchEngine.shutdown();
+                scheduler.shutdown(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+                if(pipeline!=null) {
+                    pipeline.shutdown(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+                }
+                if(retryLane!=null) {
+                    persistService.flush();
+                    retryLane.shutdown();
+                }
+                if(journal!=null) {
+                    journal.close();
+                }
+                if(tombstones!=null) {
+                    tombstones.close();
+                }
                 persistService.shutdown();
-                logStatistics(startTimestamp, conf.getFirstId(), conf.getLastId());
+                if(memoryBudget!=null) {
+                    memoryBudget.logStatistics();
+                }
+                logStatistics(startTimestamp, numberOfItems);
             }             
         } catch (Exception e) {
             LOG.error("Error while shutting down.", e);
@@ -174,42 +489,59 @@ public class WikidataCouchbaseImporter {
 
     /**
      * Loads an item from Wikidata and saves it in a database.
+     * If batch size is greater than 1 the item and the following
+     * items are loaded with one request.
      * 
      * Loading and saving is done concurrently by multiple
-     * {@link WikidataImportThread}s.
+     * {@link WikidataImportThread}s or {@link WikidataBatchImportThread}s.
+     * 
+     * This method blocks until the scheduler accepts the
+     * import thread. If the fetch engine is asynchronous the import
+     * thread is started in the calling thread and this method blocks 
+     * until the engine accepts the request. Responses are passed to
+     * the {@link ImportPipeline} by the worker threads of the scheduler.
      * 
      * @param id The id of a wikidata item
+     * @return The id of the last item which is imported
+     * @throws InterruptedException 
      */
-    private void importItem(int id) {
+    private int importItem(int id) throws InterruptedException {
+        int last = (int) Math.min((long) id + conf.getBatchSize() - 1, conf.getLastId());
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Importing item " + id);
+            LOG.debug("Importing item " + id + ((last>id) ? " to " + last : ""));
         }
 
-        WikidataImportThread exportThread = new WikidataImportThread(jerseyClient, persistService, id);
-        
-        taskExecutor.execute(exportThread);
-        int next = id + 1;
-        if(next <= getStopId()) {
-            importItem(next);
-        }
+        // counted before the items are completed by the import thread
+        numberOfItems += countPendingIds(id, last);
+        execute(createImportThread(id, last));
+        return last;
     }
     
-    public Integer getStartId() {
-        return startId;
-    }
-
-    public void setStartId(Integer startId) {
-        this.startId = startId;
-    }
-
-    public Integer getStopId() {
-        return stopId;
+    private void execute(Runnable importThread) throws InterruptedException {
+        if(fetchEngine.isAsync()) {
+            importThread.run();
+        } else {
+            scheduler.execute(importThread);
+        }
     }
-
-    public void setStopId(Integer stopId) {
-        this.stopId = stopId;
+    
+    private Runnable createImportThread(int firstId, int lastId) {
+        if(conf.getBatchSize()>1) {
+            WikidataBatchImportThread thread = new WikidataBatchImportThread(fetchEngine, persistService, conf.getWikidataUrl(), firstId, lastId);
+            thread.setJournal(journal);
+            thread.setTombstones(tombstones);
+            thread.setRetryLane(retryLane);
+            thread.setPipeline(pipeline);
+            return thread;
+        }
+        WikidataImportThread thread = new WikidataImportThread(fetchEngine, persistService, conf.getWikidataUrl(), firstId);
+        thread.setJournal(journal);
+        thread.setTombstones(tombstones);
+        thread.setRetryLane(retryLane, 1);
+        thread.setPipeline(pipeline);
+        return thread;
     }
-
+    
     private static void printUsage(Options options) {
         HelpFormatter helpFormatter = new HelpFormatter( );
         helpFormatter.setWidth( 80 );
@@ -234,12 +566,46 @@ public class WikidataCouchbaseImporter {
         
         LOG.info("Server urls: " + sb.toString());
         LOG.info("Database / bucket: " + conf.getDb());
-        LOG.info("Number of threads: " + conf.getMaxNumberOfThreads());
+        LOG.info("Source: " + conf.getSource() + ((conf.getDumpFile()!=null) ? " " + conf.getDumpFile() : "") + ((conf.getChangesFile()!=null) ? " " + conf.getChangesFile() : ""));
+        if(isVirtualThreads()) {
+            LOG.info("Virtual threads, max. number of items in flight: " + getMaxNumberOfVirtualThreads());
+        } else {
+            LOG.info("Number of threads: " + conf.getMaxNumberOfThreads());
+        }
+        LOG.info("Batch size: " + conf.getBatchSize());
+        if(conf.getJournalFile()!=null) {
+            LOG.info("Journal: " + conf.getJournalFile());
+        }
+        if(conf.getIdsFile()!=null) {
+            LOG.info("Ids from: " + conf.getIdsFile());
+        }
+        LOG.info("Dead-letter file: " + conf.getDeadLetterFile());
+        if(conf.getCacheDirectory()!=null) {
+            LOG.info("Response cache: " + conf.getCacheDirectory() + ", max. size: " + conf.getCacheSizeInMb() + " MB, max. age: " + conf.getCacheMaxAgeInDays() + " days");
+        }
+        if(conf.getTombstoneFile()!=null) {
+            LOG.info("Tombstones: " + conf.getTombstoneFile() + ", time to live: " + conf.getTombstoneTtlInDays() + " days");
+        }
+        if(conf.getContentHashFile()!=null) {
+            LOG.info("Content hashes: " + conf.getContentHashFile());
+        }
+        if(conf.isMemoryBudget()) {
+            LOG.info("Memory budget: " + conf.getMemoryBudgetInMb() + " MB");
+        }
+        LOG.info("Fetch engine: " + conf.getFetchEngine());
+        if(!Configuration.SOURCE_DUMP.equals(conf.getSource())) {
+            LOG.info("Pipeline threads, parse: " + conf.getParallelism() + ", transform: " + conf.getParallelism() + ", persist: " + conf.getPersistThreads() + (isVirtualThreads() ? " (virtual)" : ""));
+        }
+        if(fetchEngine.isAsync()) {
+            LOG.info("Max. number of requests: " + conf.getMaxNumberOfRequests());
+        }
+        if(conf.isAdaptiveConcurrency()) {
+            LOG.info("Adaptive concurrency, max. number of requests: " + conf.getMaxConcurrency());
+        }
     }
     
 
-    private static void logStatistics(long startTimestamp, int startId, int endId) {
-       int n = endId - startId + 1;
+    private static void logStatistics(long startTimestamp, long n) {
        long runtimeInMs = System.currentTimeMillis()-startTimestamp;
        LOG.info("Import finished. " + n + " items imported.");
        logRuntime("Runtime: ", runtimeInMs);
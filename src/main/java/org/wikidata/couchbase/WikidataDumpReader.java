@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * WikidataDumpReader reads a Wikidata JSON dump file and saves all items
+ * with an id between first and last id of the configuration in a database.
+ * 
+ * The file is read with the streaming parser of Jackson, only one entity
+ * is held in memory by the reader. Files with extension .gz or .bz2 are
+ * decompressed on the fly. Entities are saved by the worker threads
+ * of an {@link ImportScheduler}.
+ * 
+ * Wikidata dumps - http://dumps.wikimedia.org/other/wikidata/
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class WikidataDumpReader {
+
+    private static final Logger LOG = Logger.getLogger(WikidataDumpReader.class);
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int LOG_INTERVAL = 100000;
+    
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    
+    private Configuration conf;
+    private PersistService persistService;
+    private ImportScheduler scheduler;
+    
+    private long numberOfEntities = 0;
+    private long numberOfItems = 0;
+    
+    public WikidataDumpReader(Configuration conf, PersistService persistService, ImportScheduler scheduler) {
+        super();
+        this.conf = conf;
+        this.persistService = persistService;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Reads the dump file and saves all items in the database.
+     * 
+     * @param dumpFile Path to a dump file
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void read(String dumpFile) throws IOException, InterruptedException {
+        LOG.info("Reading dump file: " + dumpFile + "...");
+        InputStream in = openDumpFile(dumpFile);
+        try {
+            JsonFactory factory = MAPPER.getFactory();
+            JsonParser parser = factory.createParser(in);
+            try {
+                readEntities(parser);
+            } finally {
+                parser.close();
+            }
+        } finally {
+            in.close();
+        }
+        scheduler.awaitCompletion();
+        LOG.info("Dump file read, entities: " + numberOfEntities + ", items saved: " + numberOfItems);
+    }
+
+    private void readEntities(JsonParser parser) throws IOException, InterruptedException {
+        JsonToken token = parser.nextToken();
+        if(token==JsonToken.START_ARRAY) {
+            // Dumps are one JSON array with one entity per line
+            token = parser.nextToken();
+        }
+        while(token!=null && token!=JsonToken.END_ARRAY) {
+            if(token==JsonToken.START_OBJECT) {
+                long startOffset = parser.getTokenLocation().getByteOffset();
+                JsonNode entity = parser.readValueAsTree();
+                long length = parser.getCurrentLocation().getByteOffset() - startOffset;
+                numberOfEntities++;
+                handleEntity(entity, length);
+                if(numberOfEntities % LOG_INTERVAL == 0) {
+                    LOG.info("Entities read: " + numberOfEntities + ", items saved: " + numberOfItems);
+                }
+            }
+            token = parser.nextToken();
+        }
+    }
+
+    /**
+     * Passes an entity to the scheduler.
+     * 
+     * @param entity An entity of the dump
+     * @param length The length of the entity in the dump in bytes, used for the memory budget
+     */
+    private void handleEntity(final JsonNode entity, long length) throws InterruptedException {
+        final Integer id = EntityData.parseItemId(entity.path("id").textValue());
+        if(id==null || id < conf.getFirstId() || id > conf.getLastId()) {
+            return;
+        }
+        numberOfItems++;
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveEntity(id, entity);
+            }
+        }, MemoryBudget.getSize(length));
+    }
+
+    private void saveEntity(Integer id, JsonNode entity) {
+        try {
+            persistService.save(id, EntityData.toJson(id, entity));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Item " + id + " saved in db.");
+            }
+        } catch (Exception e) {
+            LOG.warn("Item " + id + " was not exported. Unknow error: " + e.getMessage());
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Stacktrace: ", e);
+            }
+        }
+    }
+
+    /**
+     * Opens a dump file, files with extension .gz or .bz2
+     * are decompressed.
+     * 
+     * @param dumpFile Path to a dump file
+     * @return An input stream of the uncompressed dump
+     * @throws IOException
+     */
+    public static InputStream openDumpFile(String dumpFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(dumpFile), BUFFER_SIZE);
+        try {
+            if(dumpFile.endsWith(".gz")) {
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            if(dumpFile.endsWith(".bz2")) {
+                // Dumps may consist of multiple concatenated bzip2 streams
+                return new BZip2CompressorInputStream(in, true);
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    public long getNumberOfEntities() {
+        return numberOfEntities;
+    }
+
+    public long getNumberOfItems() {
+        return numberOfItems;
+    }
+    
+}
@@ -21,38 +21,57 @@ package org.wikidata.couchbase;
 
 import org.apache.log4j.Logger;
 
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.UniformInterfaceException;
-import com.sun.jersey.api.client.WebResource;
-
 /**
- * This thread loads information about an item from wikidata
- * ans saves JSON response in a database.
+ * This task loads information about an item from wikidata
+ * ans saves JSON response in a database. It is executed by a thread
+ * of an {@link ImportScheduler}, a platform or a virtual thread.
  * 
  * {@link WikidataCouchbaseImporter} uses multiple WikidataImportThread
  * to import data from wikidata
  * 
+ * The item is loaded by a {@link IFetchEngine}. If the engine is
+ * asynchronous the response is handled in a worker thread of the engine.
+ * The response is parsed and saved by the stages of an {@link ImportPipeline}.
+ * The item is completed when the write is confirmed by the database,
+ * see {@link IWriteCallback}.
+ * 
  * wikidata API - http://www.wikidata.org/wiki/Wikidata:Data_access
  *
  * @author Daniel Murygin <dm[at]sernet[dot]de>
  */
-public class WikidataImportThread extends Thread {
+public class WikidataImportThread implements Runnable, IFetchCallback, IPipelineItem, IWriteCallback {
     
     private static final Logger LOG = Logger.getLogger(WikidataImportThread.class);
     
-    Client jerseyClient = null;
+    private static final int HTTP_NOT_FOUND = 404;
+    
+    IFetchEngine fetchEngine = null;
     PersistService persistService = null;
     Integer startId;
+    String wikidataUrl = Configuration.WIKIDATA_URL_DEFAULT;
+    CheckpointJournal journal = null;
+    TombstoneBitmap tombstones = null;
+    RetryLane retryLane = null;
+    ImportPipeline pipeline = ImportPipeline.DIRECT;
+    int attempt = 1;
     
-    public WikidataImportThread(Client jerseyClient, PersistService persistService, Integer startId) {
+    private String jsonResponse;
+    private ItemDocument document;
+    
+    public WikidataImportThread(IFetchEngine fetchEngine, PersistService persistService, Integer startId) {
         super();
-        this.jerseyClient = jerseyClient;
+        this.fetchEngine = fetchEngine;
         this.persistService = persistService;
         this.startId = startId;
     }
     
+    public WikidataImportThread(IFetchEngine fetchEngine, PersistService persistService, String wikidataUrl, Integer startId) {
+        this(fetchEngine, persistService, startId);
+        this.wikidataUrl = wikidataUrl;
+    }
+    
     /* (non-Javadoc)
-     * @see java.lang.Thread#run()
+     * @see java.lang.Runnable#run()
      */
     @Override
     public void run() {
@@ -63,62 +82,202 @@ public class WikidataImportThread extends Thread {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Loading item with id: " + startId + " from wikidata...");
         }
+        String url = buildWebserviceUrl(startId);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Webservice URL: " + url);
+        }
+        try {
+            fetchEngine.fetch(url, this);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Item " + startId + " was not exported. Import was interrupted.");
+            retry("Import was interrupted.");
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchCallback#completed(java.lang.String)
+     */
+    @Override
+    public void completed(String jsonResponse) {
+        this.jsonResponse = jsonResponse;
         try {
-            String jsonResponse = getItemAsJson(startId);         
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Wikidata JSON response: " + jsonResponse);
-            } 
-            saveJsonInDatabase(startId, jsonResponse);   
-            if (LOG.isInfoEnabled()) {
-                LOG.info("Item " + startId + " saved in db.");
-            }
-        } catch (UniformInterfaceException uie) {
-            int status = -1;
-            if(uie!=null && uie.getResponse()!=null) {
-                status = uie.getResponse().getStatus();
-            }
+            pipeline.submit(this, MemoryBudget.getSize(jsonResponse));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Item " + startId + " was not exported. Import was interrupted.");
+            retry("Import was interrupted.");
+        } catch (RuntimeException e) {
+            failed(e);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#parse()
+     */
+    @Override
+    public boolean parse() throws Exception {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Wikidata JSON response: " + jsonResponse);
+        } 
+        String entityId = EntityData.getEntityId(jsonResponse);
+        if(!EntityData.buildEntityId(startId).equals(entityId)) {
+            // the item is redirected to another item
+            LOG.warn("Item " + startId + " was not exported. Item is redirected to: " + entityId);
+            markTombstone(startId);
+            markCompleted(startId);
+            return false;
+        }
+        return true;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#transform()
+     */
+    @Override
+    public boolean transform() throws Exception {
+        document = persistService.createDocument(startId, jsonResponse);
+        jsonResponse = null;
+        if(document==null) {
+            // the item is unchanged
+            markCompleted(startId);
+            return false;
+        }
+        document.setCallback(this);
+        return true;
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#persist()
+     */
+    @Override
+    public void persist() throws Exception {
+        ItemDocument document = this.document;
+        this.document = null;
+        persistService.save(document);
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IWriteCallback#written(java.lang.Integer)
+     */
+    @Override
+    public void written(Integer id) {
+        markSaved(id);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Item " + id + " saved in db.");
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IWriteCallback#writeFailed(java.lang.Integer, java.lang.Exception)
+     */
+    @Override
+    public void writeFailed(Integer id, Exception e) {
+        LOG.warn("Item " + id + " was not saved. Error: " + e.getMessage());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stacktrace: ", e);
+        }
+        retry(e.getMessage());
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPipelineItem#failed(java.lang.Exception)
+     */
+    @Override
+    public void failed(Exception e) {
+        jsonResponse = null;
+        document = null;
+        LOG.warn("Item " + startId + " was not exported. Unknow error: " + e.getMessage());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stacktrace: ", e);
+        }
+        retry(e.getMessage());
+    }
+    
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IFetchCallback#failed(int, java.lang.Exception)
+     */
+    @Override
+    public void failed(int status, Exception e) {
+        if(status==HTTP_NOT_FOUND) {
+            // the item does not exist, there is nothing to import
+            markTombstone(startId);
+            markCompleted(startId);
+        }
+        if(status>=0) {
             LOG.warn("Item " + startId + " was not exported. HTTP error: " + status);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Stacktrace: ", uie);
-            }
-        } catch (com.sun.jersey.api.client.ClientHandlerException che) {     
-            LOG.warn("Item " + startId + " was not exported. Unknow error, maybe a network problem: " + che.getMessage());
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Stacktrace: ", che);
-            }
-        }
-        
-        catch (Exception e) {
-            LOG.warn("Item " + startId + " was not exported. Unknow error: " + e.getMessage());
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Stacktrace: ", e);
-            }
-        }
-    }
-    
-    private String getItemAsJson(Integer id) {
-        String url = buildWebserviceUrl(id);
-        
+        } else {
+            LOG.warn("Item " + startId + " was not exported. Unknow error, maybe a network problem: " + e.getMessage());
+        }
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Webservice URL: " + url);
+            LOG.debug("Stacktrace: ", e);
+        }
+        if(status!=HTTP_NOT_FOUND) {
+            retry("HTTP status: " + status + ", " + ((e!=null) ? e.getMessage() : null));
         }
-        
-        WebResource webResource = jerseyClient.resource(url);
-        String jsonResponse = webResource.get(String.class);
-        return jsonResponse;
     }
 
-    private void saveJsonInDatabase(Integer id, String jsonResponse) {
-        persistService.save(id, jsonResponse);
-        
+    private void markCompleted(Integer id) {
+        if(journal!=null) {
+            journal.markCompleted(id);
+        }
+        if(retryLane!=null) {
+            retryLane.completed(id);
+        }
+    }
+    
+    private void markSaved(Integer id) {
+        if(journal!=null) {
+            journal.markCompleted(id);
+        }
+        if(retryLane!=null) {
+            retryLane.saved(id);
+        }
+    }
+    
+    private void retry(String reason) {
+        if(retryLane!=null) {
+            retryLane.failed(startId, attempt, reason);
+        }
+    }
+    
+    private void markTombstone(Integer id) {
+        if(tombstones!=null) {
+            tombstones.add(id);
+        }
     }
     
     private String buildWebserviceUrl(Integer id) {
         StringBuilder sb = new StringBuilder();
-        sb.append("https://www.wikidata.org/wiki/Special:EntityData/Q");
+        sb.append(wikidataUrl);
+        sb.append("/wiki/Special:EntityData/Q");
         sb.append(id);
         sb.append(".json");    
         return sb.toString();
     }
 
+    public void setJournal(CheckpointJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setTombstones(TombstoneBitmap tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * @param pipeline The pipeline which parses and saves the item
+     */
+    public void setPipeline(ImportPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * @param retryLane The lane which retries the item if it fails
+     * @param attempt The number of the attempt, starting with 1
+     */
+    public void setRetryLane(RetryLane retryLane, int attempt) {
+        this.retryLane = retryLane;
+        this.attempt = attempt;
+    }
+
 }
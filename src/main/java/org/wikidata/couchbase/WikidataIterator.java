@@ -19,9 +19,11 @@
  ******************************************************************************/
 package org.wikidata.couchbase;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,11 +32,21 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.log4j.Logger;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DBCursor;
-
 /**
- *
+ * Processes all items in the database with {@link ClaimProcessor}s.
+ * 
+ * The range of item ids is split recursively into ranges on a fork-join 
+ * pool, idle threads steal ranges from busy threads. Every range is streamed
+ * from one cursor by a {@link WikidataIteratorThread}, the number of tasks
+ * does not depend on the number of items.
+ * 
+ * With virtual threads every range is processed in a virtual thread,
+ * the number of ranges in flight is limited by the number of threads.
+ * Ranges wait for the database most of the time, a virtual thread
+ * does not block a platform thread while it waits.
+ * 
+ * The iterator supports MongoDB only, items are not indexed
+ * by id in Couchbase.
  *
  * @author Daniel Murygin <dm[at]sernet[dot]de>
  */
@@ -45,13 +57,13 @@ public class WikidataIterator {
     private static long TERMINATION_TIMEOUT_IN_MINUTES = 15;
     
     // Text for command line help output
-    private static final String USAGE = "java -jar wci.jar [-t <db_type>] [-u <db_url>] [-b <bucket>] [-f <first_id>] [-l <last_id>]";
+    private static final String USAGE = "java -jar wci.jar [-t <db_type>] [-u <db_url>] [-b <bucket>] [-f <first_id>] [-l <last_id>] [-pr <properties>] [-vt]";
     private static final String HEADER = "Wikidata iterator, Copyright (c) 2014 Daniel Murygin.";
     private static final String FOOTER = "For more instructions, see: http://murygin.wordpress.com/2014/02/22/wikidata-couchbase-importer/";
 
-    private String property = "P31";
-
-    private int numberPerThread = 10;
+    private static final int RANGES_PER_THREAD = 16;
+    private static final int LABEL_CACHE_SIZE = 100000;
+    
     private long startTimestamp;
     
     private Configuration conf;
@@ -59,9 +71,13 @@ public class WikidataIterator {
     private Integer startId;
     private Integer stopId;
     
-    private static ExecutorService taskExecutor;
+    private static ForkJoinPool taskExecutor;
+    
+    private AtomicLong numberOfItems = new AtomicLong();
     
     private PersistService persistService = null;
+    
+    private LabelCache labelCache = new LabelCache(LABEL_CACHE_SIZE);
       
     /**
      * 
@@ -73,10 +89,15 @@ public class WikidataIterator {
     }
 
     private void init() {
+        if(Configuration.DB_TYPE_COUCHBASE.equals(conf.getDbType())) {
+            throw new IllegalArgumentException("The iterator supports MongoDB only, use: -t mongo");
+        }
         startTimestamp = initRuntime();
 
         // init thread executer
-        taskExecutor = Executors.newFixedThreadPool(conf.getMaxNumberOfThreads());
+        if(!conf.isVirtualThreads()) {
+            taskExecutor = new ForkJoinPool(conf.getMaxNumberOfThreads());
+        }
         
         persistService = new PersistService(conf);
     }
@@ -84,22 +105,97 @@ public class WikidataIterator {
     private void run() throws InterruptedException {
         LOG.info("Start iterating...");      
         if(conf.getLastId()==null) {
-            conf.setLastId((int)persistService.count());
+            Integer maxItemId = persistService.getMaxItemId();
+            conf.setLastId((maxItemId!=null) ? maxItemId : conf.getFirstId() - 1);
         }
         logParameter();
+        // Every range of ids is processed by exactly one thread
+        long numberOfIds = (long) conf.getLastId() - conf.getFirstId() + 1;
+        long numberOfRanges = (long) conf.getMaxNumberOfThreads() * RANGES_PER_THREAD;
+        long rangeSize = Math.max(1, (numberOfIds + numberOfRanges - 1) / numberOfRanges);
         setStartId(conf.getFirstId());
-        setStopId(0);
-        while(getStopId() < conf.getLastId()) {
-            if((conf.getLastId()-getStartId()) < numberPerThread) {
-                setStopId(conf.getLastId());
-            } else {
-                setStopId(getStartId()+numberPerThread);
+        setStopId((int) Math.min((long) conf.getLastId() + 1, Integer.MAX_VALUE));
+        if(getStartId() >= getStopId()) {
+            return;
+        }
+        if(conf.isVirtualThreads()) {
+            processRangesInVirtualThreads(rangeSize);
+        } else {
+            taskExecutor.invoke(new RangeTask(getStartId(), getStopId(), rangeSize));
+        }
+    }
+    
+    /**
+     * Processes every range in a new virtual thread. Blocks until 
+     * all ranges are processed.
+     */
+    private void processRangesInVirtualThreads(long rangeSize) throws InterruptedException {
+        ImportScheduler scheduler = ImportScheduler.createVirtual(conf.getMaxNumberOfThreads());
+        try {
+            for (long id = getStartId(); id < getStopId(); id += rangeSize) {
+                final int firstId = (int) id;
+                final int stopId = (int) Math.min(id + rangeSize, getStopId());
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            processRange(firstId, stopId);
+                        } catch (Exception e) {
+                            LOG.error("Error while processing items " + firstId + " to " + (stopId - 1), e);
+                        }
+                    }
+                });
             }
-            LOG.info("Importing item " + getStartId() + " to " + getStopId() + "...");
-            WikidataIteratorThread thread = new WikidataIteratorThread(persistService, getStartId(),numberPerThread);
-            thread.addProcessor(new ClaimProcessor(property));
-            taskExecutor.execute(thread);
-            setStartId(getStopId()+1);
+            scheduler.awaitCompletion();
+        } finally {
+            scheduler.shutdown(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+    
+    private void processRange(int firstId, int stopId) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Processing items " + firstId + " to " + (stopId - 1) + "...");
+        }
+        WikidataIteratorThread thread = new WikidataIteratorThread(persistService, firstId, stopId);
+        thread.addProcessor(new ClaimProcessor(conf.getProperties(), labelCache));
+        thread.run();
+        numberOfItems.addAndGet(thread.getNumberOfItems());
+    }
+    
+    /**
+     * Splits a range of item ids in halves until it is not 
+     * larger than the range size and processes it.
+     */
+    class RangeTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        int firstId;
+        int stopId;
+        long rangeSize;
+        
+        RangeTask(int firstId, int stopId, long rangeSize) {
+            super();
+            this.firstId = firstId;
+            this.stopId = stopId;
+            this.rangeSize = rangeSize;
+        }
+
+        /* (non-Javadoc)
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if((long) stopId - firstId <= rangeSize) {
+                try {
+                    processRange(firstId, stopId);
+                } catch (Exception e) {
+                    LOG.error("Error while processing items " + firstId + " to " + (stopId - 1), e);
+                }
+                return;
+            }
+            int middleId = (int) (((long) firstId + stopId) / 2);
+            invokeAll(new RangeTask(firstId, middleId, rangeSize), new RangeTask(middleId, stopId, rangeSize));
         }
     }
 
@@ -107,11 +203,17 @@ public class WikidataIterator {
 
     private void shutdown() {
         try {
-            if(taskExecutor!=null) {
-                taskExecutor.shutdown();
-                taskExecutor.awaitTermination(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
-                logStatistics(startTimestamp,conf.getFirstId(), conf.getLastId());
+            if(persistService!=null) {
+                if(taskExecutor!=null) {
+                    taskExecutor.shutdown();
+                    taskExecutor.awaitTermination(TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES);
+                }
+                // buffered claims are written before they are counted
+                persistService.flush();
+                logStatistics(startTimestamp, numberOfItems.get());
+                logLabelCacheStatistics();
                 logDbStatus();
+                persistService.shutdown();
             }             
         } catch (Exception e) {
             LOG.error("Error while shutting down.", e);
@@ -119,13 +221,19 @@ public class WikidataIterator {
         
     }
 
+    private void logLabelCacheStatistics() {
+        LOG.info("Label cache hits: " + labelCache.getNumberOfHits() + ", misses: " + labelCache.getNumberOfMisses() 
+                + ", hit rate: " + labelCache.getHitRate() + " %, evictions: " + labelCache.getNumberOfEvictions());
+    }
+
     /**
      * 
      */
     private void logDbStatus() {
-        BasicDBObject doc = new BasicDBObject("property", property);
-        DBCursor cursor = persistService.find(doc);
-        LOG.info("Number of " + property + " properties in DB: " + cursor.count());
+        for (String property : conf.getProperties()) {
+            String collectionName = ClaimProcessor.getCollectionName(property);
+            LOG.info("Number of " + property + " properties in DB: " + persistService.count(collectionName) + " (collection: " + collectionName + ")");
+        }
     }
 
     /**
@@ -197,14 +305,14 @@ public class WikidataIterator {
         
         LOG.info("Server urls: " + sb.toString());
         LOG.info("Database / bucket: " + conf.getDb());
-        LOG.info("Number of threads: " + conf.getMaxNumberOfThreads());
+        LOG.info("Number of threads: " + conf.getMaxNumberOfThreads() + (conf.isVirtualThreads() ? " (virtual)" : ""));
+        LOG.info("Properties: " + Arrays.toString(conf.getProperties()));
     }
     
 
-    private static void logStatistics(long startTimestamp, int startId, int endId) {
-       int n = endId - startId + 1;
+    private static void logStatistics(long startTimestamp, long n) {
        long runtimeInMs = System.currentTimeMillis()-startTimestamp;
-       LOG.info("Import finished. " + n + " items imported.");
+       LOG.info("Iteration finished. " + n + " items processed.");
        logRuntime("Runtime: ", runtimeInMs);
        double itemsPerSecond = n / (runtimeInMs / 1000.0);
        LOG.info("Items per second: " + itemsPerSecond);  
@@ -19,56 +19,125 @@
  ******************************************************************************/
 package org.wikidata.couchbase;
 
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.mongodb.DBObject;
 
 /**
- *
+ * Processes all items with an id in a range. Items are streamed
+ * from one cursor with a range query on the numeric item id.
+ * Items are decoded from BSON to JSON nodes by the persist service.
+ * The processors are flushed after every {@link #BATCH_SIZE} items.
+ * 
+ * Only the fields which are required by the processors
+ * are loaded, see {@link IITemProcessor#getRequiredFields()}.
+ * 
+ * The range is processed in the calling thread, a thread of the fork-join
+ * pool or a virtual thread, see {@link WikidataIterator}.
  *
  * @author Daniel Murygin <dm[at]sernet[dot]de>
  */
-public class WikidataIteratorThread extends Thread {
+public class WikidataIteratorThread implements Runnable {
 
     private static final Logger LOG = Logger.getLogger(WikidataImportThread.class);
     
+    public static final int BATCH_SIZE = 100;
+    
     PersistService persistService = null;
-    ObjectMapper mapper = new ObjectMapper();
-    Integer start;
-    Integer limit;
+    Integer firstId;
+    Integer stopId;
     
     List<IITemProcessor> itemProcessors;
     
-    public WikidataIteratorThread(PersistService persistService, Integer start, Integer limit) {
+    long numberOfItems = 0;
+    
+    /**
+     * @param persistService 
+     * @param firstId First item id of the range
+     * @param stopId Item id after the last item id of the range
+     */
+    public WikidataIteratorThread(PersistService persistService, Integer firstId, Integer stopId) {
         super();
         itemProcessors = new LinkedList<IITemProcessor>();
         this.persistService = persistService;
-        this.start = start;
-        this.limit = limit;
+        this.firstId = firstId;
+        this.stopId = stopId;
     }
 
     /* (non-Javadoc)
-     * @see java.lang.Thread#run()
+     * @see java.lang.Runnable#run()
      */
     @Override
     public void run() {
         for (IITemProcessor processor : itemProcessors) {
             processor.setPersistService(persistService);
         }
-        List<DBObject> itemList = persistService.load(start, limit);
-        for (DBObject dbObject : itemList) {
+        ItemCursor cursor = persistService.scan(firstId, stopId, getRequiredFields());
+        try {
+            while(cursor.hasNext()) {
+                JsonNode item = cursor.next();
+                try {
+                    processItem(item);
+                } catch (Exception e) {
+                    LOG.error("Error while processing item: " + item.path("_id").textValue(), e);
+                }
+                numberOfItems++;
+                if(numberOfItems % BATCH_SIZE == 0) {
+                    flushProcessors();
+                }
+            }
+        } finally {
+            cursor.close();
+            flushProcessors();
+        }
+    }
+    
+    /**
+     * @return The fields which are required by all processors or null if all fields are required
+     */
+    private String[] getRequiredFields() {
+        // sorted, a path is in front of its sub paths
+        Set<String> fieldSet = new TreeSet<String>();
+        fieldSet.add(MongoPersistHandler.ITEM_ID_FIELD_NAME);
+        for (IITemProcessor processor : itemProcessors) {
+            String[] fields = processor.getRequiredFields();
+            if(fields==null) {
+                return null;
+            }
+            for (String field : fields) {
+                fieldSet.add(field);
+            }
+        }
+        // a projection must not contain a path and one of its sub paths
+        List<String> fieldList = new LinkedList<String>();
+        for (String field : fieldSet) {
+            if(!isSubPath(field, fieldList)) {
+                fieldList.add(field);
+            }
+        }
+        return fieldList.toArray(new String[fieldList.size()]);
+    }
+    
+    private static boolean isSubPath(String field, List<String> fieldList) {
+        for (String path : fieldList) {
+            if(field.startsWith(path + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void flushProcessors() {
+        for (IITemProcessor processor : itemProcessors) {
             try {
-                processItem(createNode(dbObject));
+                processor.flush();
             } catch (Exception e) {
-                LOG.error("Error while processing db-object: " + dbObject, e);
+                LOG.error("Error while flushing processor: " + processor, e);
             }
         }
     }
@@ -82,19 +151,11 @@ public class WikidataIteratorThread extends Thread {
         }
     }
     
-    protected List<JsonNode> createNodeList(List<DBObject> result) throws IOException, JsonProcessingException {
-        List<JsonNode> jsonNodeList = new ArrayList<JsonNode>(result.size());
-        for (DBObject dbObject : result) {
-            jsonNodeList.add(createNode(dbObject));
-        }
-        return jsonNodeList;
-    }
-    
-    protected JsonNode createNode(DBObject dbObject) throws JsonProcessingException, IOException {
-        return mapper.readTree(dbObject.toString());
-    }
-    
     public void addProcessor(IITemProcessor processor) {
         itemProcessors.add(processor);
     }
+    
+    public long getNumberOfItems() {
+        return numberOfItems;
+    }
 }
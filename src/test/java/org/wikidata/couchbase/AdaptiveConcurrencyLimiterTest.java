@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the limit of an {@link AdaptiveConcurrencyLimiter}
+ * after throttled and successful requests.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long LATENCY_IN_MS = 10;
+
+    @Test
+    public void testThrottleDecreasesLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 16);
+        limiter.acquire();
+        limiter.onThrottled(0);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(1, limiter.getNumberOfThrottledRequests());
+        assertEquals(0, limiter.getNumberOfRequestsInFlight());
+    }
+
+    @Test
+    public void testBurstOfThrottlesIsOneSignal() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 16);
+        // the limit is decreased at most once per latency interval
+        limiter.acquire();
+        limiter.onResponse(1000);
+        for (int i = 0; i < 8; i++) {
+            limiter.acquire();
+        }
+        for (int i = 0; i < 8; i++) {
+            limiter.onThrottled(0);
+        }
+        assertEquals(4, limiter.getLimit());
+        assertEquals(8, limiter.getNumberOfThrottledRequests());
+    }
+
+    @Test
+    public void testLimitRecovers() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+        limiter.acquire();
+        limiter.onThrottled(0);
+        assertEquals(4, limiter.getLimit());
+        // every response with all permits in use increases the limit by 1 / limit
+        int responses = 0;
+        while(limiter.getLimit() < 8 && responses < 100) {
+            acquireAll(limiter);
+            limiter.onResponse(LATENCY_IN_MS);
+            releaseAll(limiter);
+            responses++;
+        }
+        assertEquals(8, limiter.getLimit());
+        assertTrue("Responses until the limit recovered: " + responses, responses > 4);
+    }
+
+    @Test
+    public void testLimitIsNotIncreasedBelowLimit() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 8);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.onResponse(LATENCY_IN_MS);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testRetryAfterPausesRequests() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 8);
+        limiter.acquire();
+        long start = System.currentTimeMillis();
+        limiter.onThrottled(300);
+        limiter.acquire();
+        long pause = System.currentTimeMillis() - start;
+        assertTrue("Pause: " + pause + " ms", pause >= 290);
+    }
+
+    private static void acquireAll(AdaptiveConcurrencyLimiter limiter) throws InterruptedException {
+        while(limiter.getNumberOfRequestsInFlight() < limiter.getLimit()) {
+            limiter.acquire();
+        }
+    }
+
+    private static void releaseAll(AdaptiveConcurrencyLimiter limiter) {
+        while(limiter.getNumberOfRequestsInFlight() > 0) {
+            limiter.onDropped();
+        }
+    }
+
+}
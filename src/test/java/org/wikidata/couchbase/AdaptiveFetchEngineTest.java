@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests an {@link AdaptiveFetchEngine} with a {@link StubWikidataServer}
+ * which throttles requests with HTTP 429 or 503 and a Retry-After header.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class AdaptiveFetchEngineTest {
+
+    private static final int LIMIT = 8;
+
+    private StubWikidataServer server;
+    private AdaptiveConcurrencyLimiter limiter;
+    private AdaptiveFetchEngine fetchEngine;
+    private CountingCallback callback;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubWikidataServer();
+        server.setLatencyInMs(20);
+        limiter = new AdaptiveConcurrencyLimiter(LIMIT, LIMIT);
+        fetchEngine = new AdaptiveFetchEngine(new JerseyFetchEngine(), limiter);
+        callback = new CountingCallback();
+    }
+
+    @After
+    public void tearDown() {
+        fetchEngine.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testThrottledRequestIsRepeated() throws Exception {
+        server.throttle(429, 2, "0");
+        fetchEngine.fetch(getUrl(1), callback);
+        assertEquals(1, callback.completed.get());
+        assertEquals(0, callback.failed.get());
+        assertEquals(3, server.getNumberOfRequests());
+        assertEquals(2, limiter.getNumberOfThrottledRequests());
+    }
+
+    @Test
+    public void testRetryAfterIsHonoured() throws Exception {
+        server.throttle(503, 1, "1");
+        long start = System.currentTimeMillis();
+        fetchEngine.fetch(getUrl(1), callback);
+        long time = System.currentTimeMillis() - start;
+        assertEquals(1, callback.completed.get());
+        assertTrue("Time: " + time + " ms", time >= 1000);
+    }
+
+    @Test
+    public void testRequestFailsAfterMaxAttempts() throws Exception {
+        server.throttle(429, AdaptiveFetchEngine.MAX_ATTEMPTS, "0");
+        fetchEngine.fetch(getUrl(1), callback);
+        assertEquals(0, callback.completed.get());
+        assertEquals(1, callback.failed.get());
+        assertEquals(429, callback.lastStatus);
+        assertEquals(AdaptiveFetchEngine.MAX_ATTEMPTS, server.getNumberOfRequests());
+    }
+
+    @Test
+    public void testLimitBacksOffAndRecovers() throws Exception {
+        ImportScheduler scheduler = new ImportScheduler(2 * LIMIT);
+        try {
+            fetch(scheduler, 1, 50);
+            assertEquals(LIMIT, limiter.getLimit());
+
+            server.throttle(429, LIMIT, "0");
+            fetch(scheduler, 51, 50 + LIMIT);
+            assertTrue("Limit: " + limiter.getLimit(), limiter.getLimit() < LIMIT);
+            assertTrue("Max. requests in flight: " + server.getMaxRequestsInFlight(), server.getMaxRequestsInFlight() <= LIMIT);
+
+            fetch(scheduler, 51 + LIMIT, 450);
+            assertEquals(LIMIT, limiter.getLimit());
+            assertEquals(450, callback.completed.get());
+            assertEquals(0, callback.failed.get());
+            assertEquals(LIMIT, server.getNumberOfThrottledRequests());
+        } finally {
+            scheduler.shutdown(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void fetch(ImportScheduler scheduler, int firstId, int lastId) throws InterruptedException {
+        for (int id = firstId; id <= lastId; id++) {
+            final String url = getUrl(id);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetchEngine.fetch(url, callback);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        scheduler.awaitCompletion();
+    }
+
+    private String getUrl(int id) {
+        return server.getUrl() + "/wiki/Special:EntityData/Q" + id + ".json";
+    }
+
+    static class CountingCallback implements IFetchCallback {
+
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        volatile int lastStatus;
+
+        @Override
+        public void completed(String json) {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void failed(int status, Exception e) {
+            lastStatus = status;
+            failed.incrementAndGet();
+        }
+    }
+
+}
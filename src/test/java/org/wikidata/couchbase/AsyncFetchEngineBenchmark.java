@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the throughput of the blocking {@link JerseyFetchEngine}
+ * and the non-blocking {@link AsyncFetchEngine}.
+ *
+ * Items are loaded from a {@link StubWikidataServer} which delays every
+ * response. The blocking engine keeps one thread per request in flight,
+ * the async engine a few I/O threads for all requests.
+ *
+ * Usage: AsyncFetchEngineBenchmark [number of items] [latency in ms]
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class AsyncFetchEngineBenchmark {
+
+    private static final int[] NUMBER_OF_THREADS = {Configuration.MAX_NUMBER_Of_THREADS_DEFAULT, 64};
+    private static final int[] NUMBER_OF_REQUESTS = {64, Configuration.MAX_NUMBER_OF_REQUESTS_DEFAULT};
+
+    private int numberOfItems;
+    private StubWikidataServer server;
+
+    public AsyncFetchEngineBenchmark(StubWikidataServer server, int numberOfItems) {
+        super();
+        this.server = server;
+        this.numberOfItems = numberOfItems;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfItems = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        long latencyInMs = (args.length > 1) ? Long.parseLong(args[1]) : 50;
+        StubWikidataServer server = new StubWikidataServer();
+        server.setLatencyInMs(latencyInMs);
+        try {
+            AsyncFetchEngineBenchmark benchmark = new AsyncFetchEngineBenchmark(server, numberOfItems);
+            System.out.println("Items: " + numberOfItems + ", latency: " + latencyInMs + " ms");
+            // warm up
+            benchmark.runAsync(NUMBER_OF_REQUESTS[0]);
+            for (int numberOfThreads : NUMBER_OF_THREADS) {
+                benchmark.runBlocking(numberOfThreads);
+            }
+            for (int numberOfRequests : NUMBER_OF_REQUESTS) {
+                benchmark.runAsync(numberOfRequests);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void runBlocking(int numberOfThreads) throws Exception {
+        final JerseyFetchEngine fetchEngine = new JerseyFetchEngine();
+        final CountingCallback callback = new CountingCallback();
+        ImportScheduler scheduler = new ImportScheduler(numberOfThreads);
+        long start = System.nanoTime();
+        for (int id = 1; id <= numberOfItems; id++) {
+            final String url = getUrl(id);
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fetchEngine.fetch(url, callback);
+                }
+            });
+        }
+        scheduler.awaitCompletion();
+        long timeInNs = System.nanoTime() - start;
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        fetchEngine.shutdown();
+        print("blocking, threads: " + numberOfThreads, callback, timeInNs);
+    }
+
+    private void runAsync(int numberOfRequests) throws Exception {
+        Configuration conf = Configuration.createDefault();
+        conf.setMaxNumberOfRequests(numberOfRequests);
+        ImportScheduler scheduler = new ImportScheduler(Configuration.MAX_NUMBER_Of_THREADS_DEFAULT);
+        AsyncFetchEngine fetchEngine = new AsyncFetchEngine(conf, scheduler.getExecutor());
+        CountingCallback callback = new CountingCallback();
+        long start = System.nanoTime();
+        for (int id = 1; id <= numberOfItems; id++) {
+            fetchEngine.fetch(getUrl(id), callback);
+        }
+        fetchEngine.awaitCompletion();
+        long timeInNs = System.nanoTime() - start;
+        fetchEngine.shutdown();
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        print("async, requests: " + numberOfRequests, callback, timeInNs);
+    }
+
+    private void print(String engine, CountingCallback callback, long timeInNs) {
+        if(callback.completed.get()!=numberOfItems) {
+            throw new IllegalStateException("Loaded items: " + callback.completed.get() + ", failed: " + callback.failed.get());
+        }
+        System.out.println(String.format("%-25s time: %6d ms, items/sec: %8.1f",
+                engine + ",", TimeUnit.NANOSECONDS.toMillis(timeInNs), numberOfItems / (timeInNs / 1e9)));
+    }
+
+    private String getUrl(int id) {
+        return server.getUrl() + "/wiki/Special:EntityData/Q" + id + ".json";
+    }
+
+    static class CountingCallback implements IFetchCallback {
+
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        @Override
+        public void completed(String json) {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void failed(int status, Exception e) {
+            failed.incrementAndGet();
+        }
+    }
+
+}
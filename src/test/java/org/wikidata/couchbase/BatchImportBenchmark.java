@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of imports with one request per item
+ * ({@link WikidataImportThread}) and one wbgetentities request
+ * per range of items ({@link WikidataBatchImportThread}).
+ *
+ * The items are loaded from a {@link StubWikidataServer} which delays
+ * every response. The time of a request is dominated by the latency
+ * as it is with the Wikidata web service.
+ *
+ * Usage: BatchImportBenchmark [number of items] [latency in ms] [number of threads]
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class BatchImportBenchmark {
+
+    private static final int[] BATCH_SIZES = {1, 10, Configuration.BATCH_SIZE_MAX};
+
+    private int numberOfItems;
+    private int numberOfThreads;
+    private StubWikidataServer server;
+
+    public BatchImportBenchmark(StubWikidataServer server, int numberOfItems, int numberOfThreads) {
+        super();
+        this.server = server;
+        this.numberOfItems = numberOfItems;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfItems = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        long latencyInMs = (args.length > 1) ? Long.parseLong(args[1]) : 50;
+        int numberOfThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Configuration.MAX_NUMBER_Of_THREADS_DEFAULT;
+        StubWikidataServer server = new StubWikidataServer();
+        server.setLatencyInMs(latencyInMs);
+        try {
+            BatchImportBenchmark benchmark = new BatchImportBenchmark(server, numberOfItems, numberOfThreads);
+            System.out.println("Items: " + numberOfItems + ", latency: " + latencyInMs + " ms, threads: " + numberOfThreads);
+            // warm up
+            benchmark.run(Configuration.BATCH_SIZE_MAX);
+            for (int batchSize : BATCH_SIZES) {
+                benchmark.run(batchSize);
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void run(int batchSize) throws Exception {
+        MemoryPersistHandler persistHandler = new MemoryPersistHandler();
+        Configuration conf = new Configuration();
+        conf.setDbType("memory");
+        PersistService persistService = new PersistService(conf);
+        persistService.setHandler(persistHandler);
+        JerseyFetchEngine fetchEngine = new JerseyFetchEngine();
+        ImportScheduler scheduler = new ImportScheduler(numberOfThreads);
+        int numberOfRequests = server.getNumberOfRequests();
+        long start = System.nanoTime();
+        for (int id = 1; id <= numberOfItems; id += batchSize) {
+            scheduler.execute(createTask(fetchEngine, persistService, id, Math.min(id + batchSize - 1, numberOfItems)));
+        }
+        scheduler.awaitCompletion();
+        long timeInNs = System.nanoTime() - start;
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        fetchEngine.shutdown();
+        if(persistHandler.getItems().size()!=numberOfItems) {
+            throw new IllegalStateException("Saved items: " + persistHandler.getItems().size() + ", expected: " + numberOfItems);
+        }
+        double seconds = timeInNs / 1e9;
+        System.out.println(String.format("Batch size: %3d, requests: %5d, time: %6d ms, items/sec: %8.1f",
+                batchSize, server.getNumberOfRequests() - numberOfRequests, TimeUnit.NANOSECONDS.toMillis(timeInNs), numberOfItems / seconds));
+    }
+
+    private Runnable createTask(IFetchEngine fetchEngine, PersistService persistService, int firstId, int lastId) {
+        if(firstId==lastId) {
+            return new WikidataImportThread(fetchEngine, persistService, server.getUrl(), firstId);
+        }
+        return new WikidataBatchImportThread(fetchEngine, persistService, server.getUrl(), firstId, lastId);
+    }
+
+}
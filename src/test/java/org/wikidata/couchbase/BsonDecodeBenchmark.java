@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+
+/**
+ * JMH benchmark of the conversion of a stored item (BSON) to a Jackson tree.
+ *
+ * directDecode: {@link JsonNodeDBDecoder}, the tree is built from
+ * the events of the BSON decoder.
+ *
+ * toStringReadTree: the BSON document is decoded to a DBObject
+ * by the decoder of the driver, written to a String and parsed
+ * by an ObjectMapper.
+ *
+ * The documents have the fields of the documents of {@link MongoPersistHandler}.
+ * The setup checks that both conversions return the same tree.
+ *
+ * Usage: BsonDecodeBenchmark or org.openjdk.jmh.Main BsonDecodeBenchmark [JMH options]
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BsonDecodeBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int ITEM_ID = 42;
+
+    /**
+     * Number of claims of the item, the size of the document grows with the claims.
+     */
+    @Param({"5", "50"})
+    public int numberOfClaims;
+
+    private byte[] bson;
+
+    @Setup
+    public void setUp() throws IOException {
+        String json = EntityData.toJson(ITEM_ID, EntityGenerator.createEntity(ITEM_ID, numberOfClaims));
+        DBObject entity = DBObjectParser.parseEntity(json);
+        DBObject document = new BasicDBObject();
+        document.put("item", entity);
+        document.put("_id", MongoPersistHandler.buildDocumentKey(ITEM_ID));
+        document.put(MongoPersistHandler.ITEM_ID_FIELD_NAME, ITEM_ID);
+        document.put(MongoPersistHandler.LAST_REVISION_ID_FIELD_NAME, entity.get(MongoPersistHandler.LAST_REVISION_ID_FIELD_NAME));
+        document.put(MongoPersistHandler.MODIFIED_FIELD_NAME, entity.get(MongoPersistHandler.MODIFIED_FIELD_NAME));
+        document.put(MongoPersistHandler.CONTENT_HASH_FIELD_NAME, ContentHashIndex.hash(json));
+        bson = new DefaultDBEncoder().encode(document);
+        if(!directDecode().equals(toStringReadTree())) {
+            throw new IllegalStateException("Decoded trees are not equal.");
+        }
+    }
+
+    @Benchmark
+    public JsonNode directDecode() {
+        return ((JsonNodeDBObject) new JsonNodeDBDecoder().decode(bson, (DBCollection) null)).getNode();
+    }
+
+    @Benchmark
+    public JsonNode toStringReadTree() throws IOException {
+        return MAPPER.readTree(new DefaultDBDecoder().decode(bson, (DBCollection) null).toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BsonDecodeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
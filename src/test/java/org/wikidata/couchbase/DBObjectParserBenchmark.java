@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * JMH benchmark of the conversion of a Special:EntityData response
+ * to the MongoDB object of the entity.
+ *
+ * streamingParser: {@link DBObjectParser#parseEntity(String)}, one pass
+ * with the streaming parser of Jackson.
+ *
+ * treeToJsonParse: the conversion of MongoPersistHandler before
+ * DBObjectParser, the response is parsed to a tree, the entity
+ * is written to a String and parsed again by the MongoDB driver.
+ *
+ * Usage: DBObjectParserBenchmark or org.openjdk.jmh.Main DBObjectParserBenchmark [JMH options]
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DBObjectParserBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Number of claims of the entity, the size of the entity grows with the claims.
+     */
+    @Param({"5", "50"})
+    public int numberOfClaims;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = EntityData.toJson(42, EntityGenerator.createEntity(42, numberOfClaims));
+    }
+
+    @Benchmark
+    public DBObject streamingParser() throws IOException {
+        return DBObjectParser.parseEntity(json);
+    }
+
+    @Benchmark
+    public Object treeToJsonParse() throws IOException {
+        JsonNode node = MAPPER.readTree(json);
+        Map.Entry<String, JsonNode> entry = node.iterator().next().fields().next();
+        return JSON.parse(entry.getValue().toString());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DBObjectParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Creates synthetic Wikidata entities and dump files for tests
+ * and benchmarks. Entities have the structure of the entities
+ * of a wbgetentities response or a JSON dump: labels, descriptions,
+ * aliases and claims with item, string, quantity and time values.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public abstract class EntityGenerator {
+
+    private static final String[] LANGUAGES = {"en", "de", "fr", "es", "it", "nl", "pl", "ru"};
+
+    /**
+     * Returns the JSON text of an item.
+     *
+     * @param id The numeric id of the item
+     * @param numberOfClaims The number of claims, the size of the item grows with the claims
+     * @return The JSON text of the item
+     */
+    public static String createEntity(int id, int numberOfClaims) {
+        StringBuilder sb = new StringBuilder(512 + numberOfClaims * 400);
+        sb.append("{\"id\":\"Q").append(id).append("\",\"type\":\"item\"");
+        sb.append(",\"lastrevid\":").append(100000L + id);
+        sb.append(",\"modified\":\"2014-02-22T10:00:00Z\"");
+        sb.append(",\"labels\":{");
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            appendTerm(sb, LANGUAGES[i], "Item " + id + " (" + LANGUAGES[i] + ")", i > 0);
+        }
+        sb.append("},\"descriptions\":{");
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            appendTerm(sb, LANGUAGES[i], "Synthetic item number " + id + " with \"quotes\", a back\\slash and \u00fcml\u00e4ute", i > 0);
+        }
+        sb.append("},\"aliases\":{\"en\":[");
+        appendAlias(sb, "Q" + id + " alias", false);
+        appendAlias(sb, "Item #" + id, true);
+        sb.append("]},\"claims\":{");
+        for (int i = 0; i < numberOfClaims; i++) {
+            if(i > 0) {
+                sb.append(',');
+            }
+            appendClaim(sb, id, i);
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static void appendTerm(StringBuilder sb, String language, String value, boolean separator) {
+        if(separator) {
+            sb.append(',');
+        }
+        sb.append('"').append(language).append("\":{\"language\":\"").append(language).append("\",\"value\":\"");
+        appendEscaped(sb, value);
+        sb.append("\"}");
+    }
+
+    private static void appendAlias(StringBuilder sb, String value, boolean separator) {
+        if(separator) {
+            sb.append(',');
+        }
+        sb.append("{\"language\":\"en\",\"value\":\"");
+        appendEscaped(sb, value);
+        sb.append("\"}");
+    }
+
+    private static void appendClaim(StringBuilder sb, int id, int i) {
+        String property = "P" + (31 + i);
+        sb.append('"').append(property).append("\":[{\"id\":\"Q").append(id).append("$").append(i)
+          .append("\",\"type\":\"statement\",\"rank\":\"normal\",\"mainsnak\":{\"snaktype\":\"value\",\"property\":\"")
+          .append(property).append("\",\"datavalue\":");
+        switch (i % 4) {
+        case 0:
+            sb.append("{\"type\":\"wikibase-entityid\",\"value\":{\"entity-type\":\"item\",\"numeric-id\":").append(5 + i).append("}}");
+            break;
+        case 1:
+            sb.append("{\"type\":\"string\",\"value\":\"value ").append(id).append('-').append(i).append("\"}");
+            break;
+        case 2:
+            sb.append("{\"type\":\"quantity\",\"value\":{\"amount\":\"+").append(id * 10 + i)
+              .append(".5\",\"unit\":\"1\",\"upperBound\":\"+").append(id * 10 + i + 1)
+              .append("\",\"lowerBound\":\"+").append(id * 10 + i).append("\"}}");
+            break;
+        default:
+            sb.append("{\"type\":\"time\",\"value\":{\"time\":\"+00000002014-02-22T00:00:00Z\",\"timezone\":0,\"before\":0,\"after\":0,\"precision\":11,")
+              .append("\"calendarmodel\":\"http://www.wikidata.org/entity/Q1985727\"}}");
+            break;
+        }
+        sb.append("},\"references\":[{\"hash\":\"").append(Integer.toHexString(id * 31 + i))
+          .append("\",\"snaks\":{\"P143\":[{\"snaktype\":\"value\",\"property\":\"P143\",\"datavalue\":{\"type\":\"wikibase-entityid\",\"value\":{\"entity-type\":\"item\",\"numeric-id\":328}}}]}}]}]");
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c=='"' || c=='\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    /**
+     * Writes a dump in the format of the Wikidata JSON dumps: a JSON
+     * array with one entity per line. The stream is not closed.
+     *
+     * @param out The stream of the dump, e.g. a compressing stream
+     * @param firstId The id of the first item
+     * @param lastId The id of the last item
+     * @param numberOfClaims The number of claims of every item
+     * @throws IOException
+     */
+    public static void writeDump(OutputStream out, int firstId, int lastId, int numberOfClaims) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        writer.write("[\n");
+        for (int id = firstId; id <= lastId; id++) {
+            writer.write(createEntity(id, numberOfClaims));
+            writer.write((id < lastId) ? ",\n" : "\n");
+        }
+        writer.write("]\n");
+        writer.flush();
+    }
+
+}
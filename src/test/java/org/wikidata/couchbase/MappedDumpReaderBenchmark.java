@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of a {@link MappedDumpReader} with a buffered
+ * stream in MB/s and entities/s.
+ *
+ * The benchmark generates an uncompressed sample dump with {@link EntityGenerator}.
+ * The buffered path reads the dump with one thread through the BufferedInputStream
+ * of {@link WikidataDumpReader#openDumpFile(String)} and splits it into lines.
+ * The MappedDumpReader maps the file into memory and reads it with 1 to 8 threads.
+ * Both paths pass the lines to a {@link DumpLineHandler}, the parse work is the same.
+ * The items are passed to the same number of worker threads. Items are counted by
+ * a {@link MemoryPersistHandler}, not saved.
+ *
+ * Usage: MappedDumpReaderBenchmark [number of items] [number of claims]
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class MappedDumpReaderBenchmark {
+
+    private static final int[] NUMBER_OF_THREADS = {1, 2, 4, 8};
+    private static final int LINE_BUFFER_SIZE = 1 << 20;
+
+    private File dumpFile;
+    private int numberOfItems;
+
+    public MappedDumpReaderBenchmark(File dumpFile, int numberOfItems) {
+        super();
+        this.dumpFile = dumpFile;
+        this.numberOfItems = numberOfItems;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfItems = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int numberOfClaims = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        File directory = ParallelDumpReaderBenchmark.createTempDirectory();
+        try {
+            File dump = new File(directory, "dump.json");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(dump));
+            try {
+                EntityGenerator.writeDump(out, 1, numberOfItems, numberOfClaims);
+            } finally {
+                out.close();
+            }
+            System.out.println("Items: " + numberOfItems + ", dump size: " + (dump.length() >> 20) + " MB, cores: "
+                    + Runtime.getRuntime().availableProcessors());
+            MappedDumpReaderBenchmark benchmark = new MappedDumpReaderBenchmark(dump, numberOfItems);
+            // warm up
+            benchmark.readBuffered();
+            benchmark.readMapped(NUMBER_OF_THREADS[NUMBER_OF_THREADS.length - 1]);
+            benchmark.print("buffered stream", 1, benchmark.readBuffered());
+            for (int numberOfThreads : NUMBER_OF_THREADS) {
+                benchmark.print("mapped", numberOfThreads, benchmark.readMapped(numberOfThreads));
+            }
+        } finally {
+            ParallelDumpReaderBenchmark.delete(directory);
+        }
+    }
+
+    private long readBuffered() throws Exception {
+        int numberOfThreads = NUMBER_OF_THREADS[NUMBER_OF_THREADS.length - 1];
+        MemoryPersistHandler persistHandler = new MemoryPersistHandler(false);
+        Configuration conf = createConfiguration(numberOfThreads);
+        ImportScheduler scheduler = new ImportScheduler(numberOfThreads);
+        DumpLineHandler handler = new DumpLineHandler(conf, createPersistService(conf, persistHandler), scheduler, new DumpStatistics(dumpFile.length()));
+        long start = System.nanoTime();
+        InputStream in = WikidataDumpReader.openDumpFile(dumpFile.getPath());
+        try {
+            readLines(in, handler);
+        } finally {
+            in.close();
+        }
+        scheduler.awaitCompletion();
+        long timeInNs = System.nanoTime() - start;
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        check(persistHandler);
+        return timeInNs;
+    }
+
+    /**
+     * Splits a stream into lines and passes them to the handler.
+     */
+    private static void readLines(InputStream in, DumpLineHandler handler) throws IOException, InterruptedException {
+        byte[] buffer = new byte[LINE_BUFFER_SIZE];
+        int length = 0;
+        int n;
+        while((n = in.read(buffer, length, buffer.length - length)) >= 0) {
+            int scanStart = length;
+            length += n;
+            int lineStart = 0;
+            for (int i = scanStart; i < length; i++) {
+                if(buffer[i]=='\n') {
+                    handler.handleLine(buffer, lineStart, i - lineStart);
+                    lineStart = i + 1;
+                }
+            }
+            length -= lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+            if(length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        if(length > 0) {
+            handler.handleLine(buffer, 0, length);
+        }
+        handler.flush();
+    }
+
+    private long readMapped(int numberOfThreads) throws Exception {
+        MemoryPersistHandler persistHandler = new MemoryPersistHandler(false);
+        Configuration conf = createConfiguration(numberOfThreads);
+        ImportScheduler scheduler = new ImportScheduler(NUMBER_OF_THREADS[NUMBER_OF_THREADS.length - 1]);
+        MappedDumpReader reader = new MappedDumpReader(conf, createPersistService(conf, persistHandler), scheduler);
+        long start = System.nanoTime();
+        reader.read(dumpFile.getPath());
+        long timeInNs = System.nanoTime() - start;
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        check(persistHandler);
+        return timeInNs;
+    }
+
+    private static Configuration createConfiguration(int numberOfThreads) {
+        Configuration conf = new Configuration();
+        conf.setDbType("memory");
+        conf.setParallelism(numberOfThreads);
+        conf.setLastId(Integer.MAX_VALUE);
+        return conf;
+    }
+
+    private static PersistService createPersistService(Configuration conf, MemoryPersistHandler persistHandler) {
+        PersistService persistService = new PersistService(conf);
+        persistService.setHandler(persistHandler);
+        return persistService;
+    }
+
+    private void check(MemoryPersistHandler persistHandler) {
+        if(persistHandler.getNumberOfSavedItems()!=numberOfItems) {
+            throw new IllegalStateException("Saved items: " + persistHandler.getNumberOfSavedItems() + ", expected: " + numberOfItems);
+        }
+    }
+
+    private void print(String reader, int numberOfThreads, long timeInNs) {
+        double seconds = timeInNs / 1e9;
+        System.out.println(String.format("%-16s threads: %2d, time: %6d ms, MB/s: %7.1f, entities/s: %9.1f",
+                reader + ",", numberOfThreads, TimeUnit.NANOSECONDS.toMillis(timeInNs), dumpFile.length() / seconds / (1 << 20), numberOfItems / seconds));
+    }
+
+}
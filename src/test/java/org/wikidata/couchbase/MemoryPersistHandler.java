@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * A persist handler which keeps the JSON text of the items
+ * in a map. Writes of items can be configured to fail,
+ * see {@link #addFailingId(int)}. A handler for benchmarks
+ * counts the saved items without keeping them.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class MemoryPersistHandler implements IPersistHandler {
+
+    private Map<Integer, String> items = new ConcurrentHashMap<Integer, String>();
+    private Set<Integer> failingIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private AtomicLong numberOfSavedItems = new AtomicLong();
+    private boolean keepItems;
+
+    public MemoryPersistHandler() {
+        this(true);
+    }
+
+    /**
+     * @param keepItems false if items are counted and not kept
+     */
+    public MemoryPersistHandler(boolean keepItems) {
+        super();
+        this.keepItems = keepItems;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(java.lang.Integer, java.lang.String)
+     */
+    @Override
+    public void save(Integer id, String json) {
+        put(id, json);
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#createDocument(java.lang.Integer, java.lang.String)
+     */
+    @Override
+    public ItemDocument createDocument(Integer id, String json) {
+        return new ItemDocument(id, json, null);
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(org.wikidata.couchbase.ItemDocument)
+     */
+    @Override
+    public void save(ItemDocument document) {
+        if(failingIds.contains(document.getId())) {
+            document.writeFailed(new RuntimeException("Write of item " + document.getId() + " failed."));
+            return;
+        }
+        put(document.getId(), document.getJson());
+        document.written();
+    }
+
+    private void put(Integer id, String json) {
+        numberOfSavedItems.incrementAndGet();
+        if(keepItems) {
+            items.put(id, json);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(com.mongodb.DBObject)
+     */
+    @Override
+    public void save(DBObject object) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#save(java.lang.String, com.mongodb.DBObject)
+     */
+    @Override
+    public void save(String collectionName, DBObject object) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#scan(int, int, java.lang.String[])
+     */
+    @Override
+    public ItemCursor scan(int firstId, int stopId, String[] fields) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#count()
+     */
+    @Override
+    public long count() {
+        return keepItems ? items.size() : numberOfSavedItems.get();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#count(java.lang.String)
+     */
+    @Override
+    public long count(String collectionName) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getMaxItemId()
+     */
+    @Override
+    public Integer getMaxItemId() {
+        return items.isEmpty() ? null : Collections.max(items.keySet());
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getLastRevisionIds(java.util.Collection)
+     */
+    @Override
+    public Map<Integer, Long> getLastRevisionIds(Collection<Integer> ids) {
+        return new HashMap<Integer, Long>();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#getLastModified()
+     */
+    @Override
+    public String getLastModified() {
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#setMemoryBudget(org.wikidata.couchbase.MemoryBudget)
+     */
+    @Override
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        // documents are written before save returns
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#flush()
+     */
+    @Override
+    public void flush() {
+        // documents are written before save returns
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        // nothing to release
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#find(com.mongodb.BasicDBObject)
+     */
+    @Override
+    public DBCursor find(BasicDBObject doc) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* (non-Javadoc)
+     * @see org.wikidata.couchbase.IPersistHandler#find(com.mongodb.BasicDBObject, java.lang.String[])
+     */
+    @Override
+    public DBCursor find(BasicDBObject doc, String[] fields) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * The write of the item with the id fails,
+     * {@link ItemDocument#writeFailed(Exception)} is called.
+     */
+    public void addFailingId(int id) {
+        failingIds.add(id);
+    }
+
+    public Map<Integer, String> getItems() {
+        return items;
+    }
+
+    public long getNumberOfSavedItems() {
+        return numberOfSavedItems.get();
+    }
+
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * Measures the throughput of a {@link ParallelDumpReader} by number
+ * of threads in MB/s (uncompressed) and entities/s.
+ *
+ * The benchmark generates a sample dump with {@link EntityGenerator}
+ * and compresses it to a multi-member gzip and a multi-stream bzip2
+ * file. Every member (stream) contains {@link #MEMBER_SIZE} bytes of
+ * the dump, like a dump compressed by bgzip or pbzip2. The chunk size
+ * of the reader is reduced to get enough chunks for all threads.
+ * Items are counted by a {@link MemoryPersistHandler}, not saved.
+ *
+ * Usage: ParallelDumpReaderBenchmark [number of items] [number of claims]
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class ParallelDumpReaderBenchmark {
+
+    private static final int[] NUMBER_OF_THREADS = {1, 2, 4, 8};
+    private static final int MEMBER_SIZE = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private File dumpFile;
+    private long dumpSize;
+    private int numberOfItems;
+
+    public ParallelDumpReaderBenchmark(File dumpFile, int numberOfItems) {
+        super();
+        this.dumpFile = dumpFile;
+        this.dumpSize = dumpFile.length();
+        this.numberOfItems = numberOfItems;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numberOfItems = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        int numberOfClaims = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        File directory = createTempDirectory();
+        try {
+            File dump = new File(directory, "dump.json");
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(dump));
+            try {
+                EntityGenerator.writeDump(out, 1, numberOfItems, numberOfClaims);
+            } finally {
+                out.close();
+            }
+            ParallelDumpReaderBenchmark benchmark = new ParallelDumpReaderBenchmark(dump, numberOfItems);
+            System.out.println("Items: " + numberOfItems + ", dump size: " + (dump.length() >> 20) + " MB, cores: "
+                    + Runtime.getRuntime().availableProcessors());
+            benchmark.run(benchmark.compress(new File(directory, "dump.json.gz")));
+            benchmark.run(benchmark.compress(new File(directory, "dump.json.bz2")));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Compresses the dump, every {@link #MEMBER_SIZE} bytes
+     * are compressed to a member (stream) of their own.
+     */
+    private File compress(File compressedFile) throws IOException {
+        boolean gzip = DumpStreamIndex.isGzip(compressedFile.getPath());
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(compressedFile));
+        InputStream in = new FileInputStream(dumpFile);
+        try {
+            byte[] buffer = new byte[MEMBER_SIZE];
+            int n;
+            while((n = readFully(in, buffer)) > 0) {
+                OutputStream member = gzip ? new GZIPOutputStream(new UnclosedOutputStream(out)) : new BZip2CompressorOutputStream(new UnclosedOutputStream(out));
+                member.write(buffer, 0, n);
+                member.close();
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return compressedFile;
+    }
+
+    private void run(File compressedFile) throws Exception {
+        String fileName = compressedFile.getPath();
+        long chunkSize = Math.max(1, compressedFile.length() / (NUMBER_OF_THREADS[NUMBER_OF_THREADS.length - 1] * CHUNKS_PER_THREAD));
+        System.out.println(compressedFile.getName() + ", size: " + (compressedFile.length() >> 20) + " MB, streams: "
+                + DumpStreamIndex.getStreamOffsets(fileName).size() + ", chunk size: " + (chunkSize >> 10) + " KB");
+        // warm up
+        read(fileName, chunkSize, NUMBER_OF_THREADS[NUMBER_OF_THREADS.length - 1]);
+        for (int numberOfThreads : NUMBER_OF_THREADS) {
+            long timeInNs = read(fileName, chunkSize, numberOfThreads);
+            double seconds = timeInNs / 1e9;
+            System.out.println(String.format("Threads: %2d, time: %6d ms, MB/s: %7.1f, entities/s: %9.1f",
+                    numberOfThreads, TimeUnit.NANOSECONDS.toMillis(timeInNs), dumpSize / seconds / (1 << 20), numberOfItems / seconds));
+        }
+    }
+
+    private long read(String fileName, long chunkSize, int numberOfThreads) throws Exception {
+        Configuration conf = new Configuration();
+        conf.setDbType("memory");
+        conf.setParallelism(numberOfThreads);
+        conf.setLastId(Integer.MAX_VALUE);
+        MemoryPersistHandler persistHandler = new MemoryPersistHandler(false);
+        PersistService persistService = new PersistService(conf);
+        persistService.setHandler(persistHandler);
+        ImportScheduler scheduler = new ImportScheduler(numberOfThreads);
+        ParallelDumpReader reader = new ParallelDumpReader(conf, persistService, scheduler);
+        reader.setChunkSize(chunkSize);
+        long start = System.nanoTime();
+        reader.read(fileName);
+        long timeInNs = System.nanoTime() - start;
+        scheduler.shutdown(1, TimeUnit.MINUTES);
+        if(persistHandler.getNumberOfSavedItems()!=numberOfItems) {
+            throw new IllegalStateException("Saved items: " + persistHandler.getNumberOfSavedItems() + ", expected: " + numberOfItems);
+        }
+        return timeInNs;
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int n;
+        while(length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) >= 0) {
+            length += n;
+        }
+        return length;
+    }
+
+    static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("wci-benchmark", "");
+        if(!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Can not create directory: " + directory.getPath());
+        }
+        return directory;
+    }
+
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if(files!=null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Finishes a member without closing the file.
+     */
+    static class UnclosedOutputStream extends FilterOutputStream {
+
+        UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server which answers the requests of the importer
+ * with canned responses of synthetic items, see {@link EntityGenerator}.
+ *
+ * Supported requests:
+ * /wiki/Special:EntityData/Q&lt;id&gt;.json - one item, 404 if the item is missing
+ * /w/api.php?action=wbgetentities&amp;ids=Q1|Q2 - a list of items
+ *
+ * Items can be missing or redirected to other items. The server
+ * can throttle the next responses with a status (e.g. 429) and a
+ * Retry-After header. Every response can be delayed.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class StubWikidataServer {
+
+    private static final String ENTITY_DATA_PATH = "/wiki/Special:EntityData/";
+    private static final String API_PATH = "/w/api.php";
+    private static final String CHARSET = "UTF-8";
+    private static final int MAX_IDLE_CONNECTIONS = 1024;
+
+    static {
+        // the server closes idle keep-alive connections above 200 by default,
+        // a client with a larger connection pool gets closed connections
+        if(System.getProperty("sun.net.httpserver.maxIdleConnections")==null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+        }
+    }
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private int numberOfClaims = 5;
+    private volatile long latencyInMs = 0;
+    private Set<Integer> missingIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private Map<Integer, Integer> redirects = new ConcurrentHashMap<Integer, Integer>();
+    private Map<String, String> responses = new ConcurrentHashMap<String, String>();
+
+    private AtomicInteger throttledResponses = new AtomicInteger();
+    private volatile int throttleStatus;
+    private volatile String retryAfter;
+
+    private AtomicInteger numberOfRequests = new AtomicInteger();
+    private AtomicInteger numberOfThrottledRequests = new AtomicInteger();
+    private AtomicInteger requestsInFlight = new AtomicInteger();
+    private AtomicInteger maxRequestsInFlight = new AtomicInteger();
+    private List<String> requestedIds = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Starts a server on a free local port.
+     *
+     * @throws IOException
+     */
+    public StubWikidataServer() throws IOException {
+        super();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), MAX_IDLE_CONNECTIONS);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        numberOfRequests.incrementAndGet();
+        updateMaxRequestsInFlight(requestsInFlight.incrementAndGet());
+        try {
+            delay();
+            if(throttledResponses.getAndDecrement() > 0) {
+                numberOfThrottledRequests.incrementAndGet();
+                if(retryAfter!=null) {
+                    exchange.getResponseHeaders().add("Retry-After", retryAfter);
+                }
+                exchange.sendResponseHeaders(throttleStatus, -1);
+                return;
+            }
+            throttledResponses.compareAndSet(-1, 0);
+            String path = exchange.getRequestURI().getPath();
+            if(path.startsWith(ENTITY_DATA_PATH)) {
+                handleEntityData(exchange, path.substring(ENTITY_DATA_PATH.length(), path.length() - ".json".length()));
+            } else if(path.equals(API_PATH)) {
+                handleGetEntities(exchange, getParameter(exchange, "ids"));
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } finally {
+            requestsInFlight.decrementAndGet();
+        }
+    }
+
+    private void handleEntityData(HttpExchange exchange, String entityId) throws IOException {
+        requestedIds.add(entityId);
+        Integer id = EntityData.parseItemId(entityId);
+        if(id==null || missingIds.contains(id)) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        // a redirected item is answered with the target of the redirect
+        Integer targetId = redirects.containsKey(id) ? redirects.get(id) : id;
+        send(exchange, EntityData.toJson(targetId, getEntity(targetId)));
+    }
+
+    private void handleGetEntities(HttpExchange exchange, String ids) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"entities\":{");
+        boolean first = true;
+        for (String entityId : ids.split("\\|")) {
+            requestedIds.add(entityId);
+            if(!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(entityId).append("\":");
+            Integer id = EntityData.parseItemId(entityId);
+            if(id==null || missingIds.contains(id)) {
+                sb.append("{\"id\":\"").append(entityId).append("\",\"missing\":\"\"}");
+            } else if(redirects.containsKey(id)) {
+                Integer targetId = redirects.get(id);
+                String entity = getEntity(targetId);
+                sb.append(entity, 0, entity.length() - 1);
+                sb.append(",\"redirects\":{\"from\":\"").append(entityId).append("\",\"to\":\"Q").append(targetId).append("\"}}");
+            } else {
+                sb.append(getEntity(id));
+            }
+        }
+        sb.append("},\"success\":1}");
+        send(exchange, sb.toString());
+    }
+
+    private String getEntity(Integer id) {
+        String entity = responses.get("Q" + id);
+        return (entity!=null) ? entity : EntityGenerator.createEntity(id, numberOfClaims);
+    }
+
+    private static String getParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query==null) {
+            return "";
+        }
+        for (String parameter : query.split("&")) {
+            if(parameter.startsWith(name + "=")) {
+                return URLDecoder.decode(parameter.substring(name.length() + 1), CHARSET);
+            }
+        }
+        return "";
+    }
+
+    private static void send(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes(CHARSET);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private void delay() {
+        if(latencyInMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyInMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void updateMaxRequestsInFlight(int n) {
+        int max = maxRequestsInFlight.get();
+        while(n > max && !maxRequestsInFlight.compareAndSet(max, n)) {
+            max = maxRequestsInFlight.get();
+        }
+    }
+
+    /**
+     * Answers the next requests with an error status.
+     *
+     * @param status The HTTP status, e.g. 429 or 503
+     * @param numberOfResponses The number of responses with the status
+     * @param retryAfter The value of the Retry-After header or null
+     */
+    public void throttle(int status, int numberOfResponses, String retryAfter) {
+        this.throttleStatus = status;
+        this.retryAfter = retryAfter;
+        this.throttledResponses.set(numberOfResponses);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the URL of the server, e.g. "http://127.0.0.1:4711"
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void addMissing(int id) {
+        missingIds.add(id);
+    }
+
+    public void addRedirect(int id, int targetId) {
+        redirects.put(id, targetId);
+    }
+
+    /**
+     * Sets the JSON text of an entity, by default
+     * entities are created by {@link EntityGenerator}.
+     */
+    public void setEntity(int id, String entity) {
+        responses.put("Q" + id, entity);
+    }
+
+    public void setNumberOfClaims(int numberOfClaims) {
+        this.numberOfClaims = numberOfClaims;
+    }
+
+    public void setLatencyInMs(long latencyInMs) {
+        this.latencyInMs = latencyInMs;
+    }
+
+    public int getNumberOfRequests() {
+        return numberOfRequests.get();
+    }
+
+    public int getNumberOfThrottledRequests() {
+        return numberOfThrottledRequests.get();
+    }
+
+    public int getMaxRequestsInFlight() {
+        return maxRequestsInFlight.get();
+    }
+
+    /**
+     * Returns the entity ids of all requests, e.g. "Q42".
+     */
+    public List<String> getRequestedIds() {
+        synchronized (requestedIds) {
+            return new ArrayList<String>(requestedIds);
+        }
+    }
+
+}
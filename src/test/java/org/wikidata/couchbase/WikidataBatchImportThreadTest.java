@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Daniel Murygin.
+ *
+ * This program is free software: you can redistribute it and/or 
+ * modify it under the terms of the GNU Lesser General Public License 
+ * as published by the Free Software Foundation, either version 3 
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,    
+ * but WITHOUT ANY WARRANTY; without even the implied warranty 
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  
+ * See the GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program. 
+ * If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * Contributors:
+ *     Daniel Murygin <dm[at]sernet[dot]de> - initial API and implementation
+ ******************************************************************************/
+package org.wikidata.couchbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests {@link WikidataBatchImportThread} with the canned wbgetentities
+ * responses of a {@link StubWikidataServer}.
+ *
+ * @author Daniel Murygin <dm[at]sernet[dot]de>
+ */
+public class WikidataBatchImportThreadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubWikidataServer server;
+    private JerseyFetchEngine fetchEngine;
+    private MemoryPersistHandler persistHandler;
+    private PersistService persistService;
+    private CheckpointJournal journal;
+    private TombstoneBitmap tombstones;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubWikidataServer();
+        server.addMissing(3);
+        server.addRedirect(5, 7);
+        fetchEngine = new JerseyFetchEngine();
+        persistHandler = new MemoryPersistHandler();
+        Configuration conf = new Configuration();
+        conf.setDbType("memory");
+        persistService = new PersistService(conf);
+        persistService.setHandler(persistHandler);
+        journal = new CheckpointJournal(new File(folder.getRoot(), "journal").getPath());
+        tombstones = new TombstoneBitmap(new File(folder.getRoot(), "tombstones").getPath(), TimeUnit.DAYS.toMillis(1));
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+        tombstones.close();
+        fetchEngine.shutdown();
+        server.stop();
+    }
+
+    @Test
+    public void testOneRequestPerRange() {
+        createThread(1, 10).run();
+        assertEquals(1, server.getNumberOfRequests());
+        assertEquals(Arrays.asList("Q1", "Q2", "Q3", "Q4", "Q5", "Q6", "Q7", "Q8", "Q9", "Q10"), server.getRequestedIds());
+    }
+
+    @Test
+    public void testSavedItems() throws Exception {
+        createThread(1, 10).run();
+        assertEquals(8, persistHandler.getItems().size());
+        assertFalse(persistHandler.getItems().containsKey(3));
+        assertFalse(persistHandler.getItems().containsKey(5));
+        for (int id : new int[]{1, 2, 4, 6, 7, 8, 9, 10}) {
+            JsonNode item = MAPPER.readTree(persistHandler.getItems().get(id));
+            assertEquals("Q" + id, item.path("entities").path("Q" + id).path("id").asText());
+        }
+    }
+
+    @Test
+    public void testMissingAndRedirectedItems() {
+        createThread(1, 10).run();
+        assertTrue(tombstones.isTombstone(3));
+        assertTrue(tombstones.isTombstone(5));
+        assertEquals(2, tombstones.getNumberOfTombstones());
+        // missing and redirected items are completed
+        for (int id = 1; id <= 10; id++) {
+            assertTrue("Item " + id + " is not completed", journal.isCompleted(id));
+        }
+    }
+
+    @Test
+    public void testFailedWriteIsNotCompleted() {
+        persistHandler.addFailingId(4);
+        createThread(1, 10).run();
+        assertFalse(journal.isCompleted(4));
+        assertFalse(persistHandler.getItems().containsKey(4));
+        assertTrue(journal.isCompleted(6));
+        assertEquals(4, journal.getLowWatermark(1));
+    }
+
+    @Test
+    public void testTombstonesAreNotRequested() {
+        tombstones.add(2);
+        tombstones.add(3);
+        createThread(1, 4).run();
+        assertEquals(Arrays.asList("Q1", "Q4"), server.getRequestedIds());
+        assertEquals(2, persistHandler.getItems().size());
+    }
+
+    @Test
+    public void testRangeOfTombstones() {
+        tombstones.add(1);
+        tombstones.add(2);
+        createThread(1, 2).run();
+        assertEquals(0, server.getNumberOfRequests());
+    }
+
+    @Test
+    public void testCompletedItemsAreNotRequested() {
+        journal.markCompleted(2);
+        journal.markCompleted(4);
+        createThread(1, 4).run();
+        assertEquals(Arrays.asList("Q1", "Q3"), server.getRequestedIds());
+        assertEquals(1, persistHandler.getItems().size());
+        assertFalse(persistHandler.getItems().containsKey(2));
+        assertFalse(persistHandler.getItems().containsKey(4));
+    }
+
+    @Test
+    public void testRangeOfCompletedItems() {
+        journal.markCompleted(1);
+        journal.markCompleted(2);
+        createThread(1, 2).run();
+        assertEquals(0, server.getNumberOfRequests());
+    }
+
+    private WikidataBatchImportThread createThread(int firstId, int lastId) {
+        WikidataBatchImportThread thread = new WikidataBatchImportThread(fetchEngine, persistService, server.getUrl(), firstId, lastId);
+        thread.setJournal(journal);
+        thread.setTombstones(tombstones);
+        return thread;
+    }
+
+}